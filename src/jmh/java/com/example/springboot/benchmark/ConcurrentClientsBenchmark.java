@@ -0,0 +1,159 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.Application;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.service.IngestService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+Starts the application on a random port and sends waves of concurrent /api/query requests, 1k and 10k at a time, with
+request handling on platform threads (the Tomcat pool) and on virtual threads (spring.threads.virtual.enabled). The
+score is the time for a whole wave to be answered, divide the clients by it for the throughput. The latency of every
+request, from its send to its response, is recorded in an HdrHistogram. Its percentiles are printed after each
+measured iteration and for all of them at the end of the run, as the wave time only shows the slowest request.
+Every request needs a JDBC connection, so with virtual threads the Hikari pool is what bounds the concurrency.
+Virtual threads need Java 21 or later, on an older JVM both modes run on platform threads. 10k connections also need a
+matching limit of open files (ulimit -n).
+Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="ConcurrentClientsBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(1)
+public class ConcurrentClientsBenchmark {
+
+    // Highest latency tracked by the histograms, 10 minutes in microseconds
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    // Percentiles printed for the request latencies
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    // Requests in flight at the same time
+    @Param({"1000", "10000"})
+    public int clients;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private ExecutorService clientExecutor;
+    private HttpRequest request;
+
+    // Latencies of the current iteration and of all measured ones
+    private final Histogram iterationLatency = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+    private final Histogram latency = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+
+    @Setup
+    public void setUp() {
+
+        context = new SpringApplicationBuilder(Application.class)
+                .properties(
+                        "server.port=0",
+                        "security.enabled=false",
+                        "simulator.enabled=false",
+                        "logging.file.name=",
+                        "spring.datasource.url=jdbc:h2:mem:clients" + virtualThreads + clients,
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "server.tomcat.max-connections=" + (clients + 1000),
+                        "server.tomcat.accept-count=" + clients)
+                .run();
+
+        // A day of readings on 50 thermostats, one every minute
+        Instant start = Instant.parse("2025-10-03T00:00:00Z");
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 1440 * 50; i++) {
+            SensorReading reading = new SensorReading();
+            reading.setDeviceId("thermostat-" + i % 50);
+            reading.setDeviceType("thermostat");
+            reading.setGroupId("group-" + i % 5);
+            reading.setMetric("temperature");
+            reading.setReading(20 + i % 100 / 10.0);
+            reading.setTs(start.plusSeconds(i / 50 * 60L));
+            readings.add(reading);
+        }
+        context.getBean(IngestService.class).saveReadings(readings);
+
+        String port = context.getEnvironment().getProperty("local.server.port");
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + port
+                        + "/api/query?from=2025-10-03T00:00:00Z&to=2025-10-03T23:59:59Z&groupByDeviceId=true&agg=avg,max,count"))
+                .timeout(Duration.ofMinutes(2))
+                .build();
+        clientExecutor = Executors.newFixedThreadPool(8);
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientExecutor)
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void recordIteration(IterationParams params) {
+        // Warmup waves are not part of the percentiles
+        if (params.getType() == IterationType.MEASUREMENT) {
+            System.out.println("request latency (ms): " + summary(iterationLatency));
+            latency.add(iterationLatency);
+        }
+        iterationLatency.reset();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("request latency of all measured waves (ms, " + latency.getTotalCount() + " requests): "
+                + summary(latency));
+        clientExecutor.shutdownNow();
+        context.close();
+    }
+
+    @Benchmark
+    public int wave() {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            long sent = System.nanoTime();
+            responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, e) -> iterationLatency.recordValue(
+                            Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent), HIGHEST_LATENCY_MICROS))));
+        }
+
+        int ok = 0;
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+            if (response.join().statusCode() == 200) {
+                ok++;
+            }
+        }
+        if (ok != clients) {
+            throw new IllegalStateException((clients - ok) + " of " + clients + " requests failed");
+        }
+        return ok;
+    }
+
+    private static String summary(Histogram histogram) {
+        StringBuilder summary = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            summary.append("p").append(BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString()).append("=")
+                    .append(String.format("%.2f", histogram.getValueAtPercentile(percentile) / 1000.0)).append(" ");
+        }
+        return summary.append("max=").append(String.format("%.2f", histogram.getMaxValue() / 1000.0)).toString();
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.repository.SensorReadingRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+Measures SensorReadingRepositoryImpl.getDynamicAggregates over the whole seeded range (see SeededDataset) for every
+combination of group by and filter, on 10^5 to 10^7 readings. The filters match all the series, the 50 thermostats
+or a single device. Each combination seeds its own database, narrow the run with e.g. -p rows=100000.
+Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="DynamicAggregateBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DynamicAggregateBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public long rows;
+
+    // Columns grouped by, none for a single group
+    @Param({"none", "deviceId", "groupId", "deviceType,metric"})
+    public String groupBy;
+
+    @Param({"none", "deviceType", "deviceId"})
+    public String filter;
+
+    private ConfigurableApplicationContext context;
+    private SensorReadingRepository repository;
+    private AggregateQueryParams params;
+
+    @Setup
+    public void setUp() {
+        context = SeededDataset.start("aggregates");
+        SeededDataset.seed(context, rows);
+        repository = context.getBean(SensorReadingRepository.class);
+
+        List<String> columns = List.of(groupBy.split(","));
+        params = new AggregateQueryParams(
+                filter.equals("deviceId") ? "thermostat-7" : null,
+                filter.equals("deviceType") ? "thermostat" : null,
+                null, null,
+                SeededDataset.START, SeededDataset.START.plusSeconds(rows), "count,avg,min,max",
+                columns.contains("deviceId"), columns.contains("deviceType"), columns.contains("groupId"),
+                columns.contains("metric"), false, null, null, null, null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<AggregateResponse> getDynamicAggregates() {
+        return repository.getDynamicAggregates(params);
+    }
+}
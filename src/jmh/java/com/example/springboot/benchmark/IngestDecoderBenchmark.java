@@ -0,0 +1,86 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.codec.SensorFrameDecoder;
+import com.example.springboot.codec.SensorFrameEncoder;
+import com.example.springboot.entity.SensorReading;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Compares the cost of turning a request body into validated SensorReading objects for the JSON batch format and the
+binary frame format. Both bodies carry the same readings. The database insert is intentionally left out.
+Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="IngestDecoderBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestDecoderBenchmark {
+
+    // Readings per request body
+    @Param({"100", "1000"})
+    public int readings;
+
+    private byte[] json;
+    private byte[] frame;
+
+    private ObjectReader jsonReader;
+    private Validator validator;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        jsonReader = objectMapper.readerForListOf(SensorReading.class);
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+        Random random = new Random(42);
+        Instant start = Instant.parse("2025-10-03T00:00:00Z");
+        List<SensorReading> body = new ArrayList<>(readings);
+        for (int i = 0; i < readings; i++) {
+            SensorReading reading = new SensorReading();
+            reading.setDeviceId("thermostat-" + random.nextInt(50));
+            reading.setDeviceType("thermostat");
+            reading.setGroupId("group-" + random.nextInt(5));
+            reading.setMetric("temperature");
+            reading.setReading(20 + random.nextDouble() * 10);
+            reading.setTs(start.plusMillis(i * 250L));
+            body.add(reading);
+        }
+
+        json = objectMapper.writeValueAsBytes(body);
+        frame = SensorFrameEncoder.encode(body);
+    }
+
+    @Benchmark
+    public void json(Blackhole blackhole) throws IOException {
+        List<SensorReading> decoded = jsonReader.readValue(json);
+        for (SensorReading reading : decoded) {
+            blackhole.consume(validator.validate(reading, SensorReading.Ingest.class));
+        }
+        blackhole.consume(decoded);
+    }
+
+    @Benchmark
+    public List<SensorReading> binaryFrame() throws IOException {
+        return new SensorFrameDecoder(new ByteArrayInputStream(frame), Integer.MAX_VALUE).nextFrame();
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.entity.SensorReading;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+Measures writing query results (AggregateResponse) and readings (SensorReading) as JSON with an ObjectMapper configured
+like the one of Spring Boot. The aggregates carry the default functions and two percentiles, the way a grouped query
+returns them. Reading JSON is covered by IngestDecoderBenchmark.
+Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="JsonSerializationBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    // Objects per JSON array, one group or reading up to a large grouped query
+    @Param({"1", "100", "10000"})
+    public int size;
+
+    private ObjectMapper objectMapper;
+    private List<AggregateResponse> aggregates;
+    private List<SensorReading> readings;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        Instant start = Instant.parse("2025-10-03T00:00:00Z");
+        aggregates = new ArrayList<>(size);
+        readings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            AggregateResponse aggregate = new AggregateResponse();
+            aggregate.setDeviceId("thermostat-" + i);
+            aggregate.setGroupId("group-" + i % 5);
+            aggregate.setCount(1440L + i);
+            aggregate.setAvgValue(24.0 + i % 10 / 10.0);
+            aggregate.setMinValue(20.0 + i % 3);
+            aggregate.setMaxValue(30.0 - i % 3);
+            aggregate.setMedianValue(24.5);
+            aggregate.setPercentiles(Map.of("p90", 28.1, "p99", 29.7));
+            aggregates.add(aggregate);
+
+            SensorReading reading = new SensorReading();
+            reading.setDeviceId("thermostat-" + i % 50);
+            reading.setDeviceType("thermostat");
+            reading.setGroupId("group-" + i % 5);
+            reading.setMetric("temperature");
+            reading.setReading(20 + i % 100 / 10.0);
+            reading.setTs(start.plusSeconds(i));
+            readings.add(reading);
+        }
+    }
+
+    @Benchmark
+    public byte[] aggregateResponses() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(aggregates);
+    }
+
+    @Benchmark
+    public byte[] sensorReadings() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(readings);
+    }
+}
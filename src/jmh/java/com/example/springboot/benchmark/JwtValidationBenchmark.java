@@ -0,0 +1,78 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.config.JwtProperties;
+import com.example.springboot.repository.RevokedTokenRepository;
+import com.example.springboot.security.JwtService;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+Measures the JWT checks done for every authenticated request: JwtService.validateToken, and verify followed by the
+subject like the JwtAuthenticationFilter does, with the same token every time. With a cache size of 0 every call checks
+the signature and parses the claims, otherwise the token is answered from the cache of verified tokens. No token is
+revoked, so the revoked_token table is replaced by an empty repository and no database is needed.
+Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="JwtValidationBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtValidationBenchmark {
+
+    @Param({"0", "10000"})
+    public int cacheSize;
+
+    private AnnotationConfigApplicationContext context;
+    private JwtService jwtService;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext();
+        context.register(JwtProperties.class, JwtService.class);
+        context.registerBean(RevokedTokenRepository.class, JwtValidationBenchmark::emptyRevokedTokens);
+        context.refresh();
+        context.getBean(JwtProperties.class).setCacheSize(cacheSize);
+        jwtService = context.getBean(JwtService.class);
+        token = jwtService.generateToken("admin");
+    }
+
+    // Only findAll and deleteExpired are called, by the refresh of the revocations, besides the Object methods
+    private static RevokedTokenRepository emptyRevokedTokens() {
+        return (RevokedTokenRepository) Proxy.newProxyInstance(RevokedTokenRepository.class.getClassLoader(),
+                new Class<?>[]{RevokedTokenRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findAll" -> List.of();
+                    case "deleteExpired" -> 0;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "emptyRevokedTokens";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean validateToken() {
+        return jwtService.validateToken(token);
+    }
+
+    @Benchmark
+    public String authenticate() {
+        Claims claims = jwtService.verify(token);
+        if (claims == null) {
+            throw new IllegalStateException("Token rejected");
+        }
+        return claims.getSubject();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.RawScan;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.config.ParallelQueryProperties;
+import com.example.springboot.parallel.ParallelRangeScanner;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Measures a whole range query over the raw readings scanned in 1, 2, 4 and 8 sub-ranges by the ParallelRangeScanner,
+each on its own connection, against an in-memory H2 database laid out like sensor_reading. The speedup levels off at
+the number of cores of the machine.
+Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="ParallelRangeScanBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelRangeScanBenchmark {
+
+    // Sub-ranges scanned at the same time, and threads of the executor
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    // Readings in the range, one per second spread over 100 series
+    @Param({"1000000"})
+    public int readings;
+
+    private JdbcTemplate jdbcTemplate;
+    private ParallelRangeScanner scanner;
+
+    private final Instant start = Instant.parse("2025-10-01T00:00:00Z");
+    private Instant end;
+
+    @Setup
+    public void setUp() {
+
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:rangescan" + parallelism + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE sensor_reading (id BIGINT AUTO_INCREMENT PRIMARY KEY, series_id INTEGER NOT NULL, "
+                + "ts TIMESTAMP(6) WITH TIME ZONE NOT NULL, reading DOUBLE PRECISION NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX idx_series_ts ON sensor_reading (series_id, ts)");
+
+        Random random = new Random(42);
+        List<Object[]> batch = new ArrayList<>(10_000);
+        for (int i = 0; i < readings; i++) {
+            batch.add(new Object[]{i % 100, start.plusSeconds(i).atOffset(ZoneOffset.UTC), 20 + random.nextDouble() * 10});
+            if (batch.size() == 10_000 || i == readings - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO sensor_reading (series_id, ts, reading) VALUES (?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+        end = start.plusSeconds(readings - 1);
+
+        ParallelQueryProperties properties = new ParallelQueryProperties();
+        properties.setEnabled(true);
+        properties.setThreads(parallelism);
+        properties.setParallelism(parallelism);
+        properties.setMinRange(Duration.ofMinutes(1));
+        scanner = new ParallelRangeScanner(properties);
+        scanner.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scanner.stop();
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Benchmark
+    public Map<Integer, PartialAggregate> scanRange() {
+        return scanner.aggregate(start, end, parallelism, (from, to) ->
+                RawScan.aggregate(jdbcTemplate, List.of("sensor_reading"), from, to, null, ScanOptions.DEFAULT));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.service.IngestService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/*
+Measures IngestService.saveReading, the path of a single reading posted to /api/ingest without HTTP, on top of 10^5
+to 10^7 seeded readings (see SeededDataset). The series already exist, so every call is the insert, its flush and
+commit. The readings saved during the run pile up on top of the seeded ones.
+Run with: mvn -Pbenchmark test-compile exec:exec -Djmh.args="SaveReadingBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveReadingBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public long rows;
+
+    private ConfigurableApplicationContext context;
+    private IngestService ingestService;
+
+    private Instant ts;
+    private int device;
+
+    @Setup
+    public void setUp() {
+        context = SeededDataset.start("savereading");
+        SeededDataset.seed(context, rows);
+        ingestService = context.getBean(IngestService.class);
+        ts = SeededDataset.START.plusSeconds(rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public SensorReading saveReading() {
+        device = (device + 1) % SeededDataset.SERIES;
+        ts = ts.plusMillis(10);
+        return ingestService.saveReading(SeededDataset.reading(device, ts));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.springboot.benchmark;
+
+import com.example.springboot.Application;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.service.IngestService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+The application without a web server on its own in-memory H2 database, seeded with readings for the benchmarks that go
+through the JPA repositories and services. The dataset has 100 series, 50 thermostats and 50 wearables spread over 5
+groups, one reading per second in turn from START. The readings are generated inside H2 with a single
+INSERT ... SELECT, 10^7 rows take about a minute and a few GB of heap, e.g. -jvmArgsAppend -Xmx8g.
+ */
+final class SeededDataset {
+
+    static final Instant START = Instant.parse("2025-10-01T00:00:00Z");
+
+    static final int SERIES = 100;
+
+    // Seeded readings get ids from here on, far above the ones the sequence hands out to the benchmarks
+    private static final long FIRST_ID = 1_000_000_000L;
+
+    private SeededDataset() {}
+
+    static ConfigurableApplicationContext start(String database) {
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "simulator.enabled=false",
+                        "logging.file.name=",
+                        "logging.level.root=WARN",
+                        "spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1")
+                .run();
+    }
+
+    // The reading of device i (0 to SERIES - 1) at time ts
+    static SensorReading reading(int i, Instant ts) {
+        boolean thermostat = i < SERIES / 2;
+        SensorReading reading = new SensorReading();
+        reading.setDeviceId((thermostat ? "thermostat-" : "wearable-") + i % (SERIES / 2));
+        reading.setDeviceType(thermostat ? "thermostat" : "wearable");
+        reading.setGroupId("group-" + i % 5);
+        reading.setMetric(thermostat ? "temperature" : "heart_rate");
+        reading.setReading(thermostat ? 20.0 + i % 10 : 60.0 + i % 40);
+        reading.setTs(ts);
+        return reading;
+    }
+
+    // Creates the series and inserts rows readings, at START + 0 to rows - 1 seconds
+    static void seed(ConfigurableApplicationContext context, long rows) {
+
+        List<SensorReading> series = new ArrayList<>(SERIES);
+        for (int i = 0; i < SERIES; i++) {
+            series.add(reading(i, START));
+        }
+        context.getBean(IngestService.class).resolveSeries(series);
+
+        String seriesIds = series.stream().map(r -> r.getSeriesId().toString()).collect(Collectors.joining(","));
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("INSERT INTO sensor_reading (id, series_id, reading, ts) "
+                + "SELECT X + " + FIRST_ID + ", ARRAY_GET(ARRAY[" + seriesIds + "], MOD(X, " + SERIES + ") + 1), "
+                + "20 + MOD(X * 7, 100) / 10.0, DATEADD(SECOND, X, TIMESTAMP WITH TIME ZONE '2025-10-01 00:00:00+00') "
+                + "FROM SYSTEM_RANGE(0, " + (rows - 1) + ")");
+        jdbcTemplate.execute("ANALYZE");
+    }
+}
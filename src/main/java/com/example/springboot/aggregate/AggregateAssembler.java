@@ -0,0 +1,199 @@
+package com.example.springboot.aggregate;
+
+import com.example.springboot.bean.AggregateFunction;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.GroupOrder;
+import com.example.springboot.bean.SeriesResponse;
+import com.example.springboot.entity.SensorSeries;
+import com.example.springboot.repository.SeriesDictionary;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/*
+Turns partial aggregates computed per series into the grouped response of /api/query. Each series is mapped to its
+group using the group by flags of the request (dimensions that are not grouped on are reported as "ALL"), the partials
+of a group are merged and the groups are sorted on orderBy (count in descending order by default) and paged with limit
+and offset, like the SQL path does.
+This is used by the query paths that do not aggregate inside a single SQL statement, e.g. shard scatter-gather.
+toSeries pivots the per bucket rows of an interval query into one SeriesResponse per group.
+ */
+public final class AggregateAssembler {
+
+    public record GroupKey(String deviceId, String deviceType, String groupId, String metric) {}
+
+    // A group with the value it is ordered on, computed once as a median costs a sketch lookup
+    private record Ranked(GroupKey key, PartialAggregate partial, Double value) {}
+
+    // Ties are broken on the group labels, like the SQL path does on its group columns
+    private static final Comparator<GroupKey> LABEL_ORDER = Comparator.comparing(GroupKey::deviceId)
+            .thenComparing(GroupKey::deviceType).thenComparing(GroupKey::groupId).thenComparing(GroupKey::metric);
+
+    private static final String ALL = "ALL";
+
+    private AggregateAssembler() {}
+
+    public static Map<GroupKey, PartialAggregate> group(Map<Integer, PartialAggregate> bySeries,
+                                                        AggregateQueryParams params, SeriesDictionary seriesDictionary) {
+
+        Map<GroupKey, PartialAggregate> groups = new HashMap<>();
+        bySeries.forEach((seriesId, partial) -> {
+            GroupKey key = groupKey(seriesDictionary.get(seriesId), params);
+            // Merge into a new state so that the per series partials are left untouched
+            groups.computeIfAbsent(key, k -> new PartialAggregate(partial.isExact())).merge(partial);
+        });
+        return groups;
+    }
+
+    public static List<AggregateResponse> assemble(Map<Integer, PartialAggregate> bySeries,
+                                                   AggregateQueryParams params, SeriesDictionary seriesDictionary) {
+        return toResponses(group(bySeries, params, seriesDictionary), params);
+    }
+
+    // Only the aggregate functions requested in params are set on the responses, the others stay null
+    public static List<AggregateResponse> toResponses(Map<GroupKey, PartialAggregate> groups, AggregateQueryParams params) {
+
+        Set<AggregateFunction> functions = params.functions();
+        Map<String, Double> percentiles = params.percentiles();
+
+        List<Ranked> page = page(groups, params);
+
+        List<AggregateResponse> responses = new ArrayList<>(page.size());
+        for (Ranked ranked : page) {
+            GroupKey key = ranked.key();
+            PartialAggregate partial = ranked.partial();
+
+            AggregateResponse response = new AggregateResponse();
+            response.setDeviceId(key.deviceId());
+            response.setDeviceType(key.deviceType());
+            response.setGroupId(key.groupId());
+            response.setMetric(key.metric());
+            if (functions.contains(AggregateFunction.COUNT)) response.setCount(partial.getCount());
+            if (functions.contains(AggregateFunction.SUM)) response.setSumValue(partial.getSum());
+            if (functions.contains(AggregateFunction.AVG)) response.setAvgValue(partial.getAvg());
+            if (functions.contains(AggregateFunction.MIN)) response.setMinValue(partial.getMin());
+            if (functions.contains(AggregateFunction.MAX)) response.setMaxValue(partial.getMax());
+            if (functions.contains(AggregateFunction.STDDEV)) response.setStddevValue(partial.getStddev());
+            if (functions.contains(AggregateFunction.FIRST)) response.setFirstValue(partial.getFirst());
+            if (functions.contains(AggregateFunction.LAST)) response.setLastValue(partial.getLast());
+            if (functions.contains(AggregateFunction.MEDIAN)) response.setMedianValue(partial.getMedian());
+            percentiles.forEach((label, q) -> response.getPercentiles().put(label, partial.getQuantile(q)));
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    /*
+    The non empty groups of the requested page, in order. With a limit, the best offset + limit groups are selected with
+    a heap bounded to that size, in O(n log k), and only those are sorted, instead of sorting every group.
+     */
+    private static List<Ranked> page(Map<GroupKey, PartialAggregate> groups, AggregateQueryParams params) {
+
+        GroupOrder order = params.order();
+        Comparator<Double> values = order.descending() ? Comparator.reverseOrder() : Comparator.naturalOrder();
+        Comparator<Ranked> comparator = Comparator.comparing(Ranked::value, Comparator.nullsLast(values))
+                .thenComparing(Ranked::key, LABEL_ORDER);
+
+        List<Ranked> ranked;
+        if (params.limit() == null) {
+            ranked = new ArrayList<>(groups.size());
+            for (Map.Entry<GroupKey, PartialAggregate> entry : groups.entrySet()) {
+                if (entry.getValue().getCount() > 0) {
+                    ranked.add(new Ranked(entry.getKey(), entry.getValue(), orderValue(entry.getValue(), order)));
+                }
+            }
+        } else {
+            long size = Math.min((long) params.offset() + params.limit(), Integer.MAX_VALUE);
+            // Its head is the worst group kept so far, replaced by any better group once the heap is full
+            PriorityQueue<Ranked> heap = new PriorityQueue<>((int) Math.min(size, groups.size()) + 1, comparator.reversed());
+            groups.forEach((key, partial) -> {
+                if (partial.getCount() == 0) {
+                    return;
+                }
+                Ranked candidate = new Ranked(key, partial, orderValue(partial, order));
+                if (heap.size() < size) {
+                    heap.add(candidate);
+                } else if (comparator.compare(candidate, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(candidate);
+                }
+            });
+            ranked = new ArrayList<>(heap);
+        }
+
+        ranked.sort(comparator);
+        return params.offset() >= ranked.size() ? List.of() : ranked.subList(params.offset(), ranked.size());
+    }
+
+    private static Double orderValue(PartialAggregate partial, GroupOrder order) {
+        return switch (order.function()) {
+            case COUNT -> (double) partial.getCount();
+            case SUM -> partial.getSum();
+            case AVG -> partial.getAvg();
+            case MIN -> partial.getMin();
+            case MAX -> partial.getMax();
+            case STDDEV -> partial.getStddev();
+            case MEDIAN -> partial.getMedian();
+            // Rejected by GroupOrder
+            case FIRST, LAST -> null;
+        };
+    }
+
+    /*
+    Groups the rows of an interval query, which carry their bucket, into series. The columns are "time" followed by the
+    requested aggregate functions and percentiles, named like in agg. Series keep the order of their first row.
+     */
+    public static List<SeriesResponse> toSeries(List<AggregateResponse> rows, AggregateQueryParams params) {
+
+        List<AggregateFunction> functions = new ArrayList<>(params.functions());
+        List<String> percentiles = new ArrayList<>(params.percentiles().keySet());
+
+        List<String> columns = new ArrayList<>();
+        columns.add("time");
+        functions.forEach(function -> columns.add(function.name().toLowerCase(Locale.ROOT)));
+        columns.addAll(percentiles);
+
+        Map<GroupKey, SeriesResponse> series = new LinkedHashMap<>();
+        for (AggregateResponse row : rows) {
+            GroupKey key = new GroupKey(row.getDeviceId(), row.getDeviceType(), row.getGroupId(), row.getMetric());
+            List<Object> values = new ArrayList<>(columns.size() - 1);
+            for (AggregateFunction function : functions) {
+                values.add(value(row, function));
+            }
+            percentiles.forEach(label -> values.add(row.getPercentiles().get(label)));
+            series.computeIfAbsent(key, k -> new SeriesResponse(k.deviceId(), k.deviceType(), k.groupId(), k.metric(),
+                    params.interval(), columns)).addRow(row.getBucket(), values);
+        }
+        return new ArrayList<>(series.values());
+    }
+
+    private static Object value(AggregateResponse row, AggregateFunction function) {
+        return switch (function) {
+            case COUNT -> row.getCount();
+            case SUM -> row.getSumValue();
+            case AVG -> row.getAvgValue();
+            case MIN -> row.getMinValue();
+            case MAX -> row.getMaxValue();
+            case STDDEV -> row.getStddevValue();
+            case FIRST -> row.getFirstValue();
+            case LAST -> row.getLastValue();
+            case MEDIAN -> row.getMedianValue();
+        };
+    }
+
+    public static GroupKey groupKey(SensorSeries series, AggregateQueryParams params) {
+        return new GroupKey(
+                params.groupByDeviceId() ? series.getDeviceId() : ALL,
+                params.groupByDeviceType() ? series.getDeviceType() : ALL,
+                params.groupByGroupId() ? series.getGroupId() : ALL,
+                params.groupByMetric() ? series.getMetric() : ALL);
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.springboot.aggregate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/*
+Same as RangeScan, split into epoch aligned buckets of the given size keyed by their start.
+ */
+public interface BucketScan {
+
+    Map<Instant, Map<Integer, PartialAggregate>> aggregate(Instant from, Instant to, Duration bucket);
+}
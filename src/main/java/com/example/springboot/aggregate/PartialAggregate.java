@@ -0,0 +1,180 @@
+package com.example.springboot.aggregate;
+
+import java.util.Arrays;
+
+/*
+Mergeable aggregate state of a set of readings. Two partial aggregates computed over disjoint sets of readings (other
+shards, other time ranges, other series) merge into the aggregate of the union. Count, sum, min, max, standard
+deviation (kept as the sum of squared deviations, merged with Chan's formula) and first/last are exact, the median and
+percentiles come from a QuantileSketch and are approximate within the sketch's relative accuracy.
+An exact partial aggregate also keeps every value so that its quantiles are exact, at the cost of 8 bytes per value.
+This class is not thread safe.
+ */
+public class PartialAggregate {
+
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double m2;
+    private final QuantileSketch sketch;
+
+    // Epoch microseconds of the first and last reading, only known when the readings are added with their timestamp
+    private long firstTs = Long.MAX_VALUE;
+    private double first;
+    private long lastTs = Long.MIN_VALUE;
+    private double last;
+
+    // Only kept by exact partial aggregates
+    private double[] values;
+    private int valueCount;
+    private boolean sorted;
+
+    public PartialAggregate() {
+        this(false);
+    }
+
+    public PartialAggregate(boolean exact) {
+        this.sketch = new QuantileSketch();
+        if (exact) {
+            this.values = new double[16];
+        }
+    }
+
+    public PartialAggregate(long count, double sum, double min, double max, double m2, QuantileSketch sketch) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.m2 = m2;
+        this.sketch = sketch;
+    }
+
+    // Restores the first and last reading, e.g. of a rollup bucket
+    public PartialAggregate withFirstLast(long firstTs, double first, long lastTs, double last) {
+        this.firstTs = firstTs;
+        this.first = first;
+        this.lastTs = lastTs;
+        this.last = last;
+        return this;
+    }
+
+    public void add(long tsMicros, double value) {
+        add(value);
+        if (tsMicros < firstTs) {
+            firstTs = tsMicros;
+            first = value;
+        }
+        if (tsMicros >= lastTs) {
+            lastTs = tsMicros;
+            last = value;
+        }
+    }
+
+    public void add(double value) {
+        // Welford's update of the squared deviations
+        double delta = count == 0 ? 0 : value - sum / count;
+        count++;
+        sum += value;
+        m2 += delta * (value - sum / count);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sketch.add(value);
+        if (values != null) {
+            append(value);
+        }
+    }
+
+    private void append(double value) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[valueCount++] = value;
+        sorted = false;
+    }
+
+    public PartialAggregate merge(PartialAggregate other) {
+        if (other.count > 0 && count > 0) {
+            double delta = other.sum / other.count - sum / count;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / (count + other.count));
+        } else {
+            m2 += other.m2;
+        }
+        count += other.count;
+        sum += other.sum;
+        if (other.firstTs < firstTs) {
+            firstTs = other.firstTs;
+            first = other.first;
+        }
+        if (other.lastTs > lastTs) {
+            lastTs = other.lastTs;
+            last = other.last;
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sketch.merge(other.sketch);
+        if (values != null && other.values != null) {
+            for (int i = 0; i < other.valueCount; i++) {
+                append(other.values[i]);
+            }
+        } else {
+            // Merging an approximate state makes the result approximate
+            values = null;
+        }
+        return this;
+    }
+
+    public long getCount() { return count; }
+
+    public double getSum() { return sum; }
+
+    public double getMin() { return min; }
+
+    public double getMax() { return max; }
+
+    public double getAvg() { return count == 0 ? Double.NaN : sum / count; }
+
+    public double getM2() { return m2; }
+
+    // Sample standard deviation like STDDEV_SAMP, null below two readings
+    public Double getStddev() { return count < 2 ? null : Math.sqrt(Math.max(m2, 0) / (count - 1)); }
+
+    public boolean hasFirstLast() { return firstTs != Long.MAX_VALUE; }
+
+    public long getFirstTs() { return firstTs; }
+
+    public Double getFirst() { return hasFirstLast() ? first : null; }
+
+    public long getLastTs() { return lastTs; }
+
+    public Double getLast() { return hasFirstLast() ? last : null; }
+
+    public Double getMedian() { return getQuantile(0.5); }
+
+    public boolean isExact() { return values != null; }
+
+    /*
+    Returns the value at the quantile q (0 to 1), interpolated like PERCENTILE_CONT, or null if there is no value.
+     */
+    public Double getQuantile(double q) {
+        if (values == null) {
+            return sketch.quantile(q);
+        }
+        if (valueCount == 0) {
+            return null;
+        }
+        if (!sorted) {
+            Arrays.sort(values, 0, valueCount);
+            sorted = true;
+        }
+        double position = q * (valueCount - 1);
+        int lower = (int) Math.floor(position);
+        double value = values[lower];
+        if (position > lower) {
+            value += (position - lower) * (values[lower + 1] - value);
+        }
+        return value;
+    }
+
+    public QuantileSketch getSketch() { return sketch; }
+}
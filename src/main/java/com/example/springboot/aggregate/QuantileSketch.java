@@ -0,0 +1,286 @@
+package com.example.springboot.aggregate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/*
+Mergeable quantile sketch with a relative error guarantee, following the DDSketch algorithm (Masson et al., VLDB 2019).
+Values are counted in logarithmically sized buckets: bucket i holds the values in (gamma^(i-1), gamma^i] where
+gamma = (1 + alpha) / (1 - alpha). Any quantile returned is within a relative error of alpha of the exact value of the
+same rank, e.g. with the default alpha of 1% the p50 of values around 20.0 is off by at most 0.2.
+Two sketches built with the same alpha merge by adding their bucket counts, so partial sketches from shards, time
+buckets or rollups can be combined without keeping the raw values. Negative values are counted in a mirrored set of
+buckets and values too close to zero to be bucketed are counted separately.
+This class is not thread safe.
+ */
+public class QuantileSketch {
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    // Values with a smaller magnitude are counted as zero
+    private static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+    // Upper bound on the number of buckets per sign. The lowest buckets are collapsed beyond that,
+    // which only affects the accuracy for values many orders of magnitude below the rest
+    private static final int MAX_BUCKETS = 4096;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Relative accuracy must be between 0 and 1");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value > MIN_INDEXABLE_VALUE) {
+            positive.increment(index(value), 1);
+        } else if (value < -MIN_INDEXABLE_VALUE) {
+            negative.increment(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Sketches with different relative accuracies cannot be merged");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /*
+    Returns the value at the given quantile (0 to 1), or null if the sketch is empty. Between two ranks the value is
+    interpolated the same way as PERCENTILE_CONT / MEDIAN, e.g. the median of an even count is the mean of the two
+    middle values.
+     */
+    public Double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        double position = q * (count - 1);
+        long lower = (long) Math.floor(position);
+        double value = valueAtRank(lower);
+        if (position > lower) {
+            value += (position - lower) * (valueAtRank(lower + 1) - value);
+        }
+
+        // The exact extremes are known, never answer outside of them
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private double valueAtRank(long rank) {
+
+        if (rank < negative.total) {
+            // Negative buckets are walked from the largest magnitude down
+            long seen = 0;
+            int i = negative.highestIndex();
+            for (; i >= negative.lowestIndex(); i--) {
+                seen += negative.get(i);
+                if (seen > rank) break;
+            }
+            return Math.max(min, -bucketValue(i));
+        }
+        if (rank < negative.total + zeroCount) {
+            return 0;
+        }
+
+        long target = rank - negative.total - zeroCount;
+        long seen = 0;
+        int i = positive.lowestIndex();
+        for (; i <= positive.highestIndex(); i++) {
+            seen += positive.get(i);
+            if (seen > target) break;
+        }
+        return Math.min(max, bucketValue(i));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    // Value of a bucket with at most relativeAccuracy error for every value in the bucket
+    private double bucketValue(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeDouble(relativeAccuracy);
+            out.writeLong(count);
+            out.writeLong(zeroCount);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            positive.write(out);
+            negative.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static QuantileSketch fromBytes(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            QuantileSketch sketch = new QuantileSketch(in.readDouble());
+            sketch.count = in.readLong();
+            sketch.zeroCount = in.readLong();
+            sketch.min = in.readDouble();
+            sketch.max = in.readDouble();
+            sketch.positive.read(in);
+            sketch.negative.read(in);
+            return sketch;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(relativeAccuracy);
+        copy.merge(this);
+        return copy;
+    }
+
+    /*
+    Dense bucket counts stored in a long array that grows in both directions as needed.
+     */
+    private static final class Buckets {
+
+        private long[] counts = new long[0];
+        private int offset;
+        private long total;
+
+        void increment(int index, long n) {
+            if (counts.length == 0) {
+                counts = new long[32];
+                offset = index - 16;
+            }
+            if (index < offset || index >= offset + counts.length) {
+                grow(index);
+            }
+            counts[Math.max(index, offset) - offset] += n;
+            total += n;
+        }
+
+        long get(int index) {
+            int i = index - offset;
+            return i >= 0 && i < counts.length ? counts[i] : 0;
+        }
+
+        int lowestIndex() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) return i + offset;
+            }
+            return offset;
+        }
+
+        int highestIndex() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) return i + offset;
+            }
+            return offset;
+        }
+
+        void merge(Buckets other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    increment(i + other.offset, other.counts[i]);
+                }
+            }
+        }
+
+        private void grow(int index) {
+            int low = Math.min(offset, index);
+            int high = Math.max(offset + counts.length - 1, index);
+            int needed = high - low + 1;
+
+            // Keep the highest buckets if the range gets too wide, the lower ones are collapsed into the lowest kept
+            if (needed > MAX_BUCKETS) {
+                low = high - MAX_BUCKETS + 1;
+                needed = MAX_BUCKETS;
+            }
+
+            // Leave some head room on the side that is growing
+            int length = Math.min(MAX_BUCKETS, Math.max(needed, counts.length * 2));
+            if (index < offset) {
+                low -= length - needed;
+            }
+
+            long[] grown = new long[length];
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    grown[Math.max(i + offset, low) - low] += counts[i];
+                }
+            }
+            counts = grown;
+            offset = low;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            int nonZero = 0;
+            for (long c : counts) {
+                if (c != 0) nonZero++;
+            }
+            out.writeInt(nonZero);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    out.writeInt(i + offset);
+                    out.writeLong(counts[i]);
+                }
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            int nonZero = in.readInt();
+            for (int i = 0; i < nonZero; i++) {
+                increment(in.readInt(), in.readLong());
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.springboot.aggregate;
+
+import java.time.Instant;
+import java.util.Map;
+
+/*
+A scan of the raw readings of a query into per series partial aggregates, handed to the components that decide which
+ranges to read (ParallelRangeScanner, IncrementalAggregator) without knowing where the readings are stored.
+ */
+public interface RangeScan {
+
+    // The partials of the readings with from <= ts <= to
+    Map<Integer, PartialAggregate> aggregate(Instant from, Instant to);
+}
@@ -0,0 +1,162 @@
+package com.example.springboot.aggregate;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+Aggregates the raw readings of one or more tables (sensor_reading or its time partitions) into per series partial
+aggregates. When neither quantiles nor first/last are needed, count, sum, min, max and the variance are computed by a
+GROUP BY series_id in the database and only one row per series (and bucket) is read. Otherwise the series_id and
+reading columns (and ts for first/last or buckets) are streamed into the partials, nothing is kept per row unless
+exact quantiles are requested.
+ */
+public final class RawScan {
+
+    // Timestamps of the oldest and newest readings
+    public record TimeRange(Instant first, Instant last) {}
+
+    private RawScan() {}
+
+    // The range of the readings of all tables, null when they are empty
+    public static TimeRange timeRange(JdbcTemplate jdbcTemplate, List<String> tables) {
+        List<TimeRange> ranges = new ArrayList<>();
+        for (String table : tables) {
+            jdbcTemplate.query("SELECT MIN(ts), MAX(ts) FROM " + table, rs -> {
+                OffsetDateTime first = rs.getObject(1, OffsetDateTime.class);
+                if (first != null) {
+                    ranges.add(new TimeRange(first.toInstant(), rs.getObject(2, OffsetDateTime.class).toInstant()));
+                }
+            });
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        return new TimeRange(ranges.stream().map(TimeRange::first).min(Instant::compareTo).get(),
+                ranges.stream().map(TimeRange::last).max(Instant::compareTo).get());
+    }
+
+    /*
+    Aggregates the readings with from <= ts <= to. A null seriesIds means all series.
+     */
+    public static Map<Integer, PartialAggregate> aggregate(JdbcTemplate jdbcTemplate, List<String> tables,
+                                                           Instant from, Instant to, Collection<Integer> seriesIds,
+                                                           ScanOptions options) {
+        Map<Integer, PartialAggregate> partials = new HashMap<>();
+        if (pushesDown(options)) {
+            // A series may have rows in several partitions, their summaries are merged
+            query(jdbcTemplate, tables, "series_id, " + SUMMARY + " FROM %s" + where(seriesIds) + " GROUP BY series_id",
+                    from, to, seriesIds, rs -> partials.merge(rs.getInt(1), summary(rs, 2), PartialAggregate::merge));
+            return partials;
+        }
+        scan(jdbcTemplate, tables, from, to, seriesIds, options.timestamps(), (seriesId, ts, value) -> {
+            PartialAggregate partial = partials.computeIfAbsent(seriesId, id -> new PartialAggregate(options.exact()));
+            if (options.timestamps()) {
+                partial.add(ts, value);
+            } else {
+                partial.add(value);
+            }
+        });
+        return partials;
+    }
+
+    /*
+    Aggregates the readings with from <= ts <= to per series and per bucket of the given size, buckets being aligned on
+    the epoch and keyed by their start. A null seriesIds means all series.
+     */
+    public static Map<Instant, Map<Integer, PartialAggregate>> aggregateBuckets(JdbcTemplate jdbcTemplate, List<String> tables,
+                                                                                Instant from, Instant to,
+                                                                                Collection<Integer> seriesIds,
+                                                                                ScanOptions options, Duration bucket) {
+        long size = bucket.toNanos() / 1000;
+        Map<Long, Map<Integer, PartialAggregate>> buckets = new HashMap<>();
+        if (pushesDown(options)) {
+            // Index of the bucket, inlined as H2 only matches GROUP BY expressions that are identical to the selected ones
+            String index = "FLOOR(EXTRACT(EPOCH FROM ts) * 1000000 / " + size + ")";
+            query(jdbcTemplate, tables, "series_id, " + index + ", " + SUMMARY + " FROM %s" + where(seriesIds)
+                            + " GROUP BY series_id, " + index, from, to, seriesIds,
+                    rs -> buckets.computeIfAbsent(rs.getLong(2) * size, b -> new HashMap<>())
+                            .merge(rs.getInt(1), summary(rs, 3), PartialAggregate::merge));
+        } else {
+            scan(jdbcTemplate, tables, from, to, seriesIds, true, (seriesId, ts, value) -> buckets
+                    .computeIfAbsent(Math.floorDiv(ts, size) * size, b -> new HashMap<>())
+                    .computeIfAbsent(seriesId, id -> new PartialAggregate(options.exact()))
+                    .add(ts, value));
+        }
+
+        Map<Instant, Map<Integer, PartialAggregate>> byStart = new TreeMap<>();
+        buckets.forEach((start, partials) -> byStart.put(Instant.EPOCH.plus(start, ChronoUnit.MICROS), partials));
+        return byStart;
+    }
+
+    // Quantiles need the values for the sketch, first and last the row order, everything else is a SQL aggregate
+    private static boolean pushesDown(ScanOptions options) {
+        return !options.quantiles() && !options.timestamps();
+    }
+
+    // The columns read by summary. The sum of squared deviations is the population variance times the count
+    private static final String SUMMARY = "COUNT(*), SUM(reading), MIN(reading), MAX(reading), VAR_POP(reading)";
+
+    // The partial aggregate of the SUMMARY columns starting at column. Its sketch stays empty
+    private static PartialAggregate summary(ResultSet rs, int column) throws SQLException {
+        long count = rs.getLong(column);
+        return new PartialAggregate(count, rs.getDouble(column + 1), rs.getDouble(column + 2),
+                rs.getDouble(column + 3), rs.getDouble(column + 4) * count, new QuantileSketch());
+    }
+
+    private interface RowHandler {
+        void row(int seriesId, long tsMicros, double value);
+    }
+
+    private static void scan(JdbcTemplate jdbcTemplate, List<String> tables, Instant from, Instant to,
+                             Collection<Integer> seriesIds, boolean timestamps, RowHandler handler) {
+        String columns = timestamps ? "series_id, reading, ts" : "series_id, reading";
+        query(jdbcTemplate, tables, columns + " FROM %s" + where(seriesIds), from, to, seriesIds, rs -> {
+            long ts = timestamps ? toMicros(rs.getObject(3, OffsetDateTime.class)) : 0;
+            handler.row(rs.getInt(1), ts, rs.getDouble(2));
+        });
+    }
+
+    // The series ids are bound as a single array, so that idx_series_ts is used whatever their number
+    private static String where(Collection<Integer> seriesIds) {
+        return seriesIds != null ? " WHERE ts BETWEEN ? AND ? AND series_id = ANY(?)" : " WHERE ts BETWEEN ? AND ?";
+    }
+
+    // Runs SELECT select on every table, %s standing for the table name
+    private static void query(JdbcTemplate jdbcTemplate, List<String> tables, String select, Instant from, Instant to,
+                              Collection<Integer> seriesIds, RowCallbackHandler handler) {
+
+        if (seriesIds != null && seriesIds.isEmpty()) {
+            return;
+        }
+
+        List<Object> args = new ArrayList<>();
+        // Bound as an offset date time so that the value does not depend on the time zone of the JVM
+        args.add(from.atOffset(ZoneOffset.UTC));
+        args.add(to.atOffset(ZoneOffset.UTC));
+        if (seriesIds != null) {
+            args.add(seriesIds.toArray(new Integer[0]));
+        }
+
+        for (String table : tables) {
+            jdbcTemplate.query("SELECT " + select.formatted(table), handler, args.toArray());
+        }
+    }
+
+    private static long toMicros(OffsetDateTime ts) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, ts.toInstant());
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.springboot.aggregate;
+
+import com.example.springboot.bean.AggregateFunction;
+import com.example.springboot.bean.AggregateQueryParams;
+
+import java.util.Set;
+
+/*
+What a scan of raw readings has to keep in its partial aggregates beyond count, sum, min and max.
+exact keeps every value for exact quantiles, see AggregateQueryParams.exactQuantiles, so that the default median is the
+same whichever path computes it, timestamps reads the ts column for first and last, quantiles fills the
+sketch, for the median and percentiles as well as for ordering on the median. A scan needing neither timestamps nor
+quantiles is aggregated by the database, see RawScan.
+ */
+public record ScanOptions(boolean exact, boolean timestamps, boolean quantiles) {
+
+    public static final ScanOptions DEFAULT = new ScanOptions(false, false, true);
+
+    public static ScanOptions of(AggregateQueryParams params) {
+        Set<AggregateFunction> functions = params.functions();
+        return new ScanOptions(params.exactQuantiles(),
+                functions.contains(AggregateFunction.FIRST) || functions.contains(AggregateFunction.LAST),
+                params.wantsQuantiles() || params.order().function() == AggregateFunction.MEDIAN);
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.springboot.bean;
+
+/*
+The aggregate functions that can be requested in the agg parameter of /api/query, besides the percentiles (pNN).
+ */
+public enum AggregateFunction {
+    COUNT,
+    SUM,
+    AVG,
+    MIN,
+    MAX,
+    STDDEV,
+    FIRST,
+    LAST,
+    MEDIAN
+}
@@ -1,14 +1,34 @@
 package com.example.springboot.bean;
 
+import com.example.springboot.exception.CustomException;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /*
 The class that is used as criteria while getting data from the system.
 Few validations are happening using @NotNull annotation. Spring will throw exceptions which will be caught by the global exception handler
+agg is a comma separated list of the aggregate functions to compute: count, sum, avg, min, max, stddev, first, last,
+median and percentiles as pNN (p50, p90, p99.9, ...). Only those are computed and returned. exact=true computes the
+median and percentiles exactly, exact=false approximates them with a quantile sketch. Without exact, the median is
+exact, as the database always computed it, and percentiles are approximated unless they come with the median.
+interval (10s, 1m, 1h, 1d, ...) splits [from, to] into time buckets aligned on the epoch, one row per bucket and group.
+orderBy (see GroupOrder), limit and offset select a page of the groups, e.g. the 20 devices with the most readings.
+parallelism overrides query.parallel.parallelism for this query when parallel range scans are enabled.
  */
 @Validated(Query.class)
 public record AggregateQueryParams(
@@ -22,18 +42,133 @@ public record AggregateQueryParams(
         Boolean groupByDeviceId,
         Boolean groupByDeviceType,
         Boolean groupByGroupId,
-        Boolean groupByMetric
+        Boolean groupByMetric,
+        Boolean exact,
+        String interval,
+        @Positive Integer limit,
+        @PositiveOrZero Integer offset,
+        String orderBy,
+        @Positive Integer parallelism
 ) {
+    private static final Pattern PERCENTILE = Pattern.compile("p(\\d{1,2}(\\.\\d+)?|100)");
+    private static final Pattern INTERVAL = Pattern.compile("(\\d{1,9})([smhd])");
+
+    // Upper bound on the number of buckets of an interval query
+    public static final long MAX_BUCKETS = 10_000;
+
+
     // Factory constructor to provide defaults for optional fields
     public AggregateQueryParams {
 
         if (agg == null || agg.isBlank()) {
-            agg = "avg,min,max,median";
+            agg = "avg,min,max,median,count";
         }
 
         if (groupByDeviceId == null) groupByDeviceId = false;
         if (groupByDeviceType == null) groupByDeviceType = false;
         if (groupByGroupId == null) groupByGroupId = false;
         if (groupByMetric == null) groupByMetric = false;
+        if (offset == null) offset = 0;
+    }
+
+    /*
+    Aggregate functions requested in agg, other than the percentiles. Throws a VALIDATION_ERROR for an unknown function.
+     */
+    public Set<AggregateFunction> functions() {
+        Set<AggregateFunction> functions = EnumSet.noneOf(AggregateFunction.class);
+        for (String function : agg.split(",")) {
+            String name = function.trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty() || PERCENTILE.matcher(name).matches()) {
+                continue;
+            }
+            try {
+                functions.add(AggregateFunction.valueOf(name.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new CustomException("Unknown aggregate function '" + function.trim() + "', expected one of "
+                        + Arrays.stream(AggregateFunction.values()).map(f -> f.name().toLowerCase(Locale.ROOT))
+                        .collect(Collectors.joining(", ")) + " or a percentile like p90",
+                        CustomException.ErrorCode.VALIDATION_ERROR);
+            }
+        }
+        return functions;
+    }
+
+    /*
+    The bucket size of an interval query, or null when the whole range is aggregated. Throws a VALIDATION_ERROR for a
+    malformed interval or one that would split the range into more than MAX_BUCKETS buckets.
+     */
+    public Duration intervalDuration() {
+        if (interval == null || interval.isBlank()) {
+            return null;
+        }
+        Matcher matcher = INTERVAL.matcher(interval.trim().toLowerCase(Locale.ROOT));
+        if (!matcher.matches() || Long.parseLong(matcher.group(1)) == 0) {
+            throw new CustomException("Invalid interval '" + interval + "', expected a number followed by s, m, h or d like 10s or 1h",
+                    CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        Duration duration = switch (matcher.group(2)) {
+            case "s" -> Duration.ofSeconds(amount);
+            case "m" -> Duration.ofMinutes(amount);
+            case "h" -> Duration.ofHours(amount);
+            default -> Duration.ofDays(amount);
+        };
+        if (Duration.between(from, to).dividedBy(duration) >= MAX_BUCKETS) {
+            throw new CustomException("Interval '" + interval + "' splits the range into more than " + MAX_BUCKETS + " buckets",
+                    CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        return duration;
+    }
+
+    // Percentiles requested in agg by label, e.g. "p90" -> 0.9
+    public Map<String, Double> percentiles() {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (String function : agg.split(",")) {
+            Matcher matcher = PERCENTILE.matcher(function.trim().toLowerCase(Locale.ROOT));
+            if (matcher.matches()) {
+                percentiles.put(matcher.group(), Double.parseDouble(matcher.group(1)) / 100);
+            }
+        }
+        return percentiles;
+    }
+
+    // Order of the groups, throws a VALIDATION_ERROR for an invalid orderBy
+    public GroupOrder order() {
+        return GroupOrder.parse(orderBy);
+    }
+
+    // Whether only a page of the groups is requested
+    public boolean isPaged() {
+        return limit != null || offset > 0;
+    }
+
+    // Whether the median or any percentile is requested
+    public boolean wantsQuantiles() {
+        return !percentiles().isEmpty() || functions().contains(AggregateFunction.MEDIAN);
+    }
+
+    // Whether exact=true was passed. Without it the paths that only keep sketches (rollups, incremental) are used
+    public boolean isExact() {
+        return Boolean.TRUE.equals(exact);
+    }
+
+    /*
+    Whether the median and percentiles are computed from every value instead of a sketch: with exact=true, and without
+    exact when the median is requested or ordered on, as the database computes it exactly. Percentiles alone are then
+    approximated, as with exact=false.
+     */
+    public boolean exactQuantiles() {
+        if (exact != null) {
+            return exact;
+        }
+        return functions().contains(AggregateFunction.MEDIAN) || order().function() == AggregateFunction.MEDIAN;
+    }
+
+    // Whether the quantiles of a query on the database are approximated from a scan instead of computed in SQL
+    public boolean approximatesQuantiles() {
+        if (exact != null) {
+            return !exact && wantsQuantiles();
+        }
+        return !percentiles().isEmpty();
     }
 }
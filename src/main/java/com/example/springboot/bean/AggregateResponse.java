@@ -1,10 +1,16 @@
 package com.example.springboot.bean;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /*
-This class will be used while responding to the aggregate sensor data requests
+This class will be used while responding to the aggregate sensor data requests.
+Only the aggregates requested in agg are set, the others are null and left out of the JSON.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class AggregateResponse {
     private String deviceId;
     private String deviceType;
@@ -15,6 +21,17 @@ public class AggregateResponse {
     private Double maxValue;
     private Double medianValue;
     private Long count;
+    private Double sumValue;
+    private Double stddevValue;
+    private Double firstValue;
+    private Double lastValue;
+
+    // Start of the time bucket of an interval query
+    private Instant bucket;
+
+    // Requested percentiles by label, e.g. "p90"
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Map<String, Double> percentiles = new LinkedHashMap<>();
 
     public AggregateResponse() {}
 
@@ -97,4 +114,32 @@ public class AggregateResponse {
     public void setCount(Long count) {
         this.count = count;
     }
+
+    public Double getSumValue() { return sumValue; }
+
+    public void setSumValue(Double sumValue) { this.sumValue = sumValue; }
+
+    public Double getStddevValue() { return stddevValue; }
+
+    public void setStddevValue(Double stddevValue) { this.stddevValue = stddevValue; }
+
+    public Double getFirstValue() { return firstValue; }
+
+    public void setFirstValue(Double firstValue) { this.firstValue = firstValue; }
+
+    public Double getLastValue() { return lastValue; }
+
+    public void setLastValue(Double lastValue) { this.lastValue = lastValue; }
+
+    public Instant getBucket() { return bucket; }
+
+    public void setBucket(Instant bucket) { this.bucket = bucket; }
+
+    public Map<String, Double> getPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(Map<String, Double> percentiles) {
+        this.percentiles = percentiles;
+    }
 }
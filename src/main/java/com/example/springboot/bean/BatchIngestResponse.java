@@ -0,0 +1,52 @@
+package com.example.springboot.bean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+This class will be used to respond to batch ingestion requests. Valid readings of a batch are saved even if some
+other readings of the same batch are rejected. Every rejected reading is reported with its position in the request
+and the validation errors in the same field -> message format used by the global exception handler.
+ */
+public class BatchIngestResponse {
+
+    private int received;
+    private int accepted;
+    private List<RejectedReading> rejected = new ArrayList<>();
+
+    public BatchIngestResponse() {}
+
+    public BatchIngestResponse(int received, int accepted, List<RejectedReading> rejected) {
+        this.received = received;
+        this.accepted = accepted;
+        this.rejected = rejected;
+    }
+
+    // Position of the rejected reading in the request (0 based) and the reasons for the rejection
+    public record RejectedReading(int index, Map<String, String> errors) {}
+
+    public int getReceived() {
+        return received;
+    }
+
+    public void setReceived(int received) {
+        this.received = received;
+    }
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(int accepted) {
+        this.accepted = accepted;
+    }
+
+    public List<RejectedReading> getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(List<RejectedReading> rejected) {
+        this.rejected = rejected;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.springboot.bean;
+
+import com.example.springboot.exception.CustomException;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+Order of the groups of /api/query, parsed from the orderBy parameter: the name of an aggregate function, optionally
+followed by :asc or :desc, e.g. orderBy=avg or orderBy=max:asc. Groups are sorted in descending order unless :asc is
+given, so that limit returns the top groups. first and last cannot be ordered on as the SQL has no aggregate for them.
+ */
+public record GroupOrder(AggregateFunction function, boolean descending) {
+
+    // The order used when orderBy is not given, the busiest groups first
+    public static final GroupOrder DEFAULT = new GroupOrder(AggregateFunction.COUNT, true);
+
+    private static final Set<AggregateFunction> ORDERABLE = EnumSet.complementOf(
+            EnumSet.of(AggregateFunction.FIRST, AggregateFunction.LAST));
+
+    // Throws a VALIDATION_ERROR for an unknown function or direction
+    public static GroupOrder parse(String orderBy) {
+        if (orderBy == null || orderBy.isBlank()) {
+            return DEFAULT;
+        }
+
+        String[] parts = orderBy.trim().toLowerCase(Locale.ROOT).split(":", -1);
+        AggregateFunction function = null;
+        try {
+            function = AggregateFunction.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            // Reported below
+        }
+        String direction = parts.length > 1 ? parts[1].trim() : "desc";
+        if (function == null || !ORDERABLE.contains(function) || parts.length > 2
+                || !(direction.equals("asc") || direction.equals("desc"))) {
+            throw new CustomException("Invalid orderBy '" + orderBy + "', expected one of "
+                    + ORDERABLE.stream().map(f -> f.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", "))
+                    + " optionally followed by :asc or :desc",
+                    CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        return new GroupOrder(function, direction.equals("desc"));
+    }
+}
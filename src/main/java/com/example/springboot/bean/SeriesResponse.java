@@ -0,0 +1,70 @@
+package com.example.springboot.bean;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+This class will be used while responding to interval aggregate requests. Instead of repeating the labels and field
+names for every bucket, a group is returned once with the names of its columns and one row of values per bucket, the
+first column being the start of the bucket.
+ */
+public class SeriesResponse {
+    private String deviceId;
+    private String deviceType;
+    private String groupId;
+    private String metric;
+    private String interval;
+    private List<String> columns;
+    private List<List<Object>> values = new ArrayList<>();
+
+    public SeriesResponse() {}
+
+    public SeriesResponse(String deviceId, String deviceType, String groupId, String metric, String interval,
+                          List<String> columns) {
+        this.deviceId = deviceId;
+        this.deviceType = deviceType;
+        this.groupId = groupId;
+        this.metric = metric;
+        this.interval = interval;
+        this.columns = columns;
+    }
+
+    // Appends the row of a bucket, values in the order of columns after the bucket start
+    public void addRow(Instant bucket, List<Object> row) {
+        List<Object> values = new ArrayList<>(row.size() + 1);
+        values.add(bucket);
+        values.addAll(row);
+        this.values.add(values);
+    }
+
+    // --- Getters & Setters ---
+
+    public String getDeviceId() { return deviceId; }
+
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+    public String getDeviceType() { return deviceType; }
+
+    public void setDeviceType(String deviceType) { this.deviceType = deviceType; }
+
+    public String getGroupId() { return groupId; }
+
+    public void setGroupId(String groupId) { this.groupId = groupId; }
+
+    public String getMetric() { return metric; }
+
+    public void setMetric(String metric) { this.metric = metric; }
+
+    public String getInterval() { return interval; }
+
+    public void setInterval(String interval) { this.interval = interval; }
+
+    public List<String> getColumns() { return columns; }
+
+    public void setColumns(List<String> columns) { this.columns = columns; }
+
+    public List<List<Object>> getValues() { return values; }
+
+    public void setValues(List<List<Object>> values) { this.values = values; }
+}
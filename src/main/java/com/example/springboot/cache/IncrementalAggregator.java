@@ -0,0 +1,328 @@
+package com.example.springboot.cache;
+
+import com.example.springboot.aggregate.BucketScan;
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.RangeScan;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.config.IncrementalQueryProperties;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.ingest.IngestListener;
+import com.example.springboot.partition.RetentionListener;
+import com.example.springboot.rollup.RollupPlanner;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+Keeps the per series partial aggregates of closed time buckets between queries, so that a sliding window query like
+"the last 24h" polled every few seconds only reads the data that is new since the previous poll.
+The range of a query is split like the rollups do: the buckets fully inside it and ending before now - settle-delay
+are taken from the state of its filters (computed in one bucketed scan when missing), the partial buckets at the head
+and the tail are scanned raw. Partials are kept per series, so queries with the same filters share their buckets
+whatever their grouping or aggregate functions.
+As an IngestListener, a reading saved into a closed bucket (late data) drops that bucket from the state of every
+filter it matches, and a bucket computed while such a reading was saved is not kept. As a RetentionListener, the
+buckets starting before the cutoff of the partition retention are dropped. Buckets that no query used for
+query.incremental.idle-timeout are dropped, whatever their filters. The state is bounded by the number of per series
+partials it holds (each has a sketch), query.incremental.max-partials: above it the least recently used filters are
+dropped, then the oldest buckets of the filters of the query, as are the filters above query.incremental.max-shapes.
+The scans only keep sketches or timestamps when the query needs them, queries without quantiles nor first/last get
+their buckets from a GROUP BY in the database (see RawScan).
+ */
+@Component
+public class IncrementalAggregator implements IngestListener, RetentionListener {
+
+    // Normalized filters of a query. First/last need the timestamps and quantiles the sketches, partials computed
+    // without them are kept apart
+    private record Shape(String deviceId, String deviceType, String groupId, String metric, boolean timestamps,
+                         boolean quantiles) {
+
+        static Shape of(AggregateQueryParams params, ScanOptions options) {
+            return new Shape(normalize(params.deviceId()), normalize(params.deviceType()), normalize(params.groupId()),
+                    normalize(params.metric()), options.timestamps(), options.quantiles());
+        }
+
+        boolean matches(SensorReading reading) {
+            return matches(deviceId, reading.getDeviceId()) && matches(deviceType, reading.getDeviceType())
+                    && matches(groupId, reading.getGroupId()) && matches(metric, reading.getMetric());
+        }
+
+        private static boolean matches(String filter, String value) {
+            return filter == null || filter.equals(value);
+        }
+
+        private static String normalize(String filter) {
+            return filter == null || filter.isBlank() ? null : filter;
+        }
+    }
+
+    private record Bucket(Map<Integer, PartialAggregate> partials, long lastUsed) {}
+
+    private static final class ShapeState {
+        private final TreeMap<Instant, Bucket> buckets = new TreeMap<>();
+        // Incremented for every late reading of the shape, a scan overlapping one is not kept
+        private long version;
+        // Partials held by the buckets, see weight
+        private long partials;
+    }
+
+    // Idle buckets are looked for at most this often
+    private static final long IDLE_SWEEP_INTERVAL_MS = 60_000;
+
+    private final IncrementalQueryProperties properties;
+    private final LinkedHashMap<Shape, ShapeState> shapes;
+
+    // Partials held by all the buckets, and when the idle buckets were last dropped
+    private long partials;
+    private long lastIdleSweep;
+
+    private final Counter reused;
+    private final Counter computed;
+
+    public IncrementalAggregator(IncrementalQueryProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        // Access ordered, the least recently used filters are dropped first
+        this.shapes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Shape, ShapeState> eldest) {
+                if (size() > properties.getMaxShapes()) {
+                    partials -= eldest.getValue().partials;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.reused = Counter.builder("query.incremental.buckets").tag("result", "reused")
+                .description("Closed buckets taken from the state of a previous query").register(meterRegistry);
+        this.computed = Counter.builder("query.incremental.buckets").tag("result", "computed")
+                .description("Closed buckets scanned because they were missing from the state").register(meterRegistry);
+        Gauge.builder("query.incremental.partials", this, IncrementalAggregator::partials)
+                .description("Per series partial aggregates kept in the closed buckets")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /*
+    Computes the per series partials of [from, to] of the query, taking the closed buckets from the state and scanning
+    the rest with the given scans.
+     */
+    public Map<Integer, PartialAggregate> aggregate(AggregateQueryParams params, ScanOptions options,
+                                                    RangeScan rangeScan, BucketScan bucketScan) {
+
+        Duration size = properties.getBucket();
+        Instant end = params.to().plus(1, ChronoUnit.MICROS);
+        Instant closedEnd = RollupPlanner.floor(Instant.now().minus(properties.getSettleDelay()), size);
+        Instant first = ceil(params.from(), size);
+        Instant last = min(RollupPlanner.floor(end, size), closedEnd);
+
+        // No closed bucket inside the range, nothing to reuse
+        if (!first.isBefore(last)) {
+            return rangeScan.aggregate(params.from(), params.to());
+        }
+
+        Map<Integer, PartialAggregate> result = new HashMap<>();
+        if (params.from().isBefore(first)) {
+            mergeInto(result, rangeScan.aggregate(params.from(), first.minus(1, ChronoUnit.MICROS)));
+        }
+        if (last.isBefore(end)) {
+            mergeInto(result, rangeScan.aggregate(last, params.to()));
+        }
+
+        Shape shape = Shape.of(params, options);
+        long now = System.currentTimeMillis();
+
+        // Take the buckets at hand and find the runs of missing ones
+        List<Instant[]> missing = new ArrayList<>();
+        long version;
+        synchronized (this) {
+            evictIdle(now);
+            ShapeState state = shapes.computeIfAbsent(shape, s -> new ShapeState());
+            version = state.version;
+            Instant runStart = null;
+            for (Instant bucket = first; bucket.isBefore(last); bucket = bucket.plus(size)) {
+                Bucket cached = state.buckets.get(bucket);
+                if (cached != null) {
+                    state.buckets.put(bucket, new Bucket(cached.partials(), now));
+                    mergeInto(result, cached.partials());
+                    reused.increment();
+                    if (runStart != null) {
+                        missing.add(new Instant[]{runStart, bucket});
+                        runStart = null;
+                    }
+                } else if (runStart == null) {
+                    runStart = bucket;
+                }
+            }
+            if (runStart != null) {
+                missing.add(new Instant[]{runStart, last});
+            }
+        }
+
+        // Scan every run of missing buckets at once
+        for (Instant[] run : missing) {
+            Map<Instant, Map<Integer, PartialAggregate>> scanned =
+                    bucketScan.aggregate(run[0], run[1].minus(1, ChronoUnit.MICROS), size);
+            scanned.values().forEach(partials -> mergeInto(result, partials));
+
+            synchronized (this) {
+                ShapeState state = shapes.get(shape);
+                if (state == null || state.version != version) {
+                    continue;
+                }
+                for (Instant bucket = run[0]; bucket.isBefore(run[1]); bucket = bucket.plus(size)) {
+                    // Empty buckets are kept too, so that gaps in the data are not scanned again
+                    put(state, bucket, new Bucket(scanned.getOrDefault(bucket, Collections.emptyMap()), now));
+                    computed.increment();
+                }
+                enforceLimit(state);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void onSaved(List<SensorReading> readings) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        Duration size = properties.getBucket();
+        Instant closedEnd = RollupPlanner.floor(Instant.now().minus(properties.getSettleDelay()), size);
+
+        // Only the readings of closed buckets matter, the others fall in the head or tail of every query
+        List<SensorReading> late = new ArrayList<>();
+        for (SensorReading reading : readings) {
+            if (RollupPlanner.floor(reading.getTs(), size).isBefore(closedEnd)) {
+                late.add(reading);
+            }
+        }
+        if (late.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            shapes.forEach((shape, state) -> {
+                Set<Instant> touched = new HashSet<>();
+                for (SensorReading reading : late) {
+                    if (shape.matches(reading)) {
+                        touched.add(RollupPlanner.floor(reading.getTs(), size));
+                    }
+                }
+                if (!touched.isEmpty()) {
+                    state.version++;
+                    touched.forEach(bucket -> remove(state, bucket));
+                }
+            });
+        }
+    }
+
+    // Drops the buckets holding readings the retention may have dropped. Scans running meanwhile are not kept
+    @Override
+    public synchronized void onDropped(Instant cutoff) {
+        for (ShapeState state : shapes.values()) {
+            state.version++;
+            while (!state.buckets.isEmpty() && state.buckets.firstKey().isBefore(cutoff)) {
+                remove(state, state.buckets.firstKey());
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        shapes.clear();
+        partials = 0;
+    }
+
+    public synchronized long partials() {
+        return partials;
+    }
+
+    private void put(ShapeState state, Instant start, Bucket bucket) {
+        remove(state, start);
+        state.buckets.put(start, bucket);
+        state.partials += weight(bucket);
+        partials += weight(bucket);
+    }
+
+    private void remove(ShapeState state, Instant start) {
+        Bucket bucket = state.buckets.remove(start);
+        if (bucket != null) {
+            state.partials -= weight(bucket);
+            partials -= weight(bucket);
+        }
+    }
+
+    // An empty bucket counts as one, so that the gaps are bounded too
+    private static long weight(Bucket bucket) {
+        return Math.max(1, bucket.partials().size());
+    }
+
+    // Drops the least recently used filters, then the oldest buckets of the current one, down to max-partials
+    private void enforceLimit(ShapeState current) {
+        long max = properties.getMaxPartials();
+        for (Iterator<ShapeState> it = shapes.values().iterator(); partials > max && it.hasNext(); ) {
+            ShapeState state = it.next();
+            if (state != current) {
+                partials -= state.partials;
+                it.remove();
+            }
+        }
+        while (partials > max && !current.buckets.isEmpty()) {
+            remove(current, current.buckets.firstKey());
+        }
+    }
+
+    // Drops the buckets no query used for idle-timeout, and the filters left without buckets
+    private void evictIdle(long now) {
+        if (now - lastIdleSweep < Math.min(IDLE_SWEEP_INTERVAL_MS, properties.getIdleTimeout().toMillis())) {
+            return;
+        }
+        lastIdleSweep = now;
+        long idleBefore = now - properties.getIdleTimeout().toMillis();
+        for (Iterator<ShapeState> it = shapes.values().iterator(); it.hasNext(); ) {
+            ShapeState state = it.next();
+            for (Map.Entry<Instant, Bucket> bucket : new ArrayList<>(state.buckets.entrySet())) {
+                if (bucket.getValue().lastUsed() < idleBefore) {
+                    remove(state, bucket.getKey());
+                }
+            }
+            if (state.buckets.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    // Merges into new states, the partials of the buckets are shared between queries and never modified
+    private static void mergeInto(Map<Integer, PartialAggregate> result, Map<Integer, PartialAggregate> partials) {
+        partials.forEach((seriesId, partial) -> result.computeIfAbsent(seriesId, id -> new PartialAggregate()).merge(partial));
+    }
+
+    private static Instant ceil(Instant ts, Duration size) {
+        Instant floor = RollupPlanner.floor(ts, size);
+        return floor.equals(ts) ? floor : floor.plus(size);
+    }
+
+    private static Instant min(Instant a, Instant b) {
+        return a.isBefore(b) ? a : b;
+    }
+}
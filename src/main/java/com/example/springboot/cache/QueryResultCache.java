@@ -0,0 +1,306 @@
+package com.example.springboot.cache;
+
+import com.example.springboot.bean.AggregateFunction;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.GroupOrder;
+import com.example.springboot.config.QueryCacheProperties;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.ingest.IngestListener;
+import com.example.springboot.partition.RetentionListener;
+import com.example.springboot.repository.SeriesDictionary;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/*
+Bounded LRU cache of /api/query results, keyed on a normalized form of the AggregateQueryParams (blank filters, case,
+whitespace and order of the agg functions do not matter).
+Entries are invalidated precisely: as an IngestListener, the cache drops every entry whose filters match a saved
+reading with a ts inside its range, so a result is never served after data it should contain was committed. The TTL
+depends on the ingest watermark, the newest ts saved for a series: a query ending before the watermark of all its
+series is settled and kept for query-cache.settled-ttl unless late data arrives, a query reaching into data that is
+still being ingested expires after query-cache.recent-ttl.
+A result computed while readings were saved is only stored if none of those readings touched it, the last batches
+are kept for that check. Entries are indexed by the first label they filter on, so a saved reading is only checked
+against the entries that can match its series, including a series created after the entry was cached. As a
+RetentionListener, the cache also drops the entries whose range starts before the partitions dropped by the retention.
+Results are cached and returned as unmodifiable lists, a caller cannot change what the next one gets.
+ */
+@Component
+public class QueryResultCache implements IngestListener, RetentionListener {
+
+    // Normalized query. percentiles keeps the labels in request order as they name the response fields
+    private record Key(String kind, String deviceId, String deviceType, String groupId, String metric,
+                       long from, long to, Set<AggregateFunction> functions, List<String> percentiles,
+                       boolean groupByDeviceId, boolean groupByDeviceType, boolean groupByGroupId,
+                       boolean groupByMetric, Boolean exact, Duration interval,
+                       GroupOrder order, Integer limit, int offset) {
+
+        static Key of(String kind, AggregateQueryParams params) {
+            return new Key(kind, normalize(params.deviceId()), normalize(params.deviceType()),
+                    normalize(params.groupId()), normalize(params.metric()),
+                    toMicros(params.from()), toMicros(params.to()), params.functions(),
+                    new ArrayList<>(params.percentiles().keySet()),
+                    params.groupByDeviceId(), params.groupByDeviceType(), params.groupByGroupId(),
+                    params.groupByMetric(), params.exact(), params.intervalDuration(),
+                    params.order(), params.limit(), params.offset());
+        }
+
+        // The first label filtered on, the entries without filter are all under ALL
+        Term term() {
+            if (deviceId != null) return new Term("deviceId", deviceId);
+            if (deviceType != null) return new Term("deviceType", deviceType);
+            if (groupId != null) return new Term("groupId", groupId);
+            if (metric != null) return new Term("metric", metric);
+            return Term.ALL;
+        }
+
+        boolean matches(SeriesRange range) {
+            return from <= range.maxTs() && range.minTs() <= to
+                    && matches(deviceId, range.deviceId()) && matches(deviceType, range.deviceType())
+                    && matches(groupId, range.groupId()) && matches(metric, range.metric());
+        }
+
+        private static boolean matches(String filter, String value) {
+            return filter == null || filter.equals(value);
+        }
+
+        private static String normalize(String filter) {
+            return filter == null || filter.isBlank() ? null : filter;
+        }
+    }
+
+    private record Entry(Object value, long expiresAt) {}
+
+    // The readings of one series in a saved batch
+    private record SeriesRange(String deviceId, String deviceType, String groupId, String metric, long minTs, long maxTs) {
+
+        // The terms of the entries that may match the series
+        List<Term> terms() {
+            return List.of(new Term("deviceId", deviceId), new Term("deviceType", deviceType),
+                    new Term("groupId", groupId), new Term("metric", metric), Term.ALL);
+        }
+    }
+
+    // A label and its value, the key of the index of the entries
+    private record Term(String label, String value) {
+        static final Term ALL = new Term(null, null);
+    }
+
+    private record Batch(long sequence, Collection<SeriesRange> series) {}
+
+    // Saved batches kept to check the results computed concurrently, older ones are not cached
+    private static final int MAX_RECENT_BATCHES = 1024;
+
+    private final QueryCacheProperties properties;
+    private final SeriesDictionary seriesDictionary;
+
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<Term, Set<Key>> index = new HashMap<>();
+    private final ArrayDeque<Batch> recentBatches = new ArrayDeque<>();
+    private long sequence;
+
+    // Newest ts saved per series since startup, in epoch microseconds
+    private final Map<Integer, Long> watermarks = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter invalidations;
+    private final Counter evictions;
+
+    public QueryResultCache(QueryCacheProperties properties, SeriesDictionary seriesDictionary, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.seriesDictionary = seriesDictionary;
+
+        // Access ordered, the least recently used entry is evicted first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > properties.getMaxEntries()) {
+                    unindex(eldest.getKey());
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.hits = Counter.builder("query.cache.requests").tag("result", "hit")
+                .description("Queries answered from the result cache").register(meterRegistry);
+        this.misses = Counter.builder("query.cache.requests").tag("result", "miss")
+                .description("Queries computed because their result was not cached").register(meterRegistry);
+        this.invalidations = Counter.builder("query.cache.invalidations")
+                .description("Cached results dropped because readings were saved or dropped in their range").register(meterRegistry);
+        this.evictions = Counter.builder("query.cache.evictions")
+                .description("Cached results dropped to stay within query-cache.max-entries").register(meterRegistry);
+        Gauge.builder("query.cache.size", this, QueryResultCache::size)
+                .description("Results in the query cache")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /*
+    Returns the cached result of the query, or computes it with the loader and caches it. kind separates the result
+    types of the same parameters (aggregates and series). Exceptions of the loader are not cached. The result is an
+    unmodifiable copy of what the loader returned.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(String kind, AggregateQueryParams params, Supplier<List<T>> loader) {
+
+        if (!properties.isEnabled()) {
+            return loader.get();
+        }
+
+        Key key = Key.of(kind, params);
+        long startSequence;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() > System.currentTimeMillis()) {
+                hits.increment();
+                return (List<T>) entry.value();
+            }
+            if (entry != null) {
+                remove(key);
+            }
+            startSequence = sequence;
+        }
+        misses.increment();
+
+        // Decided before the query runs, a watermark moving past "to" meanwhile only makes the entry expire early
+        Duration ttl = isSettled(params) ? properties.getSettledTtl() : properties.getRecentTtl();
+        List<T> value = Collections.unmodifiableList(new ArrayList<>(loader.get()));
+
+        synchronized (this) {
+            if (!savedSince(startSequence, key)) {
+                entries.put(key, new Entry(value, System.currentTimeMillis() + ttl.toMillis()));
+                index.computeIfAbsent(key.term(), t -> new HashSet<>()).add(key);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void onSaved(List<SensorReading> readings) {
+        if (!properties.isEnabled() || readings.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, SeriesRange> bySeries = new HashMap<>();
+        for (SensorReading reading : readings) {
+            long ts = toMicros(reading.getTs());
+            bySeries.merge(reading.getSeriesId(),
+                    new SeriesRange(reading.getDeviceId(), reading.getDeviceType(), reading.getGroupId(),
+                            reading.getMetric(), ts, ts),
+                    (a, b) -> new SeriesRange(a.deviceId(), a.deviceType(), a.groupId(), a.metric(),
+                            Math.min(a.minTs(), b.minTs()), Math.max(a.maxTs(), b.maxTs())));
+        }
+        bySeries.forEach((seriesId, range) -> watermarks.merge(seriesId, range.maxTs(), Math::max));
+
+        synchronized (this) {
+            recentBatches.addLast(new Batch(++sequence, bySeries.values()));
+            if (recentBatches.size() > MAX_RECENT_BATCHES) {
+                recentBatches.removeFirst();
+            }
+
+            Set<Key> invalidated = new HashSet<>();
+            for (SeriesRange range : bySeries.values()) {
+                for (Term term : range.terms()) {
+                    for (Key key : index.getOrDefault(term, Set.of())) {
+                        if (key.matches(range)) {
+                            invalidated.add(key);
+                        }
+                    }
+                }
+            }
+            invalidated.forEach(this::remove);
+            invalidations.increment(invalidated.size());
+        }
+    }
+
+    // Drops the results that may hold readings the retention dropped
+    @Override
+    public synchronized void onDropped(Instant cutoff) {
+        long before = toMicros(cutoff);
+        List<Key> dropped = entries.keySet().stream().filter(key -> key.from() < before).toList();
+        dropped.forEach(this::remove);
+        invalidations.increment(dropped.size());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        index.clear();
+    }
+
+    private void remove(Key key) {
+        entries.remove(key);
+        unindex(key);
+    }
+
+    private void unindex(Key key) {
+        Set<Key> keys = index.get(key.term());
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            index.remove(key.term());
+        }
+    }
+
+    // Whether readings touching the query were saved after startSequence, or whether that can no longer be checked
+    private boolean savedSince(long startSequence, Key key) {
+        if (sequence == startSequence) {
+            return false;
+        }
+        if (recentBatches.isEmpty() || recentBatches.peekFirst().sequence() > startSequence + 1) {
+            return true;
+        }
+        for (Batch batch : recentBatches) {
+            if (batch.sequence() > startSequence && batch.series().stream().anyMatch(key::matches)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A query is settled when every series it covers already has data after its "to"
+    private boolean isSettled(AggregateQueryParams params) {
+        long to = toMicros(params.to());
+        Collection<Integer> seriesIds = seriesDictionary.findIds(params.deviceId(), params.deviceType(),
+                params.groupId(), params.metric());
+        if (seriesIds.isEmpty()) {
+            return false;
+        }
+        for (Integer seriesId : seriesIds) {
+            Long watermark = watermarks.get(seriesId);
+            if (watermark == null || to >= watermark) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long toMicros(Instant instant) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.springboot.codec;
+
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.exception.CustomException;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Hand written decoder for the compact binary ingest format (application/x-sensor-frame). A request body is a sequence
+of frames. Each frame carries its own dictionary of the repeated strings (device id, device type, group id and metric)
+followed by fixed width records that refer to the dictionary by position. All numbers are big endian.
+
+    u8    version (1)
+    u16   dictionary size D
+    D x { u16 byte length, UTF-8 bytes }
+    i32   record count N
+    N x { u16 deviceId, u16 deviceType, u16 groupId, u16 metric, i64 ts (epoch microseconds), f64 reading }
+
+Every record is 24 bytes and every distinct string is decoded once per frame, so there is no field name parsing and
+no per record string allocation. Since fields cannot be missing in this format, the checks needed are that the
+dictionary references are in range, that the strings fit the sensor_reading columns and that every reading is finite.
+JSON cannot carry NaN or Infinity, but an f64 can, and a single one would poison the SUM, AVG and STDDEV of its series
+and of every rollup it lands in. A frame failing these checks is rejected as a whole with a VALIDATION_ERROR.
+ */
+public class SensorFrameDecoder {
+
+    public static final String MEDIA_TYPE = "application/x-sensor-frame";
+
+    public static final int VERSION = 1;
+
+    // Size of the label columns of sensor_series, where the dimensions of the readings are stored
+    private static final int MAX_STRING_BYTES = 100;
+
+    private final DataInputStream in;
+    private final int maxRecordsPerFrame;
+
+    public SensorFrameDecoder(InputStream in, int maxRecordsPerFrame) {
+        this.in = new DataInputStream(in);
+        this.maxRecordsPerFrame = maxRecordsPerFrame;
+    }
+
+    // Returns the readings of the next frame, or null once the stream ends cleanly between two frames
+    public List<SensorReading> nextFrame() throws IOException {
+
+        int version = in.read();
+        if (version < 0) {
+            return null;
+        }
+        if (version != VERSION) {
+            throw invalid("Unsupported frame version " + version);
+        }
+
+        try {
+            String[] dictionary = readDictionary();
+            return readRecords(dictionary);
+        } catch (EOFException e) {
+            throw invalid("Truncated frame");
+        }
+    }
+
+    private String[] readDictionary() throws IOException {
+
+        int size = in.readUnsignedShort();
+        String[] dictionary = new String[size];
+
+        byte[] buffer = new byte[MAX_STRING_BYTES];
+        for (int i = 0; i < size; i++) {
+            int length = in.readUnsignedShort();
+            if (length == 0 || length > MAX_STRING_BYTES) {
+                throw invalid("Dictionary entry " + i + " must be between 1 and " + MAX_STRING_BYTES + " bytes");
+            }
+            in.readFully(buffer, 0, length);
+            dictionary[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+
+        return dictionary;
+    }
+
+    private List<SensorReading> readRecords(String[] dictionary) throws IOException {
+
+        int count = in.readInt();
+        if (count < 0 || count > maxRecordsPerFrame) {
+            throw invalid("Frame record count must be between 0 and " + maxRecordsPerFrame);
+        }
+
+        List<SensorReading> readings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SensorReading reading = new SensorReading();
+            reading.setDeviceId(lookup(dictionary, in.readUnsignedShort(), i));
+            reading.setDeviceType(lookup(dictionary, in.readUnsignedShort(), i));
+            reading.setGroupId(lookup(dictionary, in.readUnsignedShort(), i));
+            reading.setMetric(lookup(dictionary, in.readUnsignedShort(), i));
+
+            long epochMicros = in.readLong();
+            reading.setTs(Instant.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000L),
+                    Math.floorMod(epochMicros, 1_000_000L) * 1_000L));
+
+            double value = in.readDouble();
+            if (!Double.isFinite(value)) {
+                throw invalid("Record " + i + " has a non finite reading " + value);
+            }
+            reading.setReading(value);
+            readings.add(reading);
+        }
+
+        return readings;
+    }
+
+    private static String lookup(String[] dictionary, int ref, int record) {
+        if (ref >= dictionary.length) {
+            throw invalid("Record " + record + " refers to dictionary entry " + ref
+                    + " but the dictionary has " + dictionary.length + " entries");
+        }
+        return dictionary[ref];
+    }
+
+    private static CustomException invalid(String message) {
+        return new CustomException(message, CustomException.ErrorCode.VALIDATION_ERROR);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.springboot.codec;
+
+import com.example.springboot.entity.SensorReading;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Encoder for the format read by SensorFrameDecoder. It is used by clients written in Java such as the simulator,
+by the tests and by the decoder benchmark. See SensorFrameDecoder for the layout of a frame.
+ */
+public class SensorFrameEncoder {
+
+    // Dictionary references are unsigned 16 bit values
+    public static final int MAX_DICTIONARY_SIZE = 65535;
+
+    private SensorFrameEncoder() {}
+
+    // Writes all readings as a single frame
+    public static void writeFrame(List<SensorReading> readings, OutputStream out) throws IOException {
+
+        Map<String, Integer> refs = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] encoded = new int[readings.size() * 4];
+
+        for (int i = 0; i < readings.size(); i++) {
+            SensorReading reading = readings.get(i);
+            encoded[i * 4] = ref(reading.getDeviceId(), refs, dictionary);
+            encoded[i * 4 + 1] = ref(reading.getDeviceType(), refs, dictionary);
+            encoded[i * 4 + 2] = ref(reading.getGroupId(), refs, dictionary);
+            encoded[i * 4 + 3] = ref(reading.getMetric(), refs, dictionary);
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(SensorFrameDecoder.VERSION);
+
+        data.writeShort(dictionary.size());
+        for (String value : dictionary) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            data.writeShort(bytes.length);
+            data.write(bytes);
+        }
+
+        data.writeInt(readings.size());
+        for (int i = 0; i < readings.size(); i++) {
+            SensorReading reading = readings.get(i);
+            data.writeShort(encoded[i * 4]);
+            data.writeShort(encoded[i * 4 + 1]);
+            data.writeShort(encoded[i * 4 + 2]);
+            data.writeShort(encoded[i * 4 + 3]);
+            data.writeLong(toEpochMicros(reading.getTs()));
+            data.writeDouble(reading.getReading());
+        }
+
+        data.flush();
+    }
+
+    public static byte[] encode(List<SensorReading> readings) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + readings.size() * 24);
+        try {
+            writeFrame(readings, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static int ref(String value, Map<String, Integer> refs, List<String> dictionary) {
+        return refs.computeIfAbsent(value, v -> {
+            if (dictionary.size() == MAX_DICTIONARY_SIZE) {
+                throw new IllegalArgumentException("A frame can hold at most " + MAX_DICTIONARY_SIZE + " distinct strings");
+            }
+            dictionary.add(v);
+            return dictionary.size() - 1;
+        });
+    }
+
+    private static long toEpochMicros(Instant ts) {
+        return Math.addExact(Math.multiplyExact(ts.getEpochSecond(), 1_000_000L), ts.getNano() / 1_000L);
+    }
+}
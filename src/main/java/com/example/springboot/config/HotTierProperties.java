@@ -0,0 +1,58 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/*
+This class holds the configuration of the optional in-memory hot tier, which keeps the most recent readings of every
+series in memory and answers the queries whose range starts inside that window.
+ */
+@Component
+@ConfigurationProperties(prefix = "hot-tier")
+public class HotTierProperties {
+
+    private boolean enabled = false;
+
+    // Readings older than now - window are evicted
+    private Duration window = Duration.ofHours(6);
+
+    // Readings per chunk. Memory is allocated one chunk at a time per series
+    private int chunkSize = 1024;
+
+    // How often expired chunks are evicted
+    private Duration evictionInterval = Duration.ofMinutes(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    public void setWindow(Duration window) {
+        this.window = window;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public Duration getEvictionInterval() {
+        return evictionInterval;
+    }
+
+    public void setEvictionInterval(Duration evictionInterval) {
+        this.evictionInterval = evictionInterval;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/*
+This class holds the configuration of the incremental computation of sliding window queries, see IncrementalAggregator.
+ */
+@Component
+@ConfigurationProperties(prefix = "query.incremental")
+public class IncrementalQueryProperties {
+
+    private boolean enabled = false;
+
+    // Size of the buckets whose partial aggregates are kept between queries. A query recomputes up to two of them
+    private Duration bucket = Duration.ofMinutes(5);
+
+    // Buckets ending less than this long ago are still open for late readings and never kept
+    private Duration settleDelay = Duration.ofMinutes(1);
+
+    // Buckets no query used for this long are dropped
+    private Duration idleTimeout = Duration.ofMinutes(10);
+
+    // Least recently used filters are dropped above this many
+    private int maxShapes = 100;
+
+    // Per series partial aggregates kept over all buckets and filters, each one holds a quantile sketch
+    private long maxPartials = 1_000_000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(Duration bucket) {
+        this.bucket = bucket;
+    }
+
+    public Duration getSettleDelay() {
+        return settleDelay;
+    }
+
+    public void setSettleDelay(Duration settleDelay) {
+        this.settleDelay = settleDelay;
+    }
+
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getMaxShapes() {
+        return maxShapes;
+    }
+
+    public void setMaxShapes(int maxShapes) {
+        this.maxShapes = maxShapes;
+    }
+
+    public long getMaxPartials() {
+        return maxPartials;
+    }
+
+    public void setMaxPartials(long maxPartials) {
+        this.maxPartials = maxPartials;
+    }
+}
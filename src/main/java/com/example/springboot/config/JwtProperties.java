@@ -3,6 +3,8 @@ package com.example.springboot.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 /*
 This class holds the sensitive information about the JWT tokens that are generated
  */
@@ -17,6 +19,12 @@ public class JwtProperties {
     // the assignment is submitted
     private long expiration = 8640000;
     private String issuer = "iot-sensor-app";
+
+    // Verified tokens whose claims are kept until they expire, 0 checks the signature of every request
+    private int cacheSize = 10000;
+
+    // How often revocations made by other instances are loaded and the expired ones deleted
+    private Duration revocationRefreshInterval = Duration.ofSeconds(30);
     
     public String getSecret() {
         return secret;
@@ -41,4 +49,20 @@ public class JwtProperties {
     public void setIssuer(String issuer) {
         this.issuer = issuer;
     }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public Duration getRevocationRefreshInterval() {
+        return revocationRefreshInterval;
+    }
+
+    public void setRevocationRefreshInterval(Duration revocationRefreshInterval) {
+        this.revocationRefreshInterval = revocationRefreshInterval;
+    }
 }
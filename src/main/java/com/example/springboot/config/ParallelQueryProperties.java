@@ -0,0 +1,68 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/*
+This class holds the configuration of the parallel execution of queries over sub-ranges, see ParallelRangeScanner.
+ */
+@Component
+@ConfigurationProperties(prefix = "query.parallel")
+public class ParallelQueryProperties {
+
+    private boolean enabled = false;
+
+    // Threads of the executor shared by all queries, each one holds a connection of the pool while it scans
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    // Sub-ranges of a query when the parallelism query parameter is not given, capped by threads
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // Sub-ranges are never shorter than this, a shorter query runs in a single scan
+    private Duration minRange = Duration.ofMinutes(10);
+
+    // Sub-ranges waiting for a thread above this many are scanned by the request thread itself
+    private int queueCapacity = 256;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public Duration getMinRange() {
+        return minRange;
+    }
+
+    public void setMinRange(Duration minRange) {
+        this.minRange = minRange;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+}
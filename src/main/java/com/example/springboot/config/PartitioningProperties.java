@@ -0,0 +1,60 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/*
+This class holds the configuration of the optional time partitioned storage. When enabled, raw readings are stored in
+one table per hour or per day (sensor_reading_p2024010100 / sensor_reading_p20240101) instead of the single
+sensor_reading table, queries only read the tables overlapping their range and old data is removed by dropping tables.
+ */
+@Component
+@ConfigurationProperties(prefix = "storage.partitioning")
+public class PartitioningProperties {
+
+    public enum Granularity { HOUR, DAY }
+
+    private boolean enabled = false;
+
+    private Granularity granularity = Granularity.DAY;
+
+    // Partitions ending before now - retention are dropped. Zero keeps everything
+    private Duration retention = Duration.ZERO;
+
+    // How often expired partitions are looked for
+    private Duration retentionCheckInterval = Duration.ofMinutes(10);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(Granularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public Duration getRetention() {
+        return retention;
+    }
+
+    public void setRetention(Duration retention) {
+        this.retention = retention;
+    }
+
+    public Duration getRetentionCheckInterval() {
+        return retentionCheckInterval;
+    }
+
+    public void setRetentionCheckInterval(Duration retentionCheckInterval) {
+        this.retentionCheckInterval = retentionCheckInterval;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/*
+This class holds the configuration of the optional /api/query result cache, see QueryResultCache.
+ */
+@Component
+@ConfigurationProperties(prefix = "query-cache")
+public class QueryCacheProperties {
+
+    private boolean enabled = false;
+
+    // Least recently used results are evicted above this many entries
+    private int maxEntries = 1000;
+
+    // Lifetime of the results of queries reaching into data that is still being ingested
+    private Duration recentTtl = Duration.ofSeconds(5);
+
+    // Lifetime of the results of queries ending before the ingest watermark, unless late data invalidates them first
+    private Duration settledTtl = Duration.ofHours(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public Duration getRecentTtl() {
+        return recentTtl;
+    }
+
+    public void setRecentTtl(Duration recentTtl) {
+        this.recentTtl = recentTtl;
+    }
+
+    public Duration getSettledTtl() {
+        return settledTtl;
+    }
+
+    public void setSettledTtl(Duration settledTtl) {
+        this.settledTtl = settledTtl;
+    }
+}
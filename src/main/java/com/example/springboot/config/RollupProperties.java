@@ -0,0 +1,50 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/*
+This class holds the configuration of the optional rollup tables. When enabled, the saved readings are also
+pre-aggregated into one row per series and bucket at each resolution, rebuilt in the background every refresh interval,
+and /api/query reads the rollups for the part of the range they cover.
+ */
+@Component
+@ConfigurationProperties(prefix = "rollup")
+public class RollupProperties {
+
+    private boolean enabled = false;
+
+    // Bucket sizes of the rollup tables, buckets are aligned on the epoch
+    private List<Duration> resolutions = List.of(Duration.ofMinutes(1), Duration.ofHours(1), Duration.ofDays(1));
+
+    // Delay between two rebuilds of the buckets of the readings saved meanwhile. Queries read the raw readings of
+    // those buckets until then
+    private Duration refreshInterval = Duration.ofSeconds(5);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<Duration> getResolutions() {
+        return resolutions;
+    }
+
+    public void setResolutions(List<Duration> resolutions) {
+        this.resolutions = resolutions;
+    }
+
+    public Duration getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+This class holds the configuration of the timers of the service methods, see ExecutionTimeAspect.
+ */
+@Component
+@ConfigurationProperties(prefix = "metrics.service")
+public class ServiceMetricsProperties {
+
+    private boolean enabled = true;
+
+    // Share of the calls that are timed, between 0 and 1. Counts and totals of the timers only cover the sampled calls
+    private double sampleRate = 1.0;
+
+    // Publishes the histogram buckets a monitoring system aggregates percentiles across instances from
+    private boolean percentileHistogram = true;
+
+    // Percentiles computed in the application and published as gauges, e.g. 0.5, 0.99. Empty by default as a bound
+    // list replaces the default one
+    private List<Double> percentiles = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public boolean isPercentileHistogram() {
+        return percentileHistogram;
+    }
+
+    public void setPercentileHistogram(boolean percentileHistogram) {
+        this.percentileHistogram = percentileHistogram;
+    }
+
+    public List<Double> getPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(List<Double> percentiles) {
+        this.percentiles = percentiles;
+    }
+}
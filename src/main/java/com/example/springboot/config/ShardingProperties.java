@@ -0,0 +1,113 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/*
+This class holds the configuration of the optional sharded storage. When enabled, readings are stored in "count"
+independent H2 databases instead of the main datasource. The shard of a reading is chosen by hashing one of its
+dimensions (the shard key). The sensor_series dictionary stays in the main datasource.
+ */
+@Component
+@ConfigurationProperties(prefix = "sharding")
+public class ShardingProperties {
+
+    public enum Strategy { HASH, CONSISTENT_HASH }
+
+    private boolean enabled = false;
+
+    // Number of shards
+    private int count = 4;
+
+    // Dimension used to pick the shard: deviceId, deviceType, groupId or metric
+    private String key = "deviceType";
+
+    // HASH is a plain modulo of the key hash. CONSISTENT_HASH places the shards on a hash ring, so changing
+    // the shard count only moves about 1/count of the keys
+    private Strategy strategy = Strategy.CONSISTENT_HASH;
+
+    // Points per shard on the consistent hash ring, more points give a more even distribution
+    private int virtualNodes = 128;
+
+    // JDBC url of a shard, %d is replaced by the shard number
+    private String urlTemplate = "jdbc:h2:mem:sensor-shard-%d;DB_CLOSE_DELAY=-1";
+
+    private String username = "sa";
+
+    private String password = "";
+
+    // Connections per shard
+    private int poolSize = 4;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public String getUrlTemplate() {
+        return urlTemplate;
+    }
+
+    public void setUrlTemplate(String urlTemplate) {
+        this.urlTemplate = urlTemplate;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+This class holds the configuration of the IoTDeviceSimulator load generator. application.properties keeps the original
+simulation: 15 devices sending one reading per second each for 30 seconds, as soon as the application is started.
+ */
+@Component
+@ConfigurationProperties(prefix = "simulator")
+public class SimulatorProperties {
+
+    public enum Profile { CONSTANT, RAMP }
+
+    public enum Mode { HTTP, IN_PROCESS }
+
+    private boolean enabled = true;
+
+    // HTTP posts the readings to url, IN_PROCESS hands them to the ingest pipeline of this application directly, without
+    // Tomcat and Jackson, see InProcessIngest
+    private Mode mode = Mode.HTTP;
+
+    // Threads calling the ingest pipeline in IN_PROCESS mode, in place of the request threads
+    private int inProcessThreads = 4;
+
+    // Ingest API the readings are posted to. In batch mode they are posted to its /batch endpoint
+    private String url = "http://localhost:8080/api/ingest";
+
+    // Number of simulated devices per device type, e.g. simulator.devices.thermostat=20000. Empty by default as a bound
+    // map is merged into the default one
+    private Map<String, Integer> devices = new LinkedHashMap<>();
+
+    // Every device sends one reading per interval
+    private Duration interval = Duration.ofSeconds(1);
+
+    // How long readings are sent for, ramp-up included
+    private Duration duration = Duration.ofSeconds(30);
+
+    // CONSTANT sends at the full rate from the start, RAMP raises the rate linearly from 0 over ramp-up
+    private Profile profile = Profile.CONSTANT;
+
+    private Duration rampUp = Duration.ofSeconds(10);
+
+    // Readings per request, above 1 the readings of several devices are posted together to the batch API
+    private int batchSize = 1;
+
+    // Requests waiting for their response above this many hold back the next sends. The schedule is not shifted, the
+    // wait shows up in the latency measured from the intended send time
+    private int maxInFlight = 1000;
+
+    private Duration requestTimeout = Duration.ofSeconds(10);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getInProcessThreads() {
+        return inProcessThreads;
+    }
+
+    public void setInProcessThreads(int inProcessThreads) {
+        this.inProcessThreads = inProcessThreads;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public Map<String, Integer> getDevices() {
+        return devices;
+    }
+
+    public void setDevices(Map<String, Integer> devices) {
+        this.devices = devices;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public void setDuration(Duration duration) {
+        this.duration = duration;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(Profile profile) {
+        this.profile = profile;
+    }
+
+    public Duration getRampUp() {
+        return rampUp;
+    }
+
+    public void setRampUp(Duration rampUp) {
+        this.rampUp = rampUp;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.springboot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/*
+This class holds the configuration of the optional write-behind ingest mode. When enabled, /api/ingest only places
+the reading in a bounded in-memory buffer and a few writer threads save the buffered readings in group commits.
+ */
+@Component
+@ConfigurationProperties(prefix = "ingest.write-behind")
+public class WriteBehindProperties {
+
+    // Disabled by default so that /api/ingest keeps its synchronous "201 means saved" semantics
+    private boolean enabled = false;
+
+    // Maximum number of readings waiting in the buffer. Requests are rejected with a 503 once it is full
+    private int capacity = 100000;
+
+    // Number of threads draining the buffer into the database
+    private int writerThreads = 2;
+
+    // A group commit is made as soon as this many readings are collected ...
+    private int maxBatchSize = 1000;
+
+    // ... or once the oldest reading of the group has waited this long
+    private long maxLatencyMs = 50;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    public void setMaxLatencyMs(long maxLatencyMs) {
+        this.maxLatencyMs = maxLatencyMs;
+    }
+}
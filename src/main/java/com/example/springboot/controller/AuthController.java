@@ -4,11 +4,13 @@ import com.example.springboot.security.JwtService;
 import com.example.springboot.config.JwtProperties;
 import com.example.springboot.bean.LoginRequest;
 import com.example.springboot.bean.LoginResponse;
+import com.example.springboot.exception.CustomException;
 import com.example.springboot.service.IngestService;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -16,8 +18,10 @@ import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
 /*
-This class generates the JWT token on calling the /api/auth API if the user name and password is correctly provided
+This class generates the JWT token on calling the /api/auth API if the user name and password is correctly provided.
+/api/auth/logout revokes the token it is called with.
  */
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RestController
 @RequestMapping("/api/auth")
 public class AuthController {
@@ -56,4 +60,14 @@ public class AuthController {
         // Respond with the JWT token along with expiry information
         return ResponseEntity.ok(new LoginResponse(token, jwtProperties.getExpiration()));
     }
+
+    // The token is refused from now on, even though it has not expired
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+
+        if (authHeader == null || !authHeader.startsWith("Bearer ") || !jwtService.revoke(authHeader.substring(7))) {
+            throw new CustomException("Missing or invalid token", CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        return ResponseEntity.noContent().build();
+    }
 }
@@ -1,19 +1,44 @@
 package com.example.springboot.controller;
 
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.codec.SensorFrameDecoder;
 import com.example.springboot.entity.SensorReading;
+import com.example.springboot.exception.CustomException;
 import com.example.springboot.service.IngestService;
+import com.example.springboot.service.NdjsonIngestService;
+import com.example.springboot.service.WriteBehindIngestBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.data.jpa.repository.JpaRepository;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipException;
+
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RestController
 @RequestMapping("/api/ingest")
 public class IngestController {
 
     private final IngestService service;
+    private final NdjsonIngestService ndjsonService;
+
+    // Only available when ingest.write-behind.enabled=true
+    private final ObjectProvider<WriteBehindIngestBuffer> writeBehindBuffer;
+
+    // Upper bound on the number of readings accepted in a single batch request
+    @Value("${ingest.batch.max-size:10000}")
+    private int maxBatchSize = 10000;
 
     private static final Logger log = LoggerFactory.getLogger(IngestController.class);
 
@@ -22,13 +47,20 @@ public class IngestController {
     I have used this for the prototype. In production we would have a message queue in between the producer (IOT device)
     and the consumer (possibly the /api/ingest API). This API can consume messages in bulk and perform bulk insert in teh DB.
      */
-    public IngestController(IngestService service) {
+    public IngestController(IngestService service, NdjsonIngestService ndjsonService,
+                            ObjectProvider<WriteBehindIngestBuffer> writeBehindBuffer) {
         this.service = service;
+        this.ndjsonService = ndjsonService;
+        this.writeBehindBuffer = writeBehindBuffer;
     }
 
+    /*
+    By default the reading is saved before responding with a 201. In write-behind mode the reading is only buffered,
+    a 202 is returned and the reading is saved shortly after. If the buffer is full, a 503 is returned so that the
+    device backs off instead of the buffer growing without limit.
+     */
     @PostMapping
-    @ResponseStatus(HttpStatus.CREATED)
-    public void ingestReading(@RequestBody @Validated(SensorReading.Ingest.class) SensorReading req) {
+    public ResponseEntity<Void> ingestReading(@RequestBody @Validated(SensorReading.Ingest.class) SensorReading req) {
         SensorReading reading = new SensorReading();
         reading.setDeviceId(req.getDeviceId());
         reading.setDeviceType(req.getDeviceType());
@@ -39,7 +71,72 @@ public class IngestController {
 
         // All the basic validations are happening via the @Validated checks by Spring.
         // More validations can be applied and thrown manually before calling save
-        
+
+        WriteBehindIngestBuffer buffer = writeBehindBuffer.getIfAvailable();
+        if (buffer != null) {
+            if (!buffer.offer(reading)) {
+                log.info("IngestController : write-behind buffer is full, rejecting reading");
+                throw new CustomException("Ingest buffer is full, retry later", CustomException.ErrorCode.INGEST_OVERLOADED);
+            }
+            return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+        }
+
         service.saveReading(reading);
+        return ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+
+    /*
+    Accepts an array of readings in a single request. Each reading is validated individually so that one bad reading
+    does not reject the whole batch. The valid readings are written using JDBC batching in a single transaction.
+    If none of the readings are valid, a 400 is returned with the same response body.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<BatchIngestResponse> ingestBatch(@RequestBody List<SensorReading> readings) {
+
+        if (readings.size() > maxBatchSize) {
+            throw new CustomException("Batch size " + readings.size() + " exceeds the maximum of " + maxBatchSize,
+                    CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+
+        BatchIngestResponse response = service.ingestBatch(readings);
+
+        HttpStatus status = (response.getAccepted() == 0 && !response.getRejected().isEmpty())
+                ? HttpStatus.BAD_REQUEST
+                : HttpStatus.CREATED;
+
+        return ResponseEntity.status(status).body(response);
+    }
+
+    /*
+    Accepts newline delimited JSON, one reading per line, and parses it while the request body is still being read.
+    The body can be gzip compressed by sending "Content-Encoding: gzip". The response has the same format as the
+    batch API, where the index of a rejected reading is its line number (0 based).
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<BatchIngestResponse> ingestStream(HttpServletRequest request) throws IOException {
+
+        boolean gzip = "gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+
+        BatchIngestResponse response;
+        try {
+            response = ndjsonService.ingest(request.getInputStream(), gzip);
+        } catch (ZipException e) {
+            throw new CustomException("Request body is not valid gzip", CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+
+        HttpStatus status = (response.getAccepted() == 0 && !response.getRejected().isEmpty())
+                ? HttpStatus.BAD_REQUEST
+                : HttpStatus.CREATED;
+
+        return ResponseEntity.status(status).body(response);
+    }
+
+    /*
+    Accepts the compact binary format described in SensorFrameDecoder. Repeated strings are sent once per frame and
+    timestamps and readings are fixed width, which makes decoding much cheaper than JSON. JSON stays the default format.
+     */
+    @PostMapping(consumes = SensorFrameDecoder.MEDIA_TYPE)
+    public ResponseEntity<BatchIngestResponse> ingestFrames(HttpServletRequest request) throws IOException {
+        return ResponseEntity.status(HttpStatus.CREATED).body(service.ingestFrames(request.getInputStream()));
     }
 }
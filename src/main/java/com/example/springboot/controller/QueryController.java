@@ -4,28 +4,40 @@ import com.example.springboot.bean.AggregateQueryParams;
 import com.example.springboot.bean.AggregateResponse;
 import com.example.springboot.exception.CustomException;
 import com.example.springboot.service.QueryService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /*
 This controller, accepts APIs to get aggregated readings form the system. There are separate parameters for filter and
 group by. There also is support for multiple group by clauses to get data in a flexible manner.
+An interval parameter returns the aggregates per time bucket, in a series shape.
+With Accept: application/x-ndjson the groups are written one per line as they are read, see QueryService.streamAggregates.
  */
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RestController
 @RequestMapping("/api/query")
 public class QueryController {
 
     private final QueryService service;
+    private final ObjectMapper objectMapper;
 
     private static final Logger log = LoggerFactory.getLogger(QueryController.class);
 
-    public QueryController(QueryService service) {
+    public QueryController(QueryService service, ObjectMapper objectMapper) {
         this.service = service;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping
@@ -33,8 +45,44 @@ public class QueryController {
 
         // All the basic validations are happening via the @Valid checks by Spring. If anything is invalid,
         // the Global exception handler will transform it into a standard error response
+        // The agg functions and orderBy are checked here so that an unknown one is a 400 before the query runs
+        params.functions();
+        params.order();
+        // With an interval, one series of buckets is returned per group instead of a single row
+        if (params.intervalDuration() != null) {
+            return ResponseEntity.ok(service.getSeries(params));
+        }
+
         List<AggregateResponse> result = service.getAggregates(params);
 
         return ResponseEntity.ok(result);
     }
+
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAggregates(@Valid AggregateQueryParams params) {
+
+        // Validated before the response starts, once the first line is written the status can no longer change
+        params.functions();
+        params.order();
+        if (params.intervalDuration() != null) {
+            service.validateSeries(params);
+        }
+
+        StreamingResponseBody body = out -> {
+            long groups = service.streamAggregates(params, group -> writeLine(out, group));
+            log.info("QueryController : streamed {} groups", groups);
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    private void writeLine(OutputStream out, Object group) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(group));
+            out.write('\n');
+        } catch (IOException e) {
+            // The client went away, stops the cursor
+            throw new UncheckedIOException(e);
+        }
+    }
 }
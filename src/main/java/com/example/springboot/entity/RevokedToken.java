@@ -0,0 +1,36 @@
+package com.example.springboot.entity;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/*
+The class that represents a revoked JWT token. Only the id of the token (its jti claim) is stored, never the token
+itself, with the expiration after which the signature check refuses the token anyway and the row can be deleted.
+ */
+@Entity
+@Table(name = "revoked_token")
+public class RevokedToken {
+
+    @Id
+    @Column(name = "token_id", length = 64)
+    private String tokenId;
+
+    // Null for a token without expiration, kept forever
+    @Column(name = "expires_at")
+    private Instant expiresAt;
+
+    public RevokedToken() {}
+
+    public RevokedToken(String tokenId, Instant expiresAt) {
+        this.tokenId = tokenId;
+        this.expiresAt = expiresAt;
+    }
+
+    // Getters and setters
+    public String getTokenId() { return tokenId; }
+    public void setTokenId(String tokenId) { this.tokenId = tokenId; }
+
+    public Instant getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(Instant expiresAt) { this.expiresAt = expiresAt; }
+}
@@ -1,6 +1,7 @@
 package com.example.springboot.entity;
 
 import com.example.springboot.bean.AggregateResponse;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import java.time.Instant;
@@ -11,14 +12,16 @@ Mandatory parameter validations are happening in the bean itself via @NotNull
 These exceptions are caught in the global exception handler.
 The timestamp is intentionally kept as mandatory as there can be network delays from producer (IOT device)
 to the consumer (Ingestion service)
+The dimensions (device id, device type, group id and metric) are not stored in this table. They are received from the
+devices in the transient fields below, resolved to a SensorSeries id by the SeriesDictionary during ingestion and only
+the series id is stored. A reading loaded from the database returns the dimensions of its series.
  */
 @Entity
 @Table(
         name = "sensor_reading",
         indexes = {
-                @Index(name = "idx_device_id_ts", columnList = "deviceId, ts"),
-                @Index(name = "idx_device_type_ts", columnList = "deviceType, ts"),
-                @Index(name = "idx_group_ts", columnList = "groupId, ts")
+                @Index(name = "idx_series_ts", columnList = "series_id, ts"),
+                @Index(name = "idx_ts", columnList = "ts")
         }
 )
 public class SensorReading {
@@ -26,24 +29,37 @@ public class SensorReading {
     // Marker interfaces for specific validations for ingestController and not the QueryController
     public interface Ingest {}
 
+    // A pooled sequence lets Hibernate hand out ids without a round trip per row, which keeps
+    // JDBC insert batching possible. IDENTITY forces Hibernate to execute every insert immediately.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sensor_reading_seq")
+    @SequenceGenerator(name = "sensor_reading_seq", sequenceName = "sensor_reading_seq", allocationSize = 500)
     private Long id;
 
+    @JsonIgnore
+    @Column(name = "series_id", nullable = false)
+    private Integer seriesId;
+
+    // Read only view of the series, used when the dimensions of a loaded reading are needed
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "series_id", insertable = false, updatable = false)
+    private SensorSeries series;
+
     @NotNull(groups = Ingest.class)
-    @Column(name = "device_id", nullable = false, length = 100)
+    @Transient
     private String deviceId;
 
     @NotNull(groups = Ingest.class)
-    @Column(name = "device_type", nullable = false, length = 100)
+    @Transient
     private String deviceType;
 
     @NotNull(groups = Ingest.class)
-    @Column(name = "group_id", nullable = false, length = 100)
+    @Transient
     private String groupId;
 
     @NotNull(groups = Ingest.class)
-    @Column(nullable = false, length = 100)
+    @Transient
     private String metric;
 
     @NotNull(groups = Ingest.class)
@@ -58,16 +74,21 @@ public class SensorReading {
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
 
-    public String getDeviceId() { return deviceId; }
+    public Integer getSeriesId() { return seriesId; }
+    public void setSeriesId(Integer seriesId) { this.seriesId = seriesId; }
+
+    public SensorSeries getSeries() { return series; }
+
+    public String getDeviceId() { return deviceId != null || series == null ? deviceId : series.getDeviceId(); }
     public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
 
-    public String getDeviceType() { return deviceType; }
+    public String getDeviceType() { return deviceType != null || series == null ? deviceType : series.getDeviceType(); }
     public void setDeviceType(String deviceType) { this.deviceType = deviceType; }
 
-    public String getGroupId() { return groupId; }
+    public String getGroupId() { return groupId != null || series == null ? groupId : series.getGroupId(); }
     public void setGroupId(String groupId) { this.groupId = groupId; }
 
-    public String getMetric() { return metric; }
+    public String getMetric() { return metric != null || series == null ? metric : series.getMetric(); }
     public void setMetric(String metric) { this.metric = metric; }
 
     public Double getReading() { return reading; }
@@ -0,0 +1,59 @@
+package com.example.springboot.entity;
+
+import jakarta.persistence.*;
+
+/*
+The class that represents the dimension table of the readings. Every distinct combination of device id, device type,
+group id and metric is stored once here with a small integer surrogate key. The sensor_reading rows only refer to it
+by series_id, which keeps the raw table and its indexes narrow no matter how long the dimension strings are.
+ */
+@Entity
+@Table(
+        name = "sensor_series",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_series_dimensions", columnNames = {"device_id", "device_type", "group_id", "metric"})
+        }
+)
+public class SensorSeries {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "device_id", nullable = false, length = 100)
+    private String deviceId;
+
+    @Column(name = "device_type", nullable = false, length = 100)
+    private String deviceType;
+
+    @Column(name = "group_id", nullable = false, length = 100)
+    private String groupId;
+
+    @Column(nullable = false, length = 100)
+    private String metric;
+
+    public SensorSeries() {}
+
+    public SensorSeries(String deviceId, String deviceType, String groupId, String metric) {
+        this.deviceId = deviceId;
+        this.deviceType = deviceType;
+        this.groupId = groupId;
+        this.metric = metric;
+    }
+
+    // Getters and setters
+    public Integer getId() { return id; }
+    public void setId(Integer id) { this.id = id; }
+
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+    public String getDeviceType() { return deviceType; }
+    public void setDeviceType(String deviceType) { this.deviceType = deviceType; }
+
+    public String getGroupId() { return groupId; }
+    public void setGroupId(String groupId) { this.groupId = groupId; }
+
+    public String getMetric() { return metric; }
+    public void setMetric(String metric) { this.metric = metric; }
+}
@@ -12,7 +12,8 @@ public class CustomException extends RuntimeException {
         VALIDATION_ERROR,
         NO_RECORDS_FOUND,
         MISSING_PARAMETER,
-        TYPE_MISMATCH
+        TYPE_MISMATCH,
+        INGEST_OVERLOADED
     }
 
     private final ErrorCode errorCode;
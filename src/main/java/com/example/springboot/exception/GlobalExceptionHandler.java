@@ -2,7 +2,9 @@ package com.example.springboot.exception;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -18,6 +20,7 @@ import java.util.stream.Collectors;
 This is a global exception handler. It catches manually thrown exceptions as well as exceptions thrown by Spring.
 It also converts the exception into a standard response containing error code and error message for standardisation of error responses.
 This makes sure that no internal stack traces are exposed in the response.
+The error responses are always JSON, even for a request accepting only application/x-ndjson (streamed queries).
  */
 @RestControllerAdvice
 public class GlobalExceptionHandler {
@@ -38,7 +41,7 @@ public class GlobalExceptionHandler {
                         fe -> fe.getDefaultMessage()
                 ));
 
-        return ResponseEntity.badRequest().body(Map.of(
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(Map.of(
                 "errorCode", CustomException.ErrorCode.VALIDATION_ERROR,
                 "errors", errors
         ));
@@ -50,7 +53,7 @@ public class GlobalExceptionHandler {
 
         log.info("GlobalExceptionHandler : MethodArgumentTypeMismatchException caught");
 
-        return ResponseEntity.badRequest().body(Map.of(
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(Map.of(
                 "errorCode", CustomException.ErrorCode.TYPE_MISMATCH,
                 "message", String.format("Parameter '%s' has invalid value '%s'",
                         ex.getName(), ex.getValue())
@@ -63,7 +66,7 @@ public class GlobalExceptionHandler {
 
         log.info("GlobalExceptionHandler : MissingServletRequestParameterException caught");
 
-        return ResponseEntity.badRequest().body(Map.of(
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(Map.of(
                 "errorCode", CustomException.ErrorCode.MISSING_PARAMETER,
                 "message", String.format("Required parameter '%s' is missing", ex.getParameterName())
         ));
@@ -74,7 +77,7 @@ public class GlobalExceptionHandler {
 
         log.info("GlobalExceptionHandler : handleInvalidFormat caught");
 
-        return ResponseEntity.badRequest().body(Map.of(
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(Map.of(
                 "errorCode", CustomException.ErrorCode.VALIDATION_ERROR,
                 "message", String.format("Invalid value for field")
         ));
@@ -90,10 +93,19 @@ public class GlobalExceptionHandler {
 
         if(ex.getErrorCode() == CustomException.ErrorCode.NO_RECORDS_FOUND)
             httpStatus = HttpStatus.NO_CONTENT;
+        else if(ex.getErrorCode() == CustomException.ErrorCode.INGEST_OVERLOADED)
+            httpStatus = HttpStatus.SERVICE_UNAVAILABLE;
         else
             httpStatus = HttpStatus.BAD_REQUEST;
 
-        return ResponseEntity.status(httpStatus).body(Map.of(
+        // Ask clients that are being pushed back to retry after a second
+        if(httpStatus == HttpStatus.SERVICE_UNAVAILABLE)
+            return ResponseEntity.status(httpStatus).header(HttpHeaders.RETRY_AFTER, "1").contentType(MediaType.APPLICATION_JSON).body(Map.of(
+                    "errorCode", ex.getErrorCode(),
+                    "message", ex.getMessage()
+            ));
+
+        return ResponseEntity.status(httpStatus).contentType(MediaType.APPLICATION_JSON).body(Map.of(
                 "errorCode", ex.getErrorCode(),
                 "message", ex.getMessage()
         ));
@@ -109,7 +121,7 @@ public class GlobalExceptionHandler {
         ex.printStackTrace();
 
         // Hide technical details to the API interface
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.APPLICATION_JSON).body(Map.of(
                 "errorCode", "INTERNAL_ERROR",
                 "message", "Something went wrong. Please try again later."
         ));
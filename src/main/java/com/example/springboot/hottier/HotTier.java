@@ -0,0 +1,261 @@
+package com.example.springboot.hottier;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.config.HotTierProperties;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.ingest.IngestListener;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+In-memory hot tier holding the readings of the last hot-tier.window for every series. The points of a series are kept
+in fixed size chunks of two primitive arrays, epoch microseconds in a long[] and readings in a double[], so a point
+costs 16 bytes and no object. Each chunk also tracks its min and max timestamp so that a scan skips the chunks outside
+the range of a query, and eviction drops whole chunks once their newest point is older than the window.
+The tier is filled as an IngestListener, so it only knows the readings saved since startup. covers(from) tells whether
+a query can be answered from memory: from must be inside the window and after the start of the application.
+ */
+@Component
+public class HotTier implements IngestListener {
+
+    private final HotTierProperties properties;
+    private final Map<Integer, SeriesBuffer> series = new ConcurrentHashMap<>();
+    private final Instant startedAt = Instant.now().truncatedTo(ChronoUnit.MICROS);
+
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+
+    private ScheduledExecutorService evictionExecutor;
+
+    private static final Logger log = LoggerFactory.getLogger(HotTier.class);
+
+    public HotTier(HotTierProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        Gauge.builder("hot.tier.series", series, Map::size)
+                .description("Series with readings in the hot tier")
+                .register(meterRegistry);
+        Gauge.builder("hot.tier.points", points, AtomicLong::get)
+                .description("Readings held by the hot tier")
+                .register(meterRegistry);
+        Gauge.builder("hot.tier.chunks", chunks, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("hot.tier.bytes", this, HotTier::getEstimatedBytes)
+                .description("Estimated heap used by the hot tier chunks")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        long interval = properties.getEvictionInterval().toMillis();
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-tier-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictionExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                evict(Instant.now());
+            } catch (RuntimeException e) {
+                log.error("HotTier : eviction failed", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+
+        log.info("HotTier : keeping the last {} of readings in memory", properties.getWindow());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    // Readings with ts at or after this instant are all held by the tier
+    public Instant getCoverageStart() {
+        Instant windowStart = Instant.now().minus(properties.getWindow());
+        return windowStart.isAfter(startedAt) ? windowStart : startedAt;
+    }
+
+    public boolean covers(Instant from) {
+        return properties.isEnabled() && !from.isBefore(getCoverageStart());
+    }
+
+    @Override
+    public void onSaved(List<SensorReading> readings) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        // Older readings are in the database only, the tier never answers for that period
+        long coverageStart = toMicros(getCoverageStart());
+        for (SensorReading reading : readings) {
+            long ts = toMicros(reading.getTs());
+            if (ts >= coverageStart) {
+                // compute keeps the append atomic with the removal of empty series by evict
+                series.compute(reading.getSeriesId(), (id, buffer) -> {
+                    SeriesBuffer target = buffer != null ? buffer : new SeriesBuffer();
+                    target.append(ts, reading.getReading());
+                    return target;
+                });
+            }
+        }
+    }
+
+    /*
+    Aggregates the points with from <= ts <= to per series. A null seriesIds means all series. The timestamps are always
+    at hand here, so first and last are always tracked.
+     */
+    public Map<Integer, PartialAggregate> aggregate(Instant from, Instant to, Collection<Integer> seriesIds, ScanOptions options) {
+
+        long fromMicros = toMicros(from);
+        long toMicros = toMicros(to);
+
+        Map<Integer, PartialAggregate> partials = new HashMap<>();
+        if (seriesIds == null) {
+            series.forEach((id, buffer) -> buffer.aggregate(fromMicros, toMicros, id, options.exact(), partials));
+        } else {
+            for (Integer id : seriesIds) {
+                SeriesBuffer buffer = series.get(id);
+                if (buffer != null) {
+                    buffer.aggregate(fromMicros, toMicros, id, options.exact(), partials);
+                }
+            }
+        }
+        return partials;
+    }
+
+    // Drops the chunks whose newest point is older than now - window, returns the number of points evicted
+    public long evict(Instant now) {
+        long cutoff = toMicros(now.minus(properties.getWindow()));
+        AtomicLong evicted = new AtomicLong();
+        for (Integer id : series.keySet()) {
+            // Series without points are removed, a new buffer is created if they report again
+            series.computeIfPresent(id, (key, buffer) -> {
+                evicted.addAndGet(buffer.evictBefore(cutoff));
+                return buffer.isEmpty() ? null : buffer;
+            });
+        }
+        return evicted.get();
+    }
+
+    public long getPoints() {
+        return points.get();
+    }
+
+    public double getEstimatedBytes() {
+        // Two arrays per chunk plus the chunk object and array headers
+        return chunks.get() * ((long) properties.getChunkSize() * 16 + 64);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (evictionExecutor != null) {
+            evictionExecutor.shutdownNow();
+        }
+    }
+
+    private static long toMicros(Instant instant) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+    }
+
+    /*
+    The chunks of one series, oldest first. Only the last chunk is appended to. Points are not sorted, readings of a
+    device can arrive out of order.
+     */
+    private final class SeriesBuffer {
+
+        private final List<Chunk> chunkList = new ArrayList<>();
+
+        synchronized void append(long ts, double value) {
+            Chunk last = chunkList.isEmpty() ? null : chunkList.get(chunkList.size() - 1);
+            if (last == null || last.size == last.ts.length) {
+                last = new Chunk(properties.getChunkSize());
+                chunkList.add(last);
+                chunks.incrementAndGet();
+            }
+            last.append(ts, value);
+            points.incrementAndGet();
+        }
+
+        synchronized void aggregate(long from, long to, int seriesId, boolean exact, Map<Integer, PartialAggregate> partials) {
+            PartialAggregate partial = null;
+            for (Chunk chunk : chunkList) {
+                if (chunk.maxTs < from || chunk.minTs > to) {
+                    continue;
+                }
+                for (int i = 0; i < chunk.size; i++) {
+                    long ts = chunk.ts[i];
+                    if (ts >= from && ts <= to) {
+                        if (partial == null) {
+                            partial = partials.computeIfAbsent(seriesId, id -> new PartialAggregate(exact));
+                        }
+                        partial.add(ts, chunk.values[i]);
+                    }
+                }
+            }
+        }
+
+        synchronized long evictBefore(long cutoff) {
+            long evicted = 0;
+            for (Iterator<Chunk> it = chunkList.iterator(); it.hasNext(); ) {
+                Chunk chunk = it.next();
+                if (chunk.maxTs < cutoff) {
+                    it.remove();
+                    evicted += chunk.size;
+                    chunks.decrementAndGet();
+                }
+            }
+            points.addAndGet(-evicted);
+            return evicted;
+        }
+
+        synchronized boolean isEmpty() {
+            return chunkList.isEmpty();
+        }
+    }
+
+    private static final class Chunk {
+
+        private final long[] ts;
+        private final double[] values;
+        private int size;
+        private long minTs = Long.MAX_VALUE;
+        private long maxTs = Long.MIN_VALUE;
+
+        Chunk(int capacity) {
+            this.ts = new long[capacity];
+            this.values = new double[capacity];
+        }
+
+        void append(long timestamp, double value) {
+            ts[size] = timestamp;
+            values[size] = value;
+            size++;
+            minTs = Math.min(minTs, timestamp);
+            maxTs = Math.max(maxTs, timestamp);
+        }
+    }
+}
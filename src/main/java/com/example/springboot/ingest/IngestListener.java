@@ -0,0 +1,15 @@
+package com.example.springboot.ingest;
+
+import com.example.springboot.entity.SensorReading;
+
+import java.util.List;
+
+/*
+Extension point for components that derive data from the ingested readings (rollups, caches, ...). The IngestService
+calls every IngestListener bean after a set of readings is committed, on the thread that saved them, with the series
+ids already resolved. A failing listener is logged and does not fail the ingestion, the readings are already saved.
+ */
+public interface IngestListener {
+
+    void onSaved(List<SensorReading> readings);
+}
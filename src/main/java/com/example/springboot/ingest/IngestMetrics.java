@@ -0,0 +1,29 @@
+package com.example.springboot.ingest;
+
+import com.example.springboot.entity.SensorReading;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/*
+Counts the committed readings into ingest.rows, whichever API or writer saved them. The monitoring system derives the
+rows per second from the rate of the counter.
+ */
+@Component
+public class IngestMetrics implements IngestListener {
+
+    private final Counter rows;
+
+    public IngestMetrics(MeterRegistry meterRegistry) {
+        this.rows = Counter.builder("ingest.rows")
+                .description("Readings committed")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void onSaved(List<SensorReading> readings) {
+        rows.increment(readings.size());
+    }
+}
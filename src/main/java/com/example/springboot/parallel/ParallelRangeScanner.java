@@ -0,0 +1,147 @@
+package com.example.springboot.parallel;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.RangeScan;
+import com.example.springboot.config.ParallelQueryProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Runs the raw scan of a long range as several scans of consecutive sub-ranges at the same time, and merges their per
+series partial aggregates. The readings are indexed on (series_id, ts), so every sub-range reads its own slice of the
+index for each series and no row is read twice. The scans run on an executor of query.parallel.threads threads shared
+by all queries and each of them borrows its own connection from the pool. The request thread must not hold a
+connection while it waits for them, otherwise a few concurrent queries could take the whole pool and leave their
+sub-ranges waiting for a connection until they time out: the QueryService does not start a transaction for the
+queries, and a range is never split inside one. When the queue is full, the request thread scans the sub-range
+itself instead of waiting. A query whose aggregates can be computed in SQL is split into SQL aggregates per
+sub-range (see RawScan), a split never turns them into a scan of every row.
+A query is split into its parallelism parameter (query.parallel.parallelism by default) sub-ranges, capped by the
+number of threads, and never into sub-ranges shorter than query.parallel.min-range.
+ */
+@Component
+public class ParallelRangeScanner {
+
+    private final ParallelQueryProperties properties;
+    private ThreadPoolExecutor executor;
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelRangeScanner.class);
+
+    public ParallelRangeScanner(ParallelQueryProperties properties) {
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(), 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(properties.getQueueCapacity()), r -> {
+                    Thread thread = new Thread(r, "query-range-" + threads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        log.info("ParallelRangeScanner : scanning query ranges on {} threads", properties.getThreads());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    // Whether a query over [from, to] with the given parallelism parameter is split at all
+    public boolean splits(Instant from, Instant to, Integer parallelism) {
+        return split(from, to, parallelism(parallelism), properties.getMinRange()).size() > 1;
+    }
+
+    /*
+    Aggregates [from, to] by running the scan over each sub-range in parallel. A range that is not split, or a call
+    from inside a transaction, is scanned by the calling thread in one piece. A failure of any sub-range fails the
+    whole query.
+     */
+    public Map<Integer, PartialAggregate> aggregate(Instant from, Instant to, Integer parallelism,
+                                                    RangeScan scan) {
+
+        // A caller inside a transaction would hold its connection while the sub-ranges wait for theirs
+        List<Instant[]> ranges = split(from, to, parallelism(parallelism), properties.getMinRange());
+        if (ranges.size() == 1 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return scan.aggregate(from, to);
+        }
+
+        List<CompletableFuture<Map<Integer, PartialAggregate>>> futures = new ArrayList<>(ranges.size());
+        for (Instant[] range : ranges) {
+            futures.add(CompletableFuture.supplyAsync(() -> scan.aggregate(range[0], range[1]), executor));
+        }
+
+        Map<Integer, PartialAggregate> bySeries = new HashMap<>();
+        try {
+            for (CompletableFuture<Map<Integer, PartialAggregate>> future : futures) {
+                future.join().forEach((seriesId, partial) -> bySeries.merge(seriesId, partial, PartialAggregate::merge));
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return bySeries;
+    }
+
+    // Number of sub-ranges for the parallelism parameter of a query, 1 when disabled
+    public int parallelism(Integer requested) {
+        if (!properties.isEnabled()) {
+            return 1;
+        }
+        int parallelism = requested != null ? requested : properties.getParallelism();
+        return Math.max(1, Math.min(parallelism, properties.getThreads()));
+    }
+
+    /*
+    Splits the inclusive range [from, to] into at most parts consecutive inclusive sub-ranges of equal length (the last
+    one may be shorter), and into fewer of them when they would be shorter than minRange. Timestamps are stored with microsecond precision, so a sub-range ends 1 microsecond
+    before the next one starts.
+     */
+    public static List<Instant[]> split(Instant from, Instant to, int parts, Duration minRange) {
+
+        long length = ChronoUnit.MICROS.between(from, to) + 1;
+        long minLength = Math.max(1, minRange.toNanos() / 1000);
+        int count = (int) Math.max(1, Math.min(parts, length / minLength));
+
+        List<Instant[]> ranges = new ArrayList<>(count);
+        long step = (length + count - 1) / count;
+        for (long offset = 0; offset < length; offset += step) {
+            Instant start = from.plus(offset, ChronoUnit.MICROS);
+            Instant end = offset + step >= length ? to : from.plus(offset + step - 1, ChronoUnit.MICROS);
+            ranges.add(new Instant[]{start, end});
+        }
+        return ranges;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.springboot.partition;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.RawScan;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.config.PartitioningProperties;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import com.example.springboot.shard.SensorRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+Time partitioned storage of the readings in the main datasource, used instead of the sensor_reading table when
+storage.partitioning.enabled is true. The IngestService saves through it and SensorReadingRepositoryImpl asks it for
+the partitions overlapping the range of a query. When retention is configured, a background thread drops the expired
+partitions here and in every shard, then notifies the RetentionListeners.
+It also scans the raw readings of the main datasource into per series partial aggregates, from sensor_reading when
+partitioning is disabled.
+ */
+@Component
+public class PartitionedReadingStore {
+
+    private final PartitioningProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SensorReadingRepositoryFactory shards;
+    private final int batchSize;
+    private final ObjectProvider<RetentionListener> retentionListeners;
+
+    private TimePartitions partitions;
+    private ScheduledExecutorService retentionExecutor;
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedReadingStore.class);
+
+    public PartitionedReadingStore(PartitioningProperties properties, JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager, SensorReadingRepositoryFactory shards,
+                                   @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}") int batchSize,
+                                   ObjectProvider<RetentionListener> retentionListeners) {
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shards = shards;
+        this.batchSize = batchSize;
+        this.retentionListeners = retentionListeners;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        partitions = new TimePartitions(jdbcTemplate, properties.getGranularity());
+
+        long interval = properties.getRetentionCheckInterval().toMillis();
+        if (!properties.getRetention().isZero()) {
+            retentionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "partition-retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+            retentionExecutor.scheduleWithFixedDelay(this::safeDropExpired, 0, interval, TimeUnit.MILLISECONDS);
+        }
+
+        log.info("PartitionedReadingStore : {} partitions, retention {}", properties.getGranularity(), properties.getRetention());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /*
+    Saves the readings in one transaction. Missing partitions are created before the transaction starts.
+     */
+    public int save(List<SensorReading> readings) {
+
+        Map<String, List<SensorReading>> byTable = partitions.assign(readings);
+        transactionTemplate.executeWithoutResult(status -> partitions.insert(byTable, batchSize));
+        return readings.size();
+    }
+
+    public List<String> tablesOverlapping(Instant from, Instant to) {
+        return partitions == null ? Collections.emptyList() : partitions.tablesOverlapping(from, to);
+    }
+
+    // Aggregates the readings with from <= ts <= to per series, reading only the partitions overlapping the range
+    public Map<Integer, PartialAggregate> aggregate(Instant from, Instant to, Collection<Integer> seriesIds, ScanOptions options) {
+        List<String> tables = partitions != null ? partitions.tablesOverlapping(from, to) : List.of("sensor_reading");
+        return RawScan.aggregate(jdbcTemplate, tables, from, to, seriesIds, options);
+    }
+
+    // Same as aggregate, split into epoch aligned buckets of the given size keyed by their start
+    public Map<Instant, Map<Integer, PartialAggregate>> aggregateBuckets(Instant from, Instant to, Collection<Integer> seriesIds,
+                                                                         ScanOptions options, Duration bucket) {
+        List<String> tables = partitions != null ? partitions.tablesOverlapping(from, to) : List.of("sensor_reading");
+        return RawScan.aggregateBuckets(jdbcTemplate, tables, from, to, seriesIds, options, bucket);
+    }
+
+    // The range of the readings of the main datasource, null when there are none
+    public RawScan.TimeRange timeRange() {
+        List<String> tables = partitions != null ? partitions.tablesOverlapping(Instant.MIN, Instant.MAX) : List.of("sensor_reading");
+        return RawScan.timeRange(jdbcTemplate, tables);
+    }
+
+    public TimePartitions getPartitions() {
+        return partitions;
+    }
+
+    // Drops the partitions that ended before now - retention, returns the number of partitions dropped
+    public int dropExpired() {
+
+        Instant cutoff = Instant.now().minus(properties.getRetention());
+        int dropped = partitions.dropBefore(cutoff);
+        if (shards.isEnabled()) {
+            for (SensorRepository shard : shards.getRepositories()) {
+                dropped += shard.dropPartitionsBefore(cutoff);
+            }
+        }
+        if (dropped > 0) {
+            notifyListeners(cutoff);
+        }
+        return dropped;
+    }
+
+    // Listed lazily, the listeners may depend on this store. A failing listener does not skip the next ones
+    private void notifyListeners(Instant cutoff) {
+        retentionListeners.orderedStream().forEach(listener -> {
+            try {
+                listener.onDropped(cutoff);
+            } catch (RuntimeException e) {
+                log.error("PartitionedReadingStore : retention listener {} failed", listener.getClass().getSimpleName(), e);
+            }
+        });
+    }
+
+    // A failure must not cancel the next runs of the scheduled task
+    private void safeDropExpired() {
+        try {
+            int dropped = dropExpired();
+            if (dropped > 0) {
+                log.info("PartitionedReadingStore : {} expired partitions dropped", dropped);
+            }
+        } catch (RuntimeException e) {
+            log.error("PartitionedReadingStore : dropping expired partitions failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (retentionExecutor != null) {
+            retentionExecutor.shutdownNow();
+        }
+    }
+}
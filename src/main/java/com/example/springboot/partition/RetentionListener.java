@@ -0,0 +1,13 @@
+package com.example.springboot.partition;
+
+import java.time.Instant;
+
+/*
+Extension point for components that derive data from the stored readings (rollups, caches, ...) and must forget what
+the retention dropped. The PartitionedReadingStore calls every RetentionListener bean on its retention thread after
+partitions were dropped, here or in a shard. Readings before the cutoff may be gone, the ones after it are kept.
+ */
+public interface RetentionListener {
+
+    void onDropped(Instant cutoff);
+}
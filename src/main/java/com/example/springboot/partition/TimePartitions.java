@@ -0,0 +1,204 @@
+package com.example.springboot.partition;
+
+import com.example.springboot.config.PartitioningProperties.Granularity;
+import com.example.springboot.entity.SensorReading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+The set of time partition tables of the readings in one database. A partition holds the readings with
+start <= ts < end, where the range is one UTC hour or day, and is named after its start, e.g. sensor_reading_p20240101
+for a day. Tables are created the first time a reading falls in their range and the existing ones are found again
+from the information schema on startup, so partitions of another granularity stay readable after a config change.
+DDL commits the current transaction in H2, so partitions are always created before the transaction saving the
+readings starts (see assign).
+ */
+public class TimePartitions {
+
+    public record Partition(String table, Instant start, Instant end) {}
+
+    private static final String PREFIX = "sensor_reading_p";
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter HOUR = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Granularity granularity;
+
+    // Keyed by partition start
+    private final ConcurrentSkipListMap<Instant, Partition> partitions = new ConcurrentSkipListMap<>();
+
+    // Serializes the DDL. Not synchronized, which would pin the carrier of a virtual thread for the whole statement
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private static final Logger log = LoggerFactory.getLogger(TimePartitions.class);
+
+    public TimePartitions(JdbcTemplate jdbcTemplate, Granularity granularity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.granularity = granularity;
+        load();
+    }
+
+    private void load() {
+        List<String> tables = jdbcTemplate.queryForList(
+                "SELECT LOWER(TABLE_NAME) FROM INFORMATION_SCHEMA.TABLES WHERE LOWER(TABLE_NAME) LIKE '" + PREFIX + "%'",
+                String.class);
+        for (String table : tables) {
+            Partition partition = parse(table);
+            if (partition != null) {
+                partitions.put(partition.start(), partition);
+            }
+        }
+        log.info("TimePartitions : {} existing partitions found", partitions.size());
+    }
+
+    private static Partition parse(String table) {
+        String suffix = table.substring(PREFIX.length());
+        try {
+            if (suffix.length() == 8) {
+                Instant start = LocalDate.parse(suffix, DAY).atStartOfDay().toInstant(ZoneOffset.UTC);
+                return new Partition(table, start, start.plus(1, ChronoUnit.DAYS));
+            }
+            if (suffix.length() == 10) {
+                Instant start = LocalDateTime.parse(suffix, HOUR).toInstant(ZoneOffset.UTC);
+                return new Partition(table, start, start.plus(1, ChronoUnit.HOURS));
+            }
+        } catch (RuntimeException e) {
+            log.warn("TimePartitions : ignoring table {} with an unexpected name", table);
+        }
+        return null;
+    }
+
+    /*
+    Groups the readings by the partition they belong to, creating the missing partitions.
+     */
+    public Map<String, List<SensorReading>> assign(Collection<SensorReading> readings) {
+        Map<String, List<SensorReading>> byTable = new LinkedHashMap<>();
+        for (SensorReading reading : readings) {
+            byTable.computeIfAbsent(partitionFor(reading.getTs()).table(), t -> new ArrayList<>()).add(reading);
+        }
+        return byTable;
+    }
+
+    // Inserts readings grouped by assign. Runs in the caller's transaction
+    public void insert(Map<String, List<SensorReading>> byTable, int batchSize) {
+        byTable.forEach((table, readings) -> jdbcTemplate.batchUpdate(
+                "INSERT INTO " + table + " (series_id, ts, reading) VALUES (?, ?, ?)", readings, batchSize,
+                (ps, reading) -> {
+                    ps.setInt(1, reading.getSeriesId());
+                    ps.setObject(2, reading.getTs().atOffset(ZoneOffset.UTC));
+                    ps.setDouble(3, reading.getReading());
+                }));
+    }
+
+    public Partition partitionFor(Instant ts) {
+        Partition existing = covering(ts);
+        return existing != null ? existing : create(ts);
+    }
+
+    private Partition covering(Instant ts) {
+        Map.Entry<Instant, Partition> floor = partitions.floorEntry(ts);
+        return floor != null && floor.getValue().end().isAfter(ts) ? floor.getValue() : null;
+    }
+
+    private Partition create(Instant ts) {
+        lock.lock();
+        try {
+            // Another thread may have created it while this one was waiting
+            Partition existing = covering(ts);
+            if (existing != null) {
+                return existing;
+            }
+
+            Granularity size = granularity;
+            Instant start = truncate(ts, size);
+            Instant end = start.plus(1, unit(size));
+
+            // After a switch from hourly to daily partitions, the day may already hold hourly partitions. Keep using hourly
+            // partitions for that day so that the ranges never overlap
+            Map.Entry<Instant, Partition> next = partitions.ceilingEntry(start);
+            if (next != null && next.getKey().isBefore(end)) {
+                size = Granularity.HOUR;
+                start = truncate(ts, size);
+                end = start.plus(1, unit(size));
+            }
+
+            LocalDateTime utc = LocalDateTime.ofInstant(start, ZoneOffset.UTC);
+            String table = PREFIX + (size == Granularity.DAY ? DAY.format(utc) : HOUR.format(utc));
+
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                    + "series_id INTEGER NOT NULL, "
+                    + "ts TIMESTAMP(6) WITH TIME ZONE NOT NULL, "
+                    + "reading DOUBLE PRECISION NOT NULL)");
+            // Index names are unique per schema in H2
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_series_ts ON " + table + " (series_id, ts)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_ts ON " + table + " (ts)");
+
+            Partition partition = new Partition(table, start, end);
+            partitions.put(start, partition);
+            log.info("TimePartitions : partition {} created", table);
+            return partition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ChronoUnit unit(Granularity granularity) {
+        return granularity == Granularity.DAY ? ChronoUnit.DAYS : ChronoUnit.HOURS;
+    }
+
+    private static Instant truncate(Instant ts, Granularity granularity) {
+        return ts.truncatedTo(unit(granularity));
+    }
+
+    // Returns the tables of the partitions overlapping [from, to], oldest first
+    public List<String> tablesOverlapping(Instant from, Instant to) {
+        List<String> tables = new ArrayList<>();
+        for (Partition partition : partitions.headMap(to, true).values()) {
+            if (partition.end().isAfter(from)) {
+                tables.add(partition.table());
+            }
+        }
+        return tables;
+    }
+
+    /*
+    Drops every partition that ends at or before the cutoff. Dropping a table is a metadata operation, unlike a
+    DELETE of the same rows.
+     */
+    public int dropBefore(Instant cutoff) {
+        lock.lock();
+        try {
+            int dropped = 0;
+            for (Partition partition : new ArrayList<>(partitions.headMap(cutoff).values())) {
+                if (!partition.end().isAfter(cutoff)) {
+                    jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition.table());
+                    partitions.remove(partition.start());
+                    dropped++;
+                    log.info("TimePartitions : partition {} dropped", partition.table());
+                }
+            }
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Collection<Partition> getPartitions() {
+        return partitions.values();
+    }
+}
@@ -25,13 +25,13 @@ public interface SensorReadingRepository extends JpaRepository<SensorReading, Lo
     //List<SensorReading> findByGroupIdAndTsBetween(String groupId, Instant start, Instant end);
 
     // Aggregate queries (example: avg, min, max) using JPQL
-    @Query("SELECT AVG(r.reading) FROM SensorReading r WHERE r.deviceId = :deviceId AND r.ts BETWEEN :start AND :end")
+    @Query("SELECT AVG(r.reading) FROM SensorReading r WHERE r.series.deviceId = :deviceId AND r.ts BETWEEN :start AND :end")
     Double findAvgValueByDeviceId(String deviceId, Instant start, Instant end);
 
-    @Query("SELECT MIN(r.reading) FROM SensorReading r WHERE r.deviceId = :deviceId AND r.ts BETWEEN :start AND :end")
+    @Query("SELECT MIN(r.reading) FROM SensorReading r WHERE r.series.deviceId = :deviceId AND r.ts BETWEEN :start AND :end")
     Double findMinValueByDeviceId(String deviceId, Instant start, Instant end);
 
-    @Query("SELECT MAX(r.reading) FROM SensorReading r WHERE r.deviceId = :deviceId AND r.ts BETWEEN :start AND :end")
+    @Query("SELECT MAX(r.reading) FROM SensorReading r WHERE r.series.deviceId = :deviceId AND r.ts BETWEEN :start AND :end")
     Double findMaxValueByDeviceId(String deviceId, Instant start, Instant end);
 
     @Query(value = """
@@ -48,7 +48,7 @@ public interface SensorReadingRepository extends JpaRepository<SensorReading, Lo
         MIN(reading) AS minValue,
         MAX(reading) AS maxValue,
         COUNT(*) AS countValue
-    FROM SENSOR_READING
+    FROM SENSOR_READING r JOIN SENSOR_SERIES s ON s.id = r.series_id
     WHERE ((:deviceId IS NULL OR :deviceId = '') OR device_id = :deviceId)
       AND ((:deviceType IS NULL OR :deviceType = '') OR device_type = :deviceType)
       AND ((:groupId IS NULL OR :groupId = '') OR group_id = :groupId)
@@ -6,7 +6,10 @@ import com.example.springboot.entity.SensorReading;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface SensorReadingRepositoryCustom {
     public List<AggregateResponse> getDynamicAggregates(AggregateQueryParams params);
+
+    public long streamDynamicAggregates(AggregateQueryParams params, Consumer<AggregateResponse> consumer);
 }
@@ -1,20 +1,39 @@
 package com.example.springboot.repository;
 
+import com.example.springboot.bean.AggregateFunction;
 import com.example.springboot.bean.AggregateQueryParams;
 import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.GroupOrder;
 import com.example.springboot.controller.QueryController;
 import com.example.springboot.entity.SensorReading;
+import com.example.springboot.partition.PartitionedReadingStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import jakarta.persistence.EntityManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.sql.PreparedStatement;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /*
 I wanted to add a custom dynamically built SQL. So I implemented this interface containing the
@@ -27,91 +46,424 @@ public class SensorReadingRepositoryImpl implements SensorReadingRepositoryCusto
 
     private static final Logger log = LoggerFactory.getLogger(SensorReadingRepositoryImpl.class);
 
+    @Autowired
+    private SeriesDictionary seriesDictionary;
+
+    @Autowired
+    private PartitionedReadingStore partitionedStore;
+
+    // Joins the JPA transaction of the caller, if any
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Readings aggregated by each query, the sum of the counts of all its groups, including those outside of the page.
+    // A page past the last group reads no row and records 0
+    private DistributionSummary rowsScanned;
+    private Counter planHits;
+    private Counter planMisses;
+
+    // Series label columns, in deviceId, deviceType, groupId, metric order
+    private static final String[] SQL_LABELS = {"s.device_id", "s.device_type", "s.group_id", "s.metric"};
+
+    // SELECT column of each aggregate function that is pushed down to SQL, in the order of AggregateFunction
+    private static final Map<AggregateFunction, String> SQL_FUNCTIONS = new EnumMap<>(Map.of(
+            AggregateFunction.SUM, "SUM(sr.reading) as sumValue",
+            AggregateFunction.AVG, "AVG(sr.reading) as avgValue",
+            AggregateFunction.MIN, "MIN(sr.reading) as minValue",
+            AggregateFunction.MAX, "MAX(sr.reading) as maxValue",
+            AggregateFunction.STDDEV, "STDDEV_SAMP(sr.reading) as stddevValue",
+            AggregateFunction.MEDIAN, "MEDIAN(sr.reading) as medianValue"));
+
+    // ORDER BY expression of each function the groups can be ordered on, see GroupOrder
+    private static final Map<AggregateFunction, String> ORDER_EXPRESSIONS = new EnumMap<>(Map.of(
+            AggregateFunction.COUNT, "countValue",
+            AggregateFunction.SUM, "SUM(sr.reading)",
+            AggregateFunction.AVG, "AVG(sr.reading)",
+            AggregateFunction.MIN, "MIN(sr.reading)",
+            AggregateFunction.MAX, "MAX(sr.reading)",
+            AggregateFunction.STDDEV, "STDDEV_SAMP(sr.reading)",
+            AggregateFunction.MEDIAN, "MEDIAN(sr.reading)"));
+
+    @PostConstruct
+    void registerMeters() {
+        rowsScanned = DistributionSummary.builder("query.rows.scanned").tag("source", "sql")
+                .description("Readings read per scan of a query")
+                .register(meterRegistry);
+        planHits = Counter.builder("query.plans").tag("result", "hit")
+                .description("Dynamic aggregate queries that found the plan of their shape cached").register(meterRegistry);
+        planMisses = Counter.builder("query.plans").tag("result", "miss")
+                .description("Dynamic aggregate queries that had to plan their shape").register(meterRegistry);
+    }
+
+    /*
+    Everything the SQL text of a query depends on. The group by and label filter flags are bit masks over the label
+    columns, in SQL_LABELS order. partitions is the number of partitions read, 0 unless time partitioning is enabled.
+    The range, the series ids, the label values and the page are bound as parameters and the partition tables are
+    substituted per query, so all the queries of a shape share a single plan, even as their range moves over the
+    partitions.
+     */
+    private record QueryShape(int groupBy, boolean seriesIdFilter, int labelFilters, Set<AggregateFunction> functions,
+                              List<String> percentileLabels, List<Double> percentiles, Duration interval,
+                              GroupOrder order, boolean limited, int partitions) {}
+
     /*
-    Generate a dynamic SQL to handle custom aggregates using conditional grouping based on criteria
+    The SQL of a shape, split where the partition tables go, and the mapping of its rows. totalColumn holds the
+    readings of all the groups of a paged query, it is 0 for interval queries.
+     */
+    private record QueryPlan(List<String> sql, RowMapper<AggregateResponse> mapper, int totalColumn) {
+
+        // The SQL reading the given tables, one per partition of the shape
+        String sql(List<String> tables) {
+            StringBuilder text = new StringBuilder(sql.get(0));
+            for (int i = 0; i < tables.size(); i++) {
+                text.append(tables.get(i)).append(sql.get(i + 1));
+            }
+            return text.toString();
+        }
+    }
+
+    // Stands for a partition table in the SQL built for a shape
+    private static final String PARTITION = "{partition}";
+
+    // A plan, its SQL and the parameters to run it with
+    private record BoundQuery(QueryPlan plan, String sql, Object[] args) {}
+
+    // Rows fetched per round trip by the streaming cursor
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    // Above this many matching series the filters are applied on the joined sensor_series columns instead of an id list
+    private static final int MAX_SERIES_IN_LIST = 1000;
+
+    // Plenty for the shapes clients actually send, arbitrary percentiles and intervals are what this bounds
+    private static final int MAX_PLANS = 1024;
+
+    // Access ordered, the least recently used shapes are dropped first. Guarded by itself
+    private final Map<QueryShape, QueryPlan> plans = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<QueryShape, QueryPlan> eldest) {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    /*
+    Generate a dynamic SQL to handle custom aggregates using conditional grouping based on criteria.
+    The filters are first resolved to series ids using the in memory SeriesDictionary, so the query only has to match
+    sr.series_id against the idx_series_ts index. sensor_series is joined only when its labels are needed for grouping.
+    With time partitioning enabled the query reads the UNION ALL of the partitions overlapping [from, to] only, the
+    other partitions are never read.
+    Only the aggregate functions requested in agg are selected, e.g. MEDIAN is not computed unless asked for. COUNT is
+    always selected as the query is sorted on it. Requested percentiles are computed exactly with PERCENTILE_CONT.
+    first and last have no SQL aggregate here, the QueryService computes them from a scan instead.
+    With an interval, the start of the time bucket (epoch seconds, floored to the interval) is added to the GROUP BY and
+    every returned row carries its bucket. The rows are then sorted by bucket instead of count.
+    Otherwise the groups are sorted on orderBy (count by default) with the group columns breaking ties, and limit and
+    offset are pushed down, so only the requested page of groups leaves the database.
+    The SQL only depends on the shape of the query, see QueryShape. It is built once per shape, kept in a plan cache
+    with the mapping of its rows to AggregateResponse, and run through JDBC, so a query costs neither building the SQL
+    nor a translation by Hibernate. Without time partitioning the text of a shape never changes, and H2 reuses the
+    statement it compiled for it too.
      */
     public List<AggregateResponse> getDynamicAggregates(AggregateQueryParams params) {
 
-        // Get selection and grouping params
-        String deviceId = params.deviceId();
-        String deviceType = params.deviceType();
-        String groupId = params.groupId();
-        String metric = params.metric();
+        BoundQuery query = bind(params);
+        if (query == null) {
+            return Collections.emptyList();
+        }
+
+        List<AggregateResponse> results = new ArrayList<>();
+        execute(query, results::add);
+        return results;
+    }
+
+    /*
+    Same query as getDynamicAggregates, but the rows are read through a forward only cursor and handed to the consumer
+    one at a time, so only a fetch size worth of groups is held in memory. Must run in a transaction, which has to stay
+    open until this returns. Returns the number of rows produced.
+     */
+    public long streamDynamicAggregates(AggregateQueryParams params, Consumer<AggregateResponse> consumer) {
+
+        BoundQuery query = bind(params);
+        if (query == null) {
+            return 0;
+        }
+
+        long[] rows = {0};
+        execute(query, response -> {
+            consumer.accept(response);
+            rows[0]++;
+        });
+        return rows[0];
+    }
+
+    // Runs the query and hands the groups to the consumer, skipping the row of an empty range whose aggregates are null
+    private void execute(BoundQuery query, Consumer<AggregateResponse> consumer) {
+
+        // JPQL queries flushed the readings pending in the persistence context, plain JDBC would not see them
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            em.flush();
+        }
+
+        long[] readings = {0};
+        RowMapper<AggregateResponse> mapper = query.plan().mapper();
+        int totalColumn = query.plan().totalColumn();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(query.sql());
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            Object[] args = query.args();
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            long count = rs.getLong(5);
+            // Every row of a paged query carries the total, an interval query returns all its rows
+            if (totalColumn != 0) {
+                readings[0] = rs.getLong(totalColumn);
+            } else {
+                readings[0] += count;
+            }
+            if (count > 0) {
+                consumer.accept(mapper.mapRow(rs, rs.getRow()));
+            }
+        });
+        rowsScanned.record(readings[0]);
+    }
+
+    // The plan of the params and its parameters. Null when no series can match
+    private BoundQuery bind(AggregateQueryParams params) {
+
+        // Get selection params, in SQL_LABELS order
+        String[] filters = {params.deviceId(), params.deviceType(), params.groupId(), params.metric()};
         Instant start = params.from();
         Instant end = params.to();
 
-        boolean groupByDeviceId = params.groupByDeviceId();
-        boolean groupByDeviceType = params.groupByDeviceType();
-        boolean groupByGroupId = params.groupByGroupId();
-        boolean groupByMetric = params.groupByMetric();
+        // Resolve the filters to series ids. If no series matches, there is nothing to aggregate
+        boolean filtered = Arrays.stream(filters).anyMatch(SensorReadingRepositoryImpl::isSet);
+        List<Integer> seriesIds = null;
+        if (filtered) {
+            seriesIds = seriesDictionary.findIds(filters[0], filters[1], filters[2], filters[3]);
+            if (seriesIds.isEmpty()) {
+                return null;
+            }
+        }
+        boolean filterOnLabels = seriesIds != null && seriesIds.size() > MAX_SERIES_IN_LIST;
+
+        // Partition pruning: only the partitions overlapping the range are part of the query
+        List<String> partitions = List.of();
+        if (partitionedStore.isEnabled()) {
+            partitions = partitionedStore.tablesOverlapping(start, end);
+            if (partitions.isEmpty()) {
+                return null;
+            }
+        }
+
+        int groupBy = (params.groupByDeviceId() ? 1 : 0) | (params.groupByDeviceType() ? 2 : 0)
+                | (params.groupByGroupId() ? 4 : 0) | (params.groupByMetric() ? 8 : 0);
+        int labelFilters = 0;
+        if (filterOnLabels) {
+            for (int i = 0; i < filters.length; i++) {
+                if (isSet(filters[i])) labelFilters |= 1 << i;
+            }
+        }
+        Map<String, Double> percentiles = params.percentiles();
+        Duration interval = params.intervalDuration();
+        boolean limited = interval == null && params.limit() != null;
+        QueryShape shape = new QueryShape(groupBy, filtered && !filterOnLabels, labelFilters, Set.copyOf(params.functions()),
+                List.copyOf(percentiles.keySet()), List.copyOf(percentiles.values()), interval,
+                interval == null ? params.order() : null, limited, partitions.size());
+
+        // Parameters, in the order of their placeholders
+        List<Object> args = new ArrayList<>();
+        // Bound as an offset date time so that the value does not depend on the time zone of the JVM
+        Object from = start.atOffset(ZoneOffset.UTC);
+        Object to = end.atOffset(ZoneOffset.UTC);
+        Object ids = shape.seriesIdFilter() ? seriesIds.toArray(new Integer[0]) : null;
+        for (int i = 0; i < Math.max(1, partitions.size()); i++) {
+            args.add(from);
+            args.add(to);
+            if (ids != null) args.add(ids);
+        }
+        for (int i = 0; i < filters.length; i++) {
+            if ((labelFilters & 1 << i) != 0) args.add(filters[i]);
+        }
+        // Page of the groups, interval queries are never paged
+        if (interval == null) {
+            args.add((long) params.offset());
+            if (limited) args.add((long) params.limit());
+        }
+
+        QueryPlan plan = plan(shape);
+        return new BoundQuery(plan, plan.sql(partitions), args.toArray());
+    }
+
+    // Number of shapes whose plan is cached
+    public int plannedShapes() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    // Drops the cached plans, the next query of every shape plans it again
+    public void clearPlans() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
+    private QueryPlan plan(QueryShape shape) {
+        QueryPlan plan;
+        synchronized (plans) {
+            plan = plans.get(shape);
+        }
+        if (plan != null) {
+            planHits.increment();
+            return plan;
+        }
+        planMisses.increment();
+        // Planned outside of the lock, two queries of a new shape may both plan it
+        plan = new QueryPlan(List.of(buildSql(shape).split(Pattern.quote(PARTITION), -1)), buildMapper(shape),
+                shape.interval() == null ? 6 + sqlFunctions(shape).size() + shape.percentiles().size() : 0);
+        synchronized (plans) {
+            plans.put(shape, plan);
+        }
+        return plan;
+    }
+
+    private static String buildSql(QueryShape shape) {
 
         // SELECT columns
         List<String> selectCols = new ArrayList<>();
-        selectCols.add(groupByDeviceId ? "sr.deviceId" : "'ALL' as deviceId");
-        selectCols.add(groupByDeviceType ? "sr.deviceType" : "'ALL' as deviceType");
-        selectCols.add(groupByGroupId ? "sr.groupId" : "'ALL' as groupId");
-        selectCols.add(groupByMetric ? "sr.metric" : "'ALL' as metric");
-        selectCols.add("AVG(sr.reading) as avgValue");
-        selectCols.add("MIN(sr.reading) as minValue");
-        selectCols.add("MAX(sr.reading) as maxValue");
-        selectCols.add("MEDIAN(sr.reading) as medianValue");
+        String[] aliases = {"deviceId", "deviceType", "groupId", "metric"};
+        List<String> groupCols = new ArrayList<>();
+        for (int i = 0; i < SQL_LABELS.length; i++) {
+            if ((shape.groupBy() & 1 << i) != 0) {
+                selectCols.add(SQL_LABELS[i]);
+                groupCols.add(SQL_LABELS[i]);
+            } else {
+                selectCols.add("'ALL' as " + aliases[i]);
+            }
+        }
         selectCols.add("COUNT(*) as countValue");
+        for (AggregateFunction function : sqlFunctions(shape)) {
+            selectCols.add(SQL_FUNCTIONS.get(function));
+        }
+        for (double q : shape.percentiles()) {
+            selectCols.add("PERCENTILE_CONT(" + q + ") WITHIN GROUP (ORDER BY sr.reading)");
+        }
+        // Readings of all the groups, computed before OFFSET and FETCH cut the page
+        if (shape.interval() == null) {
+            selectCols.add("SUM(COUNT(*)) OVER () as totalCount");
+        }
 
-        // Group By columns
-        List<String> groupCols = new ArrayList<>();
-        if(groupByDeviceId) groupCols.add("sr.deviceId");
-        if(groupByDeviceType) groupCols.add("sr.deviceType");
-        if(groupByGroupId) groupCols.add("sr.groupId");
-        if(groupByMetric) groupCols.add("sr.metric");
+        // Time bucket, inlined as H2 only matches GROUP BY expressions that are identical to the selected ones
+        String bucket = null;
+        if (shape.interval() != null) {
+            long seconds = shape.interval().getSeconds();
+            bucket = "FLOOR(EXTRACT(EPOCH FROM sr.ts) / " + seconds + ") * " + seconds;
+            selectCols.add(bucket);
+            groupCols.add(bucket);
+        }
 
         // Start building SQL
         StringBuilder sql = new StringBuilder("SELECT ");
         sql.append(String.join(", ", selectCols));
-        sql.append(" FROM SensorReading sr WHERE sr.ts BETWEEN :start AND :end ");
+        if (shape.partitions() > 0) {
+            // The range and series id filters are applied inside every partition so that their indexes are used
+            String columns = shape.interval() != null ? "series_id, reading, ts" : "series_id, reading";
+            sql.append(" FROM (");
+            sql.append(String.join(" UNION ALL ", Collections.nCopies(shape.partitions(),
+                    "SELECT " + columns + " FROM " + PARTITION + " WHERE " + rangeFilter(shape, ""))));
+            sql.append(") sr ");
+        } else {
+            sql.append(" FROM sensor_reading sr ");
+        }
+        if (shape.groupBy() != 0 || shape.labelFilters() != 0) {
+            sql.append("JOIN sensor_series s ON s.id = sr.series_id ");
+        }
+        sql.append(shape.partitions() > 0 ? "WHERE 1 = 1 " : "WHERE " + rangeFilter(shape, "sr.") + " ");
 
-        // Add filters
-        if (deviceId != null && !deviceId.isBlank()) sql.append("AND sr.deviceId = :deviceId ");
-        if (deviceType != null && !deviceType.isBlank()) sql.append("AND sr.deviceType = :deviceType ");
-        if (groupId != null && !groupId.isBlank()) sql.append("AND sr.groupId = :groupId ");
-        if (metric != null && !metric.isBlank()) sql.append("AND sr.metric = :metric ");
+        // Add label filters
+        for (int i = 0; i < SQL_LABELS.length; i++) {
+            if ((shape.labelFilters() & 1 << i) != 0) sql.append("AND ").append(SQL_LABELS[i]).append(" = ? ");
+        }
 
         // Add conditional grouping
         if (!groupCols.isEmpty()) {
             sql.append("GROUP BY ").append(String.join(", ", groupCols));
         }
 
-        // Add sorting by count (descending by default)
-        sql.append(" ORDER BY countValue DESC");
-
-        // Create Query
-        jakarta.persistence.Query query = em.createQuery(sql.toString());
-
-        // Substitute placeholders
-        query.setParameter("start", start);
-        query.setParameter("end", end);
-        if (deviceId != null && !deviceId.isBlank()) query.setParameter("deviceId", deviceId);
-        if (deviceType != null && !deviceType.isBlank()) query.setParameter("deviceType", deviceType);
-        if (groupId != null && !groupId.isBlank()) query.setParameter("groupId", groupId);
-        if (metric != null && !metric.isBlank()) query.setParameter("metric", metric);
-
-        // Execute query
-        List<Object[]> results = query.getResultList();
-
-        // In case on empty records, JPA returns a single row if aggregate functions are used with null as values for aggregates like average, sum etc
-        // Skipping such rows using filter
-        return results.stream()
-                .filter(arr -> arr[4] != null) // skip rows where avg/min/max are null
-                .map(arr -> new AggregateResponse(
-                        (String) arr[0],
-                        (String) arr[1],
-                        (String) arr[2],
-                        (String) arr[3],
-                        ((Number) arr[4]).doubleValue(),
-                        ((Number) arr[5]).doubleValue(),
-                        ((Number) arr[6]).doubleValue(),
-                        ((Number) arr[7]).doubleValue(),
-                        ((Number) arr[8]).longValue()
-                ))
-                .collect(Collectors.toList());
+        // Add sorting by orderBy (count descending by default), or by bucket for an interval query
+        if (bucket != null) {
+            sql.append(" ORDER BY ").append(bucket);
+        } else {
+            GroupOrder order = shape.order();
+            sql.append(" ORDER BY ").append(ORDER_EXPRESSIONS.get(order.function()))
+                    .append(order.descending() ? " DESC" : " ASC").append(" NULLS LAST");
+            // Ties are broken on the group columns so that consecutive pages neither overlap nor skip groups
+            for (String column : groupCols) {
+                sql.append(", ").append(column);
+            }
+            sql.append(" OFFSET ? ROWS");
+            if (shape.limited()) sql.append(" FETCH NEXT ? ROWS ONLY");
+        }
+        return sql.toString();
+    }
+
+    // The series ids are bound as a single array, so that the text does not depend on how many there are
+    private static String rangeFilter(QueryShape shape, String alias) {
+        String filter = alias + "ts BETWEEN ? AND ?";
+        return shape.seriesIdFilter() ? filter + " AND " + alias + "series_id = ANY(?)" : filter;
+    }
+
+    // Reads the columns of buildSql by position
+    private static RowMapper<AggregateResponse> buildMapper(QueryShape shape) {
+        List<AggregateFunction> functions = sqlFunctions(shape);
+        List<String> percentileLabels = shape.percentileLabels();
+        boolean withCount = shape.functions().contains(AggregateFunction.COUNT);
+        boolean withBucket = shape.interval() != null;
+        return (rs, rowNum) -> {
+            AggregateResponse response = new AggregateResponse();
+            response.setDeviceId(rs.getString(1));
+            response.setDeviceType(rs.getString(2));
+            response.setGroupId(rs.getString(3));
+            response.setMetric(rs.getString(4));
+            if (withCount) response.setCount(rs.getLong(5));
+            int column = 6;
+            for (AggregateFunction function : functions) {
+                double value = rs.getDouble(column++);
+                Double result = rs.wasNull() ? null : value;
+                switch (function) {
+                    case SUM -> response.setSumValue(result);
+                    case AVG -> response.setAvgValue(result);
+                    case MIN -> response.setMinValue(result);
+                    case MAX -> response.setMaxValue(result);
+                    case STDDEV -> response.setStddevValue(result);
+                    case MEDIAN -> response.setMedianValue(result);
+                    default -> { }
+                }
+            }
+            for (String label : percentileLabels) {
+                response.getPercentiles().put(label, rs.getDouble(column++));
+            }
+            if (withBucket) {
+                response.setBucket(Instant.ofEpochSecond(rs.getLong(column)));
+            }
+            return response;
+        };
+    }
+
+    // The requested functions that have a SQL aggregate, in the order of AggregateFunction
+    private static List<AggregateFunction> sqlFunctions(QueryShape shape) {
+        return shape.functions().stream()
+                .filter(SQL_FUNCTIONS::containsKey)
+                .sorted()
+                .toList();
+    }
+
+    private static boolean isSet(String filter) {
+        return filter != null && !filter.isBlank();
     }
-}
\ No newline at end of file
+}
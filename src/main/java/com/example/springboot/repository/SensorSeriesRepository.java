@@ -0,0 +1,17 @@
+package com.example.springboot.repository;
+
+import com.example.springboot.entity.SensorSeries;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/*
+This is the class that interacts with the sensor_series dimension table. It is mostly used through the SeriesDictionary
+which keeps all series in memory.
+ */
+@Repository
+public interface SensorSeriesRepository extends JpaRepository<SensorSeries, Integer> {
+
+    Optional<SensorSeries> findByDeviceIdAndDeviceTypeAndGroupIdAndMetric(String deviceId, String deviceType, String groupId, String metric);
+}
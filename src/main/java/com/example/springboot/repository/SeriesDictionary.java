@@ -0,0 +1,143 @@
+package com.example.springboot.repository;
+
+import com.example.springboot.entity.SensorSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+In memory cache of the sensor_series dimension table. The ingest path uses it to turn the dimension strings of a
+reading into a series id with a single hash lookup, and the query path uses it to turn filters into series ids and
+series ids back into group labels. All series are loaded on first use and every new series is created through this
+class, so the cache is complete as long as a single application instance writes to the database.
+New series are committed in their own transaction so that they are visible to every reading that refers to them,
+even if the transaction saving the reading is rolled back.
+ */
+@Component
+public class SeriesDictionary {
+
+    public record SeriesKey(String deviceId, String deviceType, String groupId, String metric) {}
+
+    private final SensorSeriesRepository repository;
+    private final TransactionTemplate newTransaction;
+
+    private final Map<SeriesKey, Integer> idsByKey = new ConcurrentHashMap<>();
+    private final Map<Integer, SensorSeries> seriesById = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    // Held while a series is created in its own transaction, not a monitor so that virtual threads waiting on it unmount
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private static final Logger log = LoggerFactory.getLogger(SeriesDictionary.class);
+
+    public SeriesDictionary(SensorSeriesRepository repository, PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    // Returns the id of the series, creating the series if it has not been seen before
+    public int resolve(String deviceId, String deviceType, String groupId, String metric) {
+
+        SeriesKey key = new SeriesKey(deviceId, deviceType, groupId, metric);
+        Integer id = idsByKey.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        return create(key);
+    }
+
+    private int create(SeriesKey key) {
+        lock.lock();
+        try {
+            ensureLoaded();
+
+            // Another thread may have created it while this one was waiting
+            Integer id = idsByKey.get(key);
+            if (id != null) {
+                return id;
+            }
+
+            SensorSeries series = newTransaction.execute(status -> repository
+                    .findByDeviceIdAndDeviceTypeAndGroupIdAndMetric(key.deviceId(), key.deviceType(), key.groupId(), key.metric())
+                    .orElseGet(() -> repository.saveAndFlush(
+                            new SensorSeries(key.deviceId(), key.deviceType(), key.groupId(), key.metric()))));
+
+            register(series);
+            log.info("SeriesDictionary : series {} registered for {}", series.getId(), key);
+            return series.getId();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SensorSeries get(int id) {
+
+        SensorSeries series = seriesById.get(id);
+        if (series == null) {
+            series = repository.findById(id).orElseThrow(() -> new IllegalStateException("Unknown series " + id));
+            register(series);
+        }
+        return series;
+    }
+
+    /*
+    Returns the ids of all series matching the filters. A null or blank filter matches every value.
+     */
+    public List<Integer> findIds(String deviceId, String deviceType, String groupId, String metric) {
+
+        ensureLoaded();
+
+        List<Integer> ids = new ArrayList<>();
+        for (SensorSeries series : seriesById.values()) {
+            if (matches(deviceId, series.getDeviceId())
+                    && matches(deviceType, series.getDeviceType())
+                    && matches(groupId, series.getGroupId())
+                    && matches(metric, series.getMetric())) {
+                ids.add(series.getId());
+            }
+        }
+        return ids;
+    }
+
+    public Collection<SensorSeries> all() {
+        ensureLoaded();
+        return seriesById.values();
+    }
+
+    private static boolean matches(String filter, String value) {
+        return filter == null || filter.isBlank() || filter.equals(value);
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            lock.lock();
+            try {
+                if (!loaded) {
+                    repository.findAll().forEach(this::register);
+                    loaded = true;
+                    log.info("SeriesDictionary : loaded {} series", seriesById.size());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void register(SensorSeries series) {
+        seriesById.put(series.getId(), series);
+        idsByKey.put(new SeriesKey(series.getDeviceId(), series.getDeviceType(), series.getGroupId(), series.getMetric()),
+                series.getId());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.springboot.rollup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+Splits the range of a query into the segments that can be read from each rollup resolution. The middle of the range is
+read from the coarsest resolution having at least one bucket fully inside it, and each of the two partial edges is
+split again with the next finer resolution, down to raw readings for what is left below the finest bucket.
+E.g. 09:59:30 to 12:00:10 with 1m/1h/1d rollups becomes raw [09:59:30, 10:00), 1h [10:00, 12:00), raw [12:00, 12:00:10].
+All segments are half open, [start, end), and together cover the range exactly once.
+ */
+public final class RollupPlanner {
+
+    // A null resolution means raw readings
+    public record Segment(Duration resolution, Instant start, Instant end) {
+        public boolean isRaw() {
+            return resolution == null;
+        }
+    }
+
+    private RollupPlanner() {}
+
+    // Plans the inclusive range [from, to] of a query. Timestamps are stored with microsecond precision
+    public static List<Segment> plan(Instant from, Instant to, List<Duration> resolutions) {
+        List<Duration> sorted = new ArrayList<>(resolutions);
+        sorted.sort(Comparator.naturalOrder());
+
+        List<Segment> segments = new ArrayList<>();
+        plan(from, to.plus(1, ChronoUnit.MICROS), sorted, sorted.size() - 1, segments);
+        return segments;
+    }
+
+    private static void plan(Instant start, Instant end, List<Duration> resolutions, int level, List<Segment> segments) {
+
+        if (!start.isBefore(end)) {
+            return;
+        }
+        if (level < 0) {
+            segments.add(new Segment(null, start, end));
+            return;
+        }
+
+        Duration resolution = resolutions.get(level);
+        Instant firstBucket = ceil(start, resolution);
+        Instant lastBucketEnd = floor(end, resolution);
+
+        if (firstBucket.isBefore(lastBucketEnd)) {
+            plan(start, firstBucket, resolutions, level - 1, segments);
+            segments.add(new Segment(resolution, firstBucket, lastBucketEnd));
+            plan(lastBucketEnd, end, resolutions, level - 1, segments);
+        } else {
+            plan(start, end, resolutions, level - 1, segments);
+        }
+    }
+
+    // Start of the bucket containing ts, buckets are aligned on the epoch
+    public static Instant floor(Instant ts, Duration resolution) {
+        long size = resolution.toNanos() / 1000;
+        long micros = ChronoUnit.MICROS.between(Instant.EPOCH, ts);
+        return Instant.EPOCH.plus(Math.floorDiv(micros, size) * size, ChronoUnit.MICROS);
+    }
+
+    private static Instant ceil(Instant ts, Duration resolution) {
+        Instant floor = floor(ts, resolution);
+        return floor.equals(ts) ? floor : floor.plus(resolution);
+    }
+}
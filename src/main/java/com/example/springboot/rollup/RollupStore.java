@@ -0,0 +1,479 @@
+package com.example.springboot.rollup;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.QuantileSketch;
+import com.example.springboot.aggregate.RawScan;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.config.RollupProperties;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.ingest.IngestListener;
+import com.example.springboot.partition.PartitionedReadingStore;
+import com.example.springboot.partition.RetentionListener;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import com.example.springboot.shard.SensorRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Rollup tables of the readings, one per resolution (sensor_rollup_1m, sensor_rollup_1h, sensor_rollup_1d by default).
+Each row holds the count, sum, min, max, sum of squared deviations, first and last reading (with their epoch
+microseconds) and quantile sketch of the readings of one series in one bucket, so a bucket can be merged with other
+buckets or raw readings like any PartialAggregate.
+The rollups are rebuilt rather than updated: after a batch of readings is saved, the IngestService notifies this
+IngestListener, which only marks the finest buckets of the batch dirty in memory, so the ingest never waits on the
+rollups. A background thread then recomputes the dirty buckets from the raw readings and every coarser bucket from the
+next finer table. As a rebuild reads what is committed, a reading saved during a rebuild marks its bucket dirty again
+and is never counted twice. Until its rebuild commits, a bucket is stale and the queries read the raw readings instead
+(see isFresh). The same rebuild backfills the readings saved before startup or while rollups were disabled, and
+removes what the partition retention dropped. The tables live in the main datasource even when the readings are
+sharded, series ids are global.
+ */
+@Component
+public class RollupStore implements IngestListener, RetentionListener {
+
+    public record BucketKey(int seriesId, Instant bucket) {}
+
+    private final RollupProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PartitionedReadingStore readings;
+    private final SensorReadingRepositoryFactory shards;
+
+    // Finest resolution first, each one a multiple of the previous one
+    private final Map<Duration, String> tables = new LinkedHashMap<>();
+    private Duration finest;
+    private Duration coarsest;
+
+    // Starts of the finest buckets with readings saved since their last rebuild, and of the ones being rebuilt
+    private final ConcurrentSkipListSet<Instant> dirty = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<Instant> refreshing = new ConcurrentSkipListSet<>();
+
+    // Ranges [start, end) to rebuild, keyed by start, for the backfill and the retention. Only changed under refreshLock
+    private final ConcurrentSkipListMap<Instant, Instant> pending = new ConcurrentSkipListMap<>();
+
+    // Serializes the rebuilds with the retention, the ingest never takes it. A lock rather than synchronized: a
+    // virtual thread blocking on JDBC inside synchronized pins its carrier thread
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private ScheduledExecutorService refreshExecutor;
+
+    // A rebuild reads first and last with the timestamps and fills the sketches
+    private static final ScanOptions REBUILD_SCAN = new ScanOptions(false, true, true);
+
+    // The aggregate state of a bucket, in the order read by toPartial
+    private static final String STATE_COLUMNS = "reading_count, reading_sum, reading_min, reading_max, reading_m2, "
+            + "first_ts, first_value, last_ts, last_value, sketch";
+
+    private static final Logger log = LoggerFactory.getLogger(RollupStore.class);
+
+    public RollupStore(RollupProperties properties, JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                       PartitionedReadingStore readings, SensorReadingRepositoryFactory shards) {
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readings = readings;
+        this.shards = shards;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        List<Duration> resolutions = new ArrayList<>(properties.getResolutions());
+        Collections.sort(resolutions);
+        // A coarser bucket is rebuilt from the finer buckets it is made of
+        for (int i = 1; i < resolutions.size(); i++) {
+            if (resolutions.get(i).toNanos() % resolutions.get(i - 1).toNanos() != 0) {
+                throw new IllegalStateException("Each rollup resolution must be a multiple of the previous one: " + resolutions);
+            }
+        }
+
+        for (Duration resolution : resolutions) {
+            String table = "sensor_rollup_" + label(resolution);
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                    + "series_id INTEGER NOT NULL, "
+                    + "bucket TIMESTAMP(6) WITH TIME ZONE NOT NULL, "
+                    + "reading_count BIGINT NOT NULL, "
+                    + "reading_sum DOUBLE PRECISION NOT NULL, "
+                    + "reading_min DOUBLE PRECISION NOT NULL, "
+                    + "reading_max DOUBLE PRECISION NOT NULL, "
+                    + "reading_m2 DOUBLE PRECISION NOT NULL, "
+                    + "first_ts BIGINT NOT NULL, "
+                    + "first_value DOUBLE PRECISION NOT NULL, "
+                    + "last_ts BIGINT NOT NULL, "
+                    + "last_value DOUBLE PRECISION NOT NULL, "
+                    + "sketch VARBINARY NOT NULL, "
+                    + "PRIMARY KEY (series_id, bucket))");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_bucket ON " + table + " (bucket)");
+            tables.put(resolution, table);
+        }
+        finest = resolutions.get(0);
+        coarsest = resolutions.get(resolutions.size() - 1);
+
+        backfill();
+
+        long interval = properties.getRefreshInterval().toMillis();
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rollup-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(this::safeRefresh, 0, interval, TimeUnit.MILLISECONDS);
+
+        log.info("RollupStore : rollups at {}, refreshed every {}", tables.values(), properties.getRefreshInterval());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public List<Duration> getResolutions() {
+        return new ArrayList<>(tables.keySet());
+    }
+
+    // 1m, 1h, 1d, or the number of seconds for sizes that are not a whole number of those units
+    private static String label(Duration resolution) {
+        long seconds = resolution.getSeconds();
+        if (seconds % 86400 == 0) return seconds / 86400 + "d";
+        if (seconds % 3600 == 0) return seconds / 3600 + "h";
+        if (seconds % 60 == 0) return seconds / 60 + "m";
+        return seconds + "s";
+    }
+
+    @Override
+    public void onSaved(List<SensorReading> saved) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Set<Instant> buckets = new HashSet<>();
+        for (SensorReading reading : saved) {
+            buckets.add(RollupPlanner.floor(reading.getTs(), finest));
+        }
+        dirty.addAll(buckets);
+    }
+
+    /*
+    Rebuilds every bucket from the oldest rollup bucket to the cutoff from the readings that are left. This removes
+    the buckets of the dropped readings and keeps the ones of readings still stored before the cutoff, e.g. in a shard
+    whose partitions end later.
+     */
+    @Override
+    public void onDropped(Instant cutoff) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        refreshLock.lock();
+        try {
+            OffsetDateTime oldest = jdbcTemplate.queryForObject("SELECT MIN(bucket) FROM " + tables.get(finest), OffsetDateTime.class);
+            if (oldest != null && oldest.toInstant().isBefore(cutoff)) {
+                schedule(oldest.toInstant(), cutoff);
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /*
+    Schedules the rebuild of the whole range of the stored readings. Run at startup, as readings may have been saved
+    while rollups were disabled, and the buckets still dirty when the application stopped are only known in memory.
+     */
+    public void backfill() {
+        RawScan.TimeRange range = rawTimeRange();
+        if (range == null) {
+            return;
+        }
+        refreshLock.lock();
+        try {
+            schedule(range.first(), range.last().plus(1, ChronoUnit.MICROS));
+        } finally {
+            refreshLock.unlock();
+        }
+        log.info("RollupStore : backfill of {} to {} scheduled", range.first(), range.last());
+    }
+
+    // Pending ranges are aligned on the coarsest buckets, so that every rebuild covers whole buckets at all resolutions
+    private void schedule(Instant from, Instant to) {
+        pending.merge(RollupPlanner.floor(from, coarsest), ceil(to, coarsest), (a, b) -> a.isAfter(b) ? a : b);
+    }
+
+    /*
+    Whether the rollup buckets in [start, end) hold every reading saved so far, i.e. none of them waits for a rebuild.
+    The queries read the raw readings for the ranges that are not fresh.
+     */
+    public boolean isFresh(Instant start, Instant end) {
+        Instant from = RollupPlanner.floor(start, finest);
+        if (!dirty.subSet(from, end).isEmpty() || !refreshing.subSet(from, end).isEmpty()) {
+            return false;
+        }
+        for (Map.Entry<Instant, Instant> range : pending.headMap(end).entrySet()) {
+            if (range.getValue().isAfter(start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+    Rebuilds the dirty buckets, then the pending ranges one coarsest bucket at a time. Runs on the refresh thread,
+    public so that a caller can bring the rollups up to date right away.
+     */
+    public void refresh() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        refreshLock.lock();
+        try {
+            refreshDirty();
+            while (!pending.isEmpty()) {
+                Map.Entry<Instant, Instant> range = pending.firstEntry();
+                Instant chunkEnd = min(range.getKey().plus(coarsest), range.getValue());
+                rebuild(range.getKey(), chunkEnd);
+                // The rest is scheduled before the chunk leaves, so that it never looks fresh
+                if (chunkEnd.isBefore(range.getValue())) {
+                    schedule(chunkEnd, range.getValue());
+                }
+                pending.remove(range.getKey());
+                // The buckets of the readings saved meanwhile do not wait for the end of a long backfill
+                refreshDirty();
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void refreshDirty() {
+        // A bucket enters refreshing before it leaves dirty, so that it stays stale for the queries all along. A
+        // reading saved during the rebuild marks it dirty again
+        for (Instant bucket : dirty) {
+            refreshing.add(bucket);
+            dirty.remove(bucket);
+        }
+        if (refreshing.isEmpty()) {
+            return;
+        }
+
+        try {
+            // Consecutive buckets are rebuilt together
+            Instant runStart = null;
+            Instant runEnd = null;
+            for (Instant bucket : refreshing) {
+                if (bucket.equals(runEnd)) {
+                    runEnd = bucket.plus(finest);
+                    continue;
+                }
+                if (runStart != null) {
+                    rebuild(runStart, runEnd);
+                }
+                runStart = bucket;
+                runEnd = bucket.plus(finest);
+            }
+            rebuild(runStart, runEnd);
+        } catch (RuntimeException e) {
+            // Retried by the next refresh
+            dirty.addAll(refreshing);
+            throw e;
+        } finally {
+            refreshing.clear();
+        }
+    }
+
+    // A failure must not cancel the next runs of the scheduled task
+    private void safeRefresh() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.error("RollupStore : refreshing the rollups failed", e);
+        }
+    }
+
+    // Rebuilds the finest buckets in [from, to) and the coarser buckets containing them, one coarsest bucket at a time
+    private void rebuild(Instant from, Instant to) {
+        Instant start = from;
+        while (start.isBefore(to)) {
+            Instant end = min(RollupPlanner.floor(start, coarsest).plus(coarsest), to);
+            rebuildChunk(start, end);
+            start = end;
+        }
+    }
+
+    private void rebuildChunk(Instant from, Instant to) {
+
+        // The raw readings are aggregated one bucket of the second resolution at a time, so that the partials of a
+        // whole coarsest bucket are never all in memory
+        List<Duration> resolutions = getResolutions();
+        Duration piece = resolutions.size() > 1 ? resolutions.get(1) : finest;
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Instant start = from; start.isBefore(to); ) {
+                Instant end = min(RollupPlanner.floor(start, piece).plus(piece), to);
+                Map<BucketKey, PartialAggregate> rows = new HashMap<>();
+                rawBuckets(start, end.minus(1, ChronoUnit.MICROS)).forEach((bucket, partials) ->
+                        partials.forEach((seriesId, partial) -> rows.put(new BucketKey(seriesId, bucket), partial)));
+                replace(tables.get(finest), start, end, rows);
+                start = end;
+            }
+
+            Instant start = from;
+            Instant end = to;
+            for (int i = 1; i < resolutions.size(); i++) {
+                Duration resolution = resolutions.get(i);
+                start = RollupPlanner.floor(start, resolution);
+                end = ceil(end, resolution);
+                replace(tables.get(resolution), start, end, merge(tables.get(resolutions.get(i - 1)), start, end, resolution));
+            }
+        });
+    }
+
+    // The raw buckets of the finest resolution with from <= ts <= to, of all series in all shards
+    private Map<Instant, Map<Integer, PartialAggregate>> rawBuckets(Instant from, Instant to) {
+        if (!shards.isEnabled()) {
+            return readings.aggregateBuckets(from, to, null, REBUILD_SCAN, finest);
+        }
+        Map<Instant, Map<Integer, PartialAggregate>> buckets = new HashMap<>();
+        for (SensorRepository shard : shards.getRepositories()) {
+            shard.aggregateBuckets(from, to, null, REBUILD_SCAN, finest).forEach((bucket, partials) ->
+                    partials.forEach((seriesId, partial) -> buckets.computeIfAbsent(bucket, b -> new HashMap<>())
+                            .merge(seriesId, partial, PartialAggregate::merge)));
+        }
+        return buckets;
+    }
+
+    private RawScan.TimeRange rawTimeRange() {
+        if (!shards.isEnabled()) {
+            return readings.timeRange();
+        }
+        RawScan.TimeRange range = null;
+        for (SensorRepository shard : shards.getRepositories()) {
+            RawScan.TimeRange shardRange = shard.timeRange();
+            if (shardRange != null) {
+                range = range == null ? shardRange : new RawScan.TimeRange(
+                        min(range.first(), shardRange.first()), max(range.last(), shardRange.last()));
+            }
+        }
+        return range;
+    }
+
+    // Merges the rows of a finer table with start <= bucket < end into the buckets of the resolution
+    private Map<BucketKey, PartialAggregate> merge(String finer, Instant start, Instant end, Duration resolution) {
+        Map<BucketKey, PartialAggregate> rows = new HashMap<>();
+        jdbcTemplate.query("SELECT series_id, bucket, " + STATE_COLUMNS + " FROM " + finer + " WHERE bucket >= ? AND bucket < ?",
+                rs -> {
+                    Instant bucket = RollupPlanner.floor(rs.getObject(2, OffsetDateTime.class).toInstant(), resolution);
+                    rows.merge(new BucketKey(rs.getInt(1), bucket), toPartial(rs, 3), PartialAggregate::merge);
+                }, toTimestamp(start), toTimestamp(end));
+        return rows;
+    }
+
+    // Replaces the rows of the table with start <= bucket < end
+    private void replace(String table, Instant start, Instant end, Map<BucketKey, PartialAggregate> rows) {
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket >= ? AND bucket < ?", toTimestamp(start), toTimestamp(end));
+        jdbcTemplate.batchUpdate("INSERT INTO " + table + " (series_id, bucket, " + STATE_COLUMNS + ")"
+                        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                new ArrayList<>(rows.entrySet()), 500, (ps, row) -> {
+                    PartialAggregate partial = row.getValue();
+                    ps.setInt(1, row.getKey().seriesId());
+                    ps.setObject(2, toTimestamp(row.getKey().bucket()));
+                    ps.setLong(3, partial.getCount());
+                    ps.setDouble(4, partial.getSum());
+                    ps.setDouble(5, partial.getMin());
+                    ps.setDouble(6, partial.getMax());
+                    ps.setDouble(7, partial.getM2());
+                    ps.setLong(8, partial.getFirstTs());
+                    ps.setDouble(9, partial.getFirst());
+                    ps.setLong(10, partial.getLastTs());
+                    ps.setDouble(11, partial.getLast());
+                    ps.setBytes(12, partial.getSketch().toBytes());
+                });
+    }
+
+    /*
+    Aggregates the buckets with start <= bucket < end per series. A null seriesIds means all series.
+     */
+    public Map<Integer, PartialAggregate> aggregate(Duration resolution, Instant start, Instant end, Collection<Integer> seriesIds) {
+
+        if (seriesIds != null && seriesIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT series_id, " + STATE_COLUMNS + " FROM ")
+                .append(tables.get(resolution))
+                .append(" WHERE bucket >= ? AND bucket < ?");
+        List<Object> args = new ArrayList<>();
+        args.add(toTimestamp(start));
+        args.add(toTimestamp(end));
+        if (seriesIds != null) {
+            // Bound as a single array whatever the number of series
+            sql.append(" AND series_id = ANY(?)");
+            args.add(seriesIds.toArray(new Integer[0]));
+        }
+
+        Map<Integer, PartialAggregate> partials = new HashMap<>();
+        jdbcTemplate.query(sql.toString(), rs -> {
+            PartialAggregate bucket = toPartial(rs, 2);
+            partials.merge(rs.getInt(1), bucket, PartialAggregate::merge);
+        }, args.toArray());
+        return partials;
+    }
+
+    // Reads the STATE_COLUMNS starting at the given column index
+    private static PartialAggregate toPartial(ResultSet rs, int column) throws SQLException {
+        return new PartialAggregate(rs.getLong(column), rs.getDouble(column + 1), rs.getDouble(column + 2),
+                rs.getDouble(column + 3), rs.getDouble(column + 4), QuantileSketch.fromBytes(rs.getBytes(column + 9)))
+                .withFirstLast(rs.getLong(column + 5), rs.getDouble(column + 6), rs.getLong(column + 7), rs.getDouble(column + 8));
+    }
+
+    private static Instant ceil(Instant ts, Duration resolution) {
+        Instant floor = RollupPlanner.floor(ts, resolution);
+        return floor.equals(ts) ? floor : floor.plus(resolution);
+    }
+
+    private static Instant min(Instant a, Instant b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static Instant max(Instant a, Instant b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static OffsetDateTime toTimestamp(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+}
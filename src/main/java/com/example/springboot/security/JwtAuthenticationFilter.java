@@ -1,6 +1,7 @@
 package com.example.springboot.security;
 
 import com.example.springboot.exception.GlobalExceptionHandler;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -60,16 +61,18 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             return;
         }
 
-        // If the auth token is invalid
+        // If the auth token is invalid, expired or revoked. The token is only parsed once, and repeated tokens come from
+        // the cache of the JwtService
         String token = authHeader.substring(7);
-        if (!jwtService.validateToken(token)) {
+        Claims claims = jwtService.verify(token);
+        if (claims == null) {
             log.info("JwtAuthenticationFilter : Invalid or expired token");
             SecurityContextHolder.clearContext();
             response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid or expired token");
             return;
         }
 
-        String username = jwtService.extractUsername(token);
+        String username = claims.getSubject();
         Authentication authentication = new UsernamePasswordAuthenticationToken(
                 username, null, null);
         SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -1,8 +1,12 @@
 package com.example.springboot.security;
 
 import com.example.springboot.config.JwtProperties;
+import com.example.springboot.entity.RevokedToken;
+import com.example.springboot.repository.RevokedTokenRepository;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,14 +14,27 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.time.Instant;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 /*
 This class is used to generate a new JWT token if a valid set of username and password are sent.
 The JWT token will have an expiry of 100 days from the day of generation. Property in KwtProperties file.
+The signing key and the parser are built once. Dashboards poll with the same token over and over, so the claims of a
+verified token are kept until it expires, in a cache of at most jwt.cache-size tokens, and a repeated token costs a
+map lookup instead of the HMAC check and the JSON parsing. A cached token is dropped as soon as it expires.
+Revocations are stored by token id in the revoked_token table and kept in memory, so a revoked token is refused
+without a query, cached or not. Every jwt.revocation-refresh-interval the revocations of other instances are loaded
+and the expired ones deleted, from the table and from memory.
  */
 @Service
 public class JwtService {
@@ -25,10 +42,49 @@ public class JwtService {
     @Autowired
     private JwtProperties jwtProperties;
 
+    @Autowired
+    private RevokedTokenRepository revokedTokens;
+
     private static final Logger log = LoggerFactory.getLogger(JwtService.class);
 
+    private SecretKey signingKey;
+    private JwtParser parser;
+
+    private record VerifiedToken(Claims claims, long expiresAtMillis) {}
+
+    private final Map<String, VerifiedToken> verified = new ConcurrentHashMap<>();
+
+    // Ids of the revoked tokens and their expiration, after which the signature check refuses them anyway
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService refreshExecutor;
+
+    @PostConstruct
+    void init() {
+        signingKey = Keys.hmacShaKeyFor(jwtProperties.getSecret().getBytes());
+        parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+
+        refreshRevocations();
+        long interval = jwtProperties.getRevocationRefreshInterval().toMillis();
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "jwt-revocations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(this::safeRefreshRevocations, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
     private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtProperties.getSecret().getBytes());
+        return signingKey;
     }
 
     public String generateToken(String username) {
@@ -39,6 +95,8 @@ public class JwtService {
         return Jwts.builder()
                 .setClaims(extraClaims)
                 .setSubject(username)
+                // Two logins of the same user in the same second get different tokens, so one can be revoked alone
+                .setId(UUID.randomUUID().toString())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis() + jwtProperties.getExpiration() * 1000))
                 .setIssuer(jwtProperties.getIssuer())
@@ -60,31 +118,110 @@ public class JwtService {
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-    }
-
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+        return parser.parseClaimsJws(token).getBody();
     }
 
+    /*
+    Goes through verify like the other check, so the signature is not parsed again for a cached token and a revoked
+    token is refused.
+     */
     public Boolean validateToken(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+        Claims claims = verify(token);
+        return claims != null && userDetails.getUsername().equals(claims.getSubject());
     }
 
     public Boolean validateToken(String token) {
+        return verify(token) != null;
+    }
+
+    /*
+    The claims of the token, or null when it is not signed with our key, expired or revoked. Only the first call for
+    a token checks the signature, the next ones until it expires are answered from the cache. Tokens without an
+    expiration are checked every time.
+     */
+    public Claims verify(String token) {
+
+        if (token == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        VerifiedToken cached = verified.get(token);
+        if (cached != null) {
+            if (cached.expiresAtMillis() > now && !isRevoked(cached.claims())) {
+                return cached.claims();
+            }
+            verified.remove(token);
+            return null;
+        }
+
+        Claims claims;
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token);
-            return true;
+            claims = parser.parseClaimsJws(token).getBody();
         } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        if (isRevoked(claims)) {
+            return null;
+        }
+        if (claims.getExpiration() != null && jwtProperties.getCacheSize() > 0) {
+            if (verified.size() >= jwtProperties.getCacheSize()) {
+                evict(now);
+            }
+            verified.put(token, new VerifiedToken(claims, claims.getExpiration().getTime()));
+        }
+        return claims;
+    }
+
+    /*
+    Refuses the token from now on, e.g. on logout, on this instance at once and on the others after their next refresh.
+    Returns false if it was not a valid token anyway, or has no id to be revoked by.
+     */
+    public boolean revoke(String token) {
+        Claims claims = verify(token);
+        if (claims == null || claims.getId() == null) {
             return false;
         }
+        Instant expiresAt = claims.getExpiration() == null ? null : claims.getExpiration().toInstant();
+        revokedTokens.save(new RevokedToken(claims.getId(), expiresAt));
+        revoked.put(claims.getId(), expiresAt == null ? Long.MAX_VALUE : expiresAt.toEpochMilli());
+        verified.remove(token);
+        log.info("JwtService : token of user name {} revoked", claims.getSubject());
+        return true;
+    }
+
+    private boolean isRevoked(Claims claims) {
+        return claims.getId() != null && revoked.containsKey(claims.getId());
+    }
+
+    /*
+    Deletes the expired revocations and loads the ones saved by other instances. Revocations are never taken back, so
+    the ones in memory stay until they expire.
+     */
+    public void refreshRevocations() {
+        Instant now = Instant.now();
+        revokedTokens.deleteExpired(now);
+        for (RevokedToken token : revokedTokens.findAll()) {
+            revoked.put(token.getTokenId(), token.getExpiresAt() == null ? Long.MAX_VALUE : token.getExpiresAt().toEpochMilli());
+        }
+        revoked.values().removeIf(expiresAt -> expiresAt <= now.toEpochMilli());
+    }
+
+    private void safeRefreshRevocations() {
+        try {
+            refreshRevocations();
+        } catch (RuntimeException e) {
+            log.error("JwtService : refreshing the revoked tokens failed", e);
+        }
+    }
+
+    // Makes room in a full cache: the expired tokens go first, then arbitrary ones until a tenth of it is free
+    private void evict(long now) {
+        verified.values().removeIf(token -> token.expiresAtMillis() <= now);
+        Iterator<String> tokens = verified.keySet().iterator();
+        while (verified.size() > jwtProperties.getCacheSize() * 9 / 10 && tokens.hasNext()) {
+            tokens.next();
+            tokens.remove();
+        }
     }
 }
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -21,7 +22,9 @@ true in application.properties file. If false then this check is fully bypassed.
 This configuration also makes sure that certain APIs like ingestion, login itself (token generation)
 and H2 console are authenticated. The IOT sensors would not have information about active JWT tokens
 and hence the ingest API should not be authenticated regardless of the "security.enabled" property.
+Servlet stack only, the reactive profile applies the same rules in ReactiveSecurityConfig.
  */
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
@@ -49,6 +52,7 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/api/auth/**").permitAll()        // Authentication endpoints
                         .requestMatchers("/api/ingest").permitAll()         // IoT ingestion
+                        .requestMatchers("/api/ingest/**").permitAll()      // IoT batch ingestion
                         .requestMatchers("/api/auth/login").permitAll()   // <-- allow login
                         .requestMatchers("/h2-console/**").permitAll()      // H2 console
                         .anyRequest().authenticated()                       // everything else requires JWT
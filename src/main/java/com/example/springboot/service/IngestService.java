@@ -1,11 +1,36 @@
 package com.example.springboot.service;
 
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.codec.SensorFrameDecoder;
 import com.example.springboot.entity.SensorReading;
+import com.example.springboot.exception.CustomException;
+import com.example.springboot.ingest.IngestListener;
+import com.example.springboot.partition.PartitionedReadingStore;
 import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.repository.SeriesDictionary;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import com.example.springboot.shard.SensorRepository;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /*
 This service is responsible for receiving sensor readings from IOT devices. The timestamp
  */
@@ -13,27 +38,220 @@ This service is responsible for receiving sensor readings from IOT devices. The
 public class IngestService {
 
     private final SensorReadingRepository repository;
+    private final SeriesDictionary seriesDictionary;
+    private final EntityManagerFactory entityManagerFactory;
+    private final Validator validator;
+    private final SensorReadingRepositoryFactory shards;
+    private final PartitionedReadingStore partitions;
+    private final List<IngestListener> listeners;
+
+    // Number of rows sent to the database in a single JDBC batch
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}")
+    private int jdbcBatchSize = 500;
+
+    // Maximum number of readings in a single binary frame, same limit as the JSON batch API
+    @Value("${ingest.batch.max-size:10000}")
+    private int maxFrameRecords = 10000;
 
     private static final Logger log = LoggerFactory.getLogger(IngestService.class);
 
-    public IngestService(SensorReadingRepository repository) {
+    public IngestService(SensorReadingRepository repository, SeriesDictionary seriesDictionary,
+                         EntityManagerFactory entityManagerFactory, Validator validator,
+                         SensorReadingRepositoryFactory shards, PartitionedReadingStore partitions,
+                         ObjectProvider<IngestListener> listeners) {
         this.repository = repository;
+        this.seriesDictionary = seriesDictionary;
+        this.entityManagerFactory = entityManagerFactory;
+        this.validator = validator;
+        this.shards = shards;
+        this.partitions = partitions;
+        this.listeners = listeners.orderedStream().toList();
     }
 
     // Save a new sensor reading
-    // In production systems, Ideally we should save data to shards for scalability. The shard key can either be device
-    // type or group depending on the requirement.
+    // When sharding is enabled the reading is saved in the shard owning its shard key (see SensorReadingRepositoryFactory),
+    // when time partitioning is enabled in the partition of its timestamp.
+    // The insert is flushed right away. With sequence generated ids Hibernate would otherwise defer it until commit
+    // and constraint violations would not surface from this call.
     public SensorReading saveReading(SensorReading reading) {
 
-        return repository.save(reading);
+        resolveSeries(reading);
+        SensorReading saved;
+        if (shards.isEnabled()) {
+            shards.getRepository(reading).saveAll(List.of(reading));
+            saved = reading;
+        } else if (partitions.isEnabled()) {
+            partitions.save(List.of(reading));
+            saved = reading;
+        } else {
+            saved = repository.saveAndFlush(reading);
+        }
+        notifyListeners(List.of(saved));
+        return saved;
+
+        // The reactive profile saves readings without blocking, see ReactiveIngestService
+    }
+
+    /*
+    Validates every reading of the batch against the SensorReading.Ingest group and saves the valid ones in a single
+    transaction. Invalid readings are skipped and reported back along with their position in the batch.
+     */
+    public BatchIngestResponse ingestBatch(List<SensorReading> readings) {
+
+        List<SensorReading> valid = new ArrayList<>(readings.size());
+        List<BatchIngestResponse.RejectedReading> rejected = new ArrayList<>();
+
+        for (int i = 0; i < readings.size(); i++) {
+            SensorReading reading = readings.get(i);
+
+            if (reading == null) {
+                rejected.add(new BatchIngestResponse.RejectedReading(i, Map.of("reading", "must not be null")));
+                continue;
+            }
+
+            Map<String, String> errors = validate(reading);
+            if (errors.isEmpty()) {
+                valid.add(reading);
+            } else {
+                rejected.add(new BatchIngestResponse.RejectedReading(i, errors));
+            }
+        }
+
+        saveReadings(valid);
+
+        log.info("IngestService : batch of {} readings received, {} saved, {} rejected", readings.size(), valid.size(), rejected.size());
+
+        return new BatchIngestResponse(readings.size(), valid.size(), rejected);
+    }
+
+    /*
+    Ingests a body in the binary frame format (see SensorFrameDecoder). The readings of each frame are saved in one
+    transaction as soon as the frame is decoded. The format cannot express missing fields, so the bean validation done
+    for JSON is not needed here. A malformed frame fails the request, frames before it stay saved.
+     */
+    public BatchIngestResponse ingestFrames(InputStream body) throws IOException {
+
+        SensorFrameDecoder decoder = new SensorFrameDecoder(body, maxFrameRecords);
+
+        int saved = 0;
+        List<SensorReading> frame;
+        while ((frame = decoder.nextFrame()) != null) {
+            saved += saveReadings(frame);
+        }
+
+        log.info("IngestService : {} readings saved from binary frames", saved);
+
+        return new BatchIngestResponse(saved, saved, new ArrayList<>());
+    }
+
+    /*
+    Validates a reading received from a device against the SensorReading.Ingest group. Returns the errors in the
+    field -> message format of the global exception handler, or an empty map if the reading can be saved.
+     */
+    public Map<String, String> validate(SensorReading reading) {
+
+        // Ids are always generated by the database sequence, never taken from the request
+        reading.setId(null);
+
+        Set<ConstraintViolation<SensorReading>> violations = validator.validate(reading, SensorReading.Ingest.class);
+        if (violations.isEmpty()) {
+            return Map.of();
+        }
+
+        Map<String, String> errors = new LinkedHashMap<>();
+        violations.forEach(v -> errors.put(v.getPropertyPath().toString(), v.getMessage()));
+        return errors;
+    }
+
+    /*
+    Saves already validated readings through a Hibernate StatelessSession. Nothing is kept in a persistence context,
+    so memory does not grow with the batch, and the pooled sequence on SensorReading.id lets Hibernate group the
+    inserts into JDBC batches of hibernate.jdbc.batch_size rows. All readings are committed together.
+    When sharding is enabled the readings are split by shard and every shard commits its part on its own, so a failure
+    can leave the readings of the shards before it saved. When time partitioning is enabled the readings are written to
+    their partition tables with plain JDBC batches. The IngestListeners are notified once the readings are saved.
+     */
+    public int saveReadings(List<SensorReading> readings) {
+
+        if (readings.isEmpty()) {
+            return 0;
+        }
+
+        // Resolve the series before the transaction starts, new series are committed separately by the dictionary
+        resolveSeries(readings);
+
+        int saved = store(readings);
+        notifyListeners(readings);
+        return saved;
+    }
+
+    private int store(List<SensorReading> readings) {
+
+        if (shards.isEnabled()) {
+            int saved = 0;
+            for (Map.Entry<SensorRepository, List<SensorReading>> shard : shards.partition(readings).entrySet()) {
+                saved += shard.getKey().saveAll(shard.getValue());
+            }
+            return saved;
+        }
+
+        if (partitions.isEnabled()) {
+            return partitions.save(readings);
+        }
 
-        // Not used currently but can be used depending on the shard and aggregate querying requirements
-        // I have implemented the SensorReadingRepositoryFactory assuming the shard key as device type.
-        // But the sharding mechanism is not integrated end to end.
-        // SensorReading repo = repositoryFactory.getRepository(reading.getDeviceType());
+        SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
 
-        // Wrap blocking JPA call in Mono using boundedElastic scheduler
-        /* return Mono.fromCallable(() -> repository.save(reading))
-                    .subscribeOn(Schedulers.boundedElastic());*/
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            session.setJdbcBatchSize(jdbcBatchSize);
+            Transaction tx = session.beginTransaction();
+            try {
+                for (SensorReading reading : readings) {
+                    session.insert(reading);
+                }
+                tx.commit();
+            } catch (RuntimeException e) {
+                tx.rollback();
+                throw e;
+            }
         }
+
+        return readings.size();
+    }
+
+    // Public for the writers that store the readings themselves, like the reactive profile does over R2DBC
+    public void notifyListeners(List<SensorReading> readings) {
+        for (IngestListener listener : listeners) {
+            try {
+                listener.onSaved(readings);
+            } catch (RuntimeException e) {
+                log.error("IngestService : listener {} failed for {} readings", listener.getClass().getSimpleName(), readings.size(), e);
+            }
+        }
+    }
+
+    /*
+    Sets the series id of every reading and truncates its timestamp to what the database keeps. May create series, so
+    it blocks on the database and runs before the transaction that saves the readings.
+     */
+    public void resolveSeries(List<SensorReading> readings) {
+        for (SensorReading reading : readings) {
+            resolveSeries(reading);
+        }
+    }
+
+    // Only the series id of the dimensions is stored with the reading
+    private void resolveSeries(SensorReading reading) {
+        if (reading.getDeviceId() == null || reading.getDeviceType() == null
+                || reading.getGroupId() == null || reading.getMetric() == null) {
+            throw new CustomException("deviceId, deviceType, groupId and metric are mandatory",
+                    CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        // The database keeps microseconds. Truncating here makes the timestamp seen by the partitions and the
+        // IngestListeners the same as the stored one
+        if (reading.getTs() != null) {
+            reading.setTs(reading.getTs().truncatedTo(ChronoUnit.MICROS));
+        }
+        reading.setSeriesId(seriesDictionary.resolve(
+                reading.getDeviceId(), reading.getDeviceType(), reading.getGroupId(), reading.getMetric()));
+    }
 }
@@ -0,0 +1,103 @@
+package com.example.springboot.service;
+
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.entity.SensorReading;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/*
+This service ingests newline delimited JSON (one reading per line) directly from the request stream. It is meant for
+edge collectors uploading large backlogs after connectivity gaps. Only one line and one chunk of readings are held in
+memory at a time, so memory use does not depend on the size of the upload.
+Every line is parsed on its own with a pre-built Jackson reader so that a malformed line is reported and skipped
+instead of aborting the rest of the upload. Valid readings are saved in chunks of ingest.stream.chunk-size readings,
+each chunk in its own transaction. If the upload is interrupted, the chunks saved until then are kept.
+ */
+@Service
+public class NdjsonIngestService {
+
+    private final IngestService ingestService;
+    private final ObjectReader readingReader;
+
+    // Number of readings saved per transaction
+    @Value("${ingest.stream.chunk-size:1000}")
+    private int chunkSize = 1000;
+
+    // Only the first rejections are reported in detail so that a bad upload cannot grow the response without limit
+    @Value("${ingest.stream.max-reported-rejections:1000}")
+    private int maxReportedRejections = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(NdjsonIngestService.class);
+
+    public NdjsonIngestService(IngestService ingestService, ObjectMapper objectMapper) {
+        this.ingestService = ingestService;
+        this.readingReader = objectMapper.readerFor(SensorReading.class);
+    }
+
+    // Reads the stream until the end. Set gzip if the body was sent with "Content-Encoding: gzip"
+    public BatchIngestResponse ingest(InputStream body, boolean gzip) throws IOException {
+
+        InputStream in = gzip ? new GZIPInputStream(body, 64 * 1024) : body;
+        BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+
+        List<SensorReading> chunk = new ArrayList<>(chunkSize);
+        List<BatchIngestResponse.RejectedReading> rejected = new ArrayList<>();
+        int received = 0;
+        int accepted = 0;
+        int rejectedCount = 0;
+
+        String line;
+        int index = -1;
+        while ((line = lines.readLine()) != null) {
+            index++;
+            if (line.isBlank()) {
+                continue;
+            }
+            received++;
+
+            Map<String, String> errors;
+            SensorReading reading = null;
+            try {
+                reading = readingReader.readValue(line);
+                errors = reading == null ? Map.of("reading", "must not be null") : ingestService.validate(reading);
+            } catch (JsonProcessingException e) {
+                errors = Map.of("line", "Invalid JSON or invalid value for field");
+            }
+
+            if (!errors.isEmpty()) {
+                rejectedCount++;
+                if (rejected.size() < maxReportedRejections) {
+                    rejected.add(new BatchIngestResponse.RejectedReading(index, errors));
+                }
+                continue;
+            }
+
+            chunk.add(reading);
+            if (chunk.size() >= chunkSize) {
+                accepted += ingestService.saveReadings(chunk);
+                chunk.clear();
+            }
+        }
+
+        accepted += ingestService.saveReadings(chunk);
+
+        log.info("NdjsonIngestService : {} readings received, {} saved, {} rejected", received, accepted, rejectedCount);
+
+        return new BatchIngestResponse(received, accepted, rejected);
+    }
+}
@@ -1,16 +1,42 @@
 package com.example.springboot.service;
 
+import com.example.springboot.aggregate.AggregateAssembler;
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.ScanOptions;
 import com.example.springboot.bean.AggregateQueryParams;
 import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.SeriesResponse;
+import com.example.springboot.cache.IncrementalAggregator;
+import com.example.springboot.cache.QueryResultCache;
 import com.example.springboot.exception.CustomException;
+import com.example.springboot.hottier.HotTier;
+import com.example.springboot.parallel.ParallelRangeScanner;
+import com.example.springboot.partition.PartitionedReadingStore;
 import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.repository.SeriesDictionary;
+import com.example.springboot.rollup.RollupPlanner;
+import com.example.springboot.rollup.RollupStore;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import com.example.springboot.shard.SensorRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.persistence.EntityManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /*
 This service is called to get aggregate reading information from the system. The query is being constructed
@@ -27,20 +53,59 @@ public class QueryService {
 
     private EntityManager em;
     private final SensorReadingRepository repository;
+    private final SeriesDictionary seriesDictionary;
+    private final SensorReadingRepositoryFactory shards;
+    private final PartitionedReadingStore partitionedStore;
+    private final RollupStore rollups;
+    private final HotTier hotTier;
+    private final QueryResultCache cache;
+    private final IncrementalAggregator incremental;
+    private final ParallelRangeScanner parallel;
+    private final TransactionTemplate readOnly;
+
+    // Readings read per scan of the raw readings and of the hot tier. The SQL path records its own, rollup buckets
+    // are not counted
+    private final DistributionSummary rawRowsScanned;
+    private final DistributionSummary hotRowsScanned;
 
     private static final Logger log = LoggerFactory.getLogger(QueryService.class);
 
-    public QueryService(EntityManager em, SensorReadingRepository repository) {
+    public QueryService(EntityManager em, SensorReadingRepository repository, SeriesDictionary seriesDictionary,
+                        SensorReadingRepositoryFactory shards, PartitionedReadingStore partitionedStore,
+                        RollupStore rollups, HotTier hotTier, QueryResultCache cache,
+                        IncrementalAggregator incremental, ParallelRangeScanner parallel, MeterRegistry meterRegistry,
+                        PlatformTransactionManager transactionManager) {
         this.em = em;
         this.repository = repository;
+        this.seriesDictionary = seriesDictionary;
+        this.shards = shards;
+        this.partitionedStore = partitionedStore;
+        this.rollups = rollups;
+        this.hotTier = hotTier;
+        this.cache = cache;
+        this.incremental = incremental;
+        this.parallel = parallel;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.rawRowsScanned = DistributionSummary.builder("query.rows.scanned").tag("source", "raw")
+                .description("Readings read per scan of a query")
+                .register(meterRegistry);
+        this.hotRowsScanned = DistributionSummary.builder("query.rows.scanned").tag("source", "hot-tier")
+                .description("Readings read per scan of a query")
+                .register(meterRegistry);
     }
 
+    // Without a transaction of its own: the sub-ranges of a parallel scan borrow their own connections, the request
+    // thread must not hold one while it waits for them. Inside the transaction of a caller, ranges are not split
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<AggregateResponse> getAggregates(AggregateQueryParams params) {
 
         log.info("QueryService : getAggregates");
 
-        // Executes the SensorReadingRepositoryImpl implementation
-        List<AggregateResponse> result = repository.getDynamicAggregates(params);
+        // Rejects unknown aggregate functions before any work is done
+        ScanOptions options = ScanOptions.of(params);
+
+        List<AggregateResponse> result = cache.get("aggregates", params, () -> computeAggregates(params, options));
 
         // Custom handling to provide a message instead of empty payload "[]"
         if (result.isEmpty()) {
@@ -51,6 +116,277 @@ public class QueryService {
         return result;
     }
 
+    // Where the aggregates of a query are computed, see route
+    private enum Route { HOT_TIER, ROLLUPS, INCREMENTAL, SHARDS, SCAN, SQL }
+
+    /*
+    Chooses where the aggregates of a query are computed, for getAggregates and streamAggregates alike. The SQL of
+    SensorReadingRepositoryImpl is used unless the hot tier, rollups, incremental aggregation or shards are enabled.
+    Rollups and the incremental state only hold sketches, they are skipped with exact=true and whenever the median or
+    percentiles have to be exact, as the default median does (see AggregateQueryParams.exactQuantiles).
+    First/last and approximate percentiles are merged from scanned partials, as is a range split for parallel scans
+    when every sub-range can be aggregated in SQL. Exact quantiles, including the default median, cannot be merged
+    from sub-ranges and keep the single SQL query.
+     */
+    private Route route(AggregateQueryParams params, ScanOptions options) {
+        if (hotTier.covers(params.from())) {
+            return Route.HOT_TIER;
+        } else if (rollups.isEnabled() && usesSketches(params, options)) {
+            return Route.ROLLUPS;
+        } else if (incremental.isEnabled() && usesSketches(params, options)) {
+            return Route.INCREMENTAL;
+        } else if (shards.isEnabled()) {
+            return Route.SHARDS;
+        } else if (options.timestamps() || params.approximatesQuantiles() || (splits(params) && !options.quantiles())) {
+            return Route.SCAN;
+        }
+        return Route.SQL;
+    }
+
+    // Whether the query can be answered from sketches only: exact is not set to true and no quantile has to be exact
+    private static boolean usesSketches(AggregateQueryParams params, ScanOptions options) {
+        return !params.isExact() && !(options.quantiles() && options.exact());
+    }
+
+    private List<AggregateResponse> computeAggregates(AggregateQueryParams params, ScanOptions options) {
+        return switch (route(params, options)) {
+            case HOT_TIER -> getHotAggregates(params);
+            case ROLLUPS -> getRollupAggregates(params);
+            case INCREMENTAL -> getIncrementalAggregates(params, options);
+            case SHARDS -> getShardedAggregates(params);
+            case SCAN -> getScannedAggregates(params);
+            case SQL -> repository.getDynamicAggregates(params);
+        };
+    }
+
+    private boolean splits(AggregateQueryParams params) {
+        return parallel.isEnabled() && parallel.splits(params.from(), params.to(), params.parallelism());
+    }
+
+    /*
+    Streams the result of the query to the consumer, an AggregateResponse per group or a SeriesResponse per group with
+    an interval. When the query runs in SQL, the rows are read through a cursor and handed over as they are fetched,
+    so the memory used does not grow with the number of groups, in a read-only transaction that lasts until the last
+    group is consumed. The other paths build their groups in memory anyway and hand them over one by one, outside of a
+    transaction of their own like getAggregates. The result cache is not used, and an empty result is not an error here. Returns
+    the number of groups.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long streamAggregates(AggregateQueryParams params, Consumer<Object> consumer) {
+
+        log.info("QueryService : streamAggregates");
+
+        ScanOptions options = ScanOptions.of(params);
+        List<?> result;
+        if (params.intervalDuration() != null) {
+            validateSeries(params);
+            result = AggregateAssembler.toSeries(repository.getDynamicAggregates(params), params);
+        } else if (route(params, options) == Route.SQL) {
+            return readOnly.execute(status -> repository.streamDynamicAggregates(params, consumer::accept));
+        } else {
+            result = computeAggregates(params, options);
+        }
+
+        result.forEach(consumer);
+        return result.size();
+    }
+
+    /*
+    Interval queries are answered by the SQL of SensorReadingRepositoryImpl with the time bucket in its GROUP BY, so
+    the whole range is read in one scan. The per series paths (hot tier, rollups, shards) are not bucketed.
+     */
+    public List<SeriesResponse> getSeries(AggregateQueryParams params) {
+
+        log.info("QueryService : getSeries");
+
+        validateSeries(params);
+
+        List<SeriesResponse> result = cache.get("series", params,
+                () -> AggregateAssembler.toSeries(repository.getDynamicAggregates(params), params));
+
+        if (result.isEmpty()) {
+            log.info("QueryController : No matching records found");
+            throw new CustomException("No matching records found", CustomException.ErrorCode.NO_RECORDS_FOUND);
+        }
+
+        return result;
+    }
+
+    // Also checked by the query controller before it starts streaming, and by the reactive query stack, which answers
+    // interval queries with the same semantics
+    public void validateSeries(AggregateQueryParams params) {
+        if (params.intervalDuration() == null) {
+            throw new CustomException("interval is required for a series query", CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        // The readings of sharded storage are not in the main datasource the SQL reads from
+        if (shards.isEnabled()) {
+            throw new CustomException("interval is not supported with sharding enabled", CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        if (ScanOptions.of(params).timestamps()) {
+            throw new CustomException("first and last are not supported with interval", CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+        // Series are always in bucket order and complete
+        if (params.isPaged() || (params.orderBy() != null && !params.orderBy().isBlank())) {
+            throw new CustomException("orderBy, limit and offset are not supported with interval", CustomException.ErrorCode.VALIDATION_ERROR);
+        }
+    }
+
+    private List<AggregateResponse> getHotAggregates(AggregateQueryParams params) {
+
+        List<Integer> seriesIds = resolveSeriesIds(params);
+        if (seriesIds != null && seriesIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, PartialAggregate> bySeries = scanned(hotRowsScanned,
+                hotTier.aggregate(params.from(), params.to(), seriesIds, ScanOptions.of(params)));
+        return AggregateAssembler.assemble(bySeries, params, seriesDictionary);
+    }
+
+    private List<AggregateResponse> getRollupAggregates(AggregateQueryParams params) {
+
+        List<Integer> seriesIds = resolveSeriesIds(params);
+        if (seriesIds != null && seriesIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, PartialAggregate> bySeries = new HashMap<>();
+        for (RollupPlanner.Segment segment : RollupPlanner.plan(params.from(), params.to(), rollups.getResolutions())) {
+            // Segments whose rollups wait for a rebuild are read raw too. Segments are half open, the raw scans take
+            // an inclusive upper bound
+            Map<Integer, PartialAggregate> partials = segment.isRaw() || !rollups.isFresh(segment.start(), segment.end())
+                    ? getRawPartials(params, segment.start(), segment.end().minus(1, ChronoUnit.MICROS), seriesIds)
+                    : rollups.aggregate(segment.resolution(), segment.start(), segment.end(), seriesIds);
+            partials.forEach((seriesId, partial) -> bySeries.merge(seriesId, partial, PartialAggregate::merge));
+        }
+
+        return AggregateAssembler.assemble(bySeries, params, seriesDictionary);
+    }
+
+    private List<AggregateResponse> getShardedAggregates(AggregateQueryParams params) {
+
+        List<Integer> seriesIds = resolveSeriesIds(params);
+        if (seriesIds != null && seriesIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, PartialAggregate> bySeries = scatterGather(params, params.from(), params.to(), seriesIds);
+        return AggregateAssembler.assemble(bySeries, params, seriesDictionary);
+    }
+
+    // Sliding window queries reuse the closed buckets of the previous queries with the same filters
+    private List<AggregateResponse> getIncrementalAggregates(AggregateQueryParams params, ScanOptions options) {
+
+        List<Integer> seriesIds = resolveSeriesIds(params);
+        if (seriesIds != null && seriesIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, PartialAggregate> bySeries = incremental.aggregate(params, options,
+                (from, to) -> getRawPartials(params, from, to, seriesIds),
+                (from, to, bucket) -> getRawBuckets(params, from, to, seriesIds, bucket));
+        return AggregateAssembler.assemble(bySeries, params, seriesDictionary);
+    }
+
+    // Approximate percentiles of the main datasource are computed with sketches in one pass instead of sorting in SQL.
+    // First and last have no SQL aggregate in H2, they are also computed here
+    private List<AggregateResponse> getScannedAggregates(AggregateQueryParams params) {
+
+        List<Integer> seriesIds = resolveSeriesIds(params);
+        if (seriesIds != null && seriesIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, PartialAggregate> bySeries = getRawPartials(params, params.from(), params.to(), seriesIds);
+        return AggregateAssembler.assemble(bySeries, params, seriesDictionary);
+    }
+
+    // Per series partial aggregates of the raw readings with from <= ts <= to, from the shards or the main datasource.
+    // Long ranges of the main datasource are split into sub-ranges scanned in parallel when enabled
+    private Map<Integer, PartialAggregate> getRawPartials(AggregateQueryParams params, Instant from, Instant to,
+                                                         List<Integer> seriesIds) {
+        ScanOptions options = ScanOptions.of(params);
+        return shards.isEnabled()
+                ? scatterGather(params, from, to, seriesIds)
+                : scanned(rawRowsScanned, parallel.aggregate(from, to, params.parallelism(),
+                        (start, end) -> partitionedStore.aggregate(start, end, seriesIds, options)));
+    }
+
+    private static Map<Integer, PartialAggregate> scanned(DistributionSummary rowsScanned, Map<Integer, PartialAggregate> bySeries) {
+        rowsScanned.record(bySeries.values().stream().mapToLong(PartialAggregate::getCount).sum());
+        return bySeries;
+    }
+
+    private Map<Integer, PartialAggregate> scatterGather(AggregateQueryParams params, Instant from, Instant to,
+                                                         List<Integer> seriesIds) {
+
+        ScanOptions options = ScanOptions.of(params);
+        List<Map<Integer, PartialAggregate>> results = scatter(params, shard -> shard.aggregate(from, to, seriesIds, options));
+
+        // A series lives in a single shard, merging only matters if the shard key changes over time
+        Map<Integer, PartialAggregate> bySeries = new HashMap<>();
+        results.forEach(result -> result.forEach((seriesId, partial) -> bySeries.merge(seriesId, partial, PartialAggregate::merge)));
+
+        log.info("QueryService : {} series aggregated from {} shards", bySeries.size(), results.size());
+        return scanned(rawRowsScanned, bySeries);
+    }
+
+    // Per bucket and per series partial aggregates of the raw readings with from <= ts <= to
+    private Map<Instant, Map<Integer, PartialAggregate>> getRawBuckets(AggregateQueryParams params, Instant from, Instant to,
+                                                                       List<Integer> seriesIds, Duration bucket) {
+        ScanOptions options = ScanOptions.of(params);
+        Map<Instant, Map<Integer, PartialAggregate>> buckets;
+        if (!shards.isEnabled()) {
+            buckets = partitionedStore.aggregateBuckets(from, to, seriesIds, options, bucket);
+        } else {
+            buckets = new HashMap<>();
+            for (Map<Instant, Map<Integer, PartialAggregate>> result
+                    : scatter(params, shard -> shard.aggregateBuckets(from, to, seriesIds, options, bucket))) {
+                result.forEach((start, partials) -> partials.forEach((seriesId, partial) -> buckets
+                        .computeIfAbsent(start, b -> new HashMap<>())
+                        .merge(seriesId, partial, PartialAggregate::merge)));
+            }
+        }
+        rawRowsScanned.record(buckets.values().stream()
+                .flatMap(partials -> partials.values().stream())
+                .mapToLong(PartialAggregate::getCount).sum());
+        return buckets;
+    }
+
+    // Runs the query on every shard the params can match in parallel, and waits for all of them
+    private <T> List<T> scatter(AggregateQueryParams params, Function<SensorRepository, T> query) {
+
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (SensorRepository shard : shards.getRepositories(params)) {
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), shards.getQueryExecutor()));
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    // Resolves the filters to series ids once, shards and rollups only know series ids. Null means no filter
+    private List<Integer> resolveSeriesIds(AggregateQueryParams params) {
+        if (isSet(params.deviceId()) || isSet(params.deviceType()) || isSet(params.groupId()) || isSet(params.metric())) {
+            return seriesDictionary.findIds(params.deviceId(), params.deviceType(), params.groupId(), params.metric());
+        }
+        return null;
+    }
+
+    private static boolean isSet(String filter) {
+        return filter != null && !filter.isBlank();
+    }
+
     // If H2 supported conditional group by clauses, this implementation would be preferable as we are not constructing the SQL, Instead using conditional group by using When clause
     /*public List<AggregateResponse> getAggregates(String deviceId, String deviceType, String groupId, String metric,
                                                  Instant start, Instant end, boolean groupByDeviceId, boolean groupByDeviceType, boolean groupByGroupId, boolean groupByMetric) {
@@ -0,0 +1,168 @@
+package com.example.springboot.service;
+
+import com.example.springboot.config.WriteBehindProperties;
+import com.example.springboot.entity.SensorReading;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+Write-behind buffer for /api/ingest. The request thread only offers the reading to a bounded array backed queue and
+returns. A small set of writer threads drain the queue and save the readings using IngestService.saveReadings, one
+transaction per group. A group is committed when it reaches maxBatchSize readings or when its first reading has waited
+maxLatencyMs, whichever comes first. This decouples request latency from database latency during bursts.
+The buffer never grows beyond its capacity. When it is full, offer returns false and the caller should push back.
+Readings that are accepted but not yet committed are lost if the process crashes, hence the mode is opt-in.
+ */
+@Service
+@ConditionalOnProperty(prefix = "ingest.write-behind", name = "enabled", havingValue = "true")
+public class WriteBehindIngestBuffer {
+
+    private final IngestService ingestService;
+    private final WriteBehindProperties properties;
+    private final BlockingQueue<SensorReading> queue;
+
+    private final List<Thread> writers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final DistributionSummary batchSize;
+    private final Timer commitLatency;
+    private final Counter rejected;
+    private final Counter dropped;
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindIngestBuffer.class);
+
+    public WriteBehindIngestBuffer(IngestService ingestService, WriteBehindProperties properties, MeterRegistry meterRegistry) {
+        this.ingestService = ingestService;
+        this.properties = properties;
+        this.queue = new ArrayBlockingQueue<>(properties.getCapacity());
+
+        Gauge.builder("ingest.buffer.depth", queue, BlockingQueue::size)
+                .description("Readings waiting in the write-behind buffer")
+                .register(meterRegistry);
+        Gauge.builder("ingest.buffer.capacity", queue, q -> properties.getCapacity())
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("ingest.buffer.batch.size")
+                .description("Readings saved per group commit")
+                .register(meterRegistry);
+        this.commitLatency = Timer.builder("ingest.buffer.commit")
+                .description("Time taken to save and commit a group of readings")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ingest.buffer.rejected")
+                .description("Readings rejected because the buffer was full")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("ingest.buffer.dropped")
+                .description("Accepted readings that could not be saved")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < properties.getWriterThreads(); i++) {
+            Thread writer = new Thread(this::drainLoop, "ingest-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+        log.info("WriteBehindIngestBuffer : started {} writer threads, capacity {}", writers.size(), properties.getCapacity());
+    }
+
+    // Returns false without blocking if the buffer is full
+    public boolean offer(SensorReading reading) {
+        boolean accepted = queue.offer(reading);
+        if (!accepted) {
+            rejected.increment();
+        }
+        return accepted;
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    private void drainLoop() {
+
+        List<SensorReading> batch = new ArrayList<>(properties.getMaxBatchSize());
+
+        // Keep draining after stop() until the buffer is empty so that accepted readings are not lost on shutdown
+        while (running || !queue.isEmpty()) {
+            try {
+                SensorReading first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Collect readings until the batch is full or the first reading has waited maxLatencyMs
+    private void fillBatch(List<SensorReading> batch) throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getMaxLatencyMs());
+
+        while (batch.size() < properties.getMaxBatchSize()) {
+            queue.drainTo(batch, properties.getMaxBatchSize() - batch.size());
+            if (batch.size() >= properties.getMaxBatchSize()) {
+                return;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+
+            SensorReading next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void commit(List<SensorReading> batch) {
+        long start = System.nanoTime();
+        try {
+            ingestService.saveReadings(batch);
+            batchSize.record(batch.size());
+        } catch (RuntimeException e) {
+            // The HTTP requests were already acknowledged, so the only thing left is to make the loss visible
+            dropped.increment(batch.size());
+            log.error("WriteBehindIngestBuffer : failed to save a group of {} readings", batch.size(), e);
+        } finally {
+            commitLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        if (!queue.isEmpty()) {
+            log.warn("WriteBehindIngestBuffer : {} buffered readings were not saved before shutdown", queue.size());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.springboot.shard;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+Consistent hashing: every shard is placed on a hash ring at "virtualNodes" points and a key belongs to the first shard
+point found clockwise from the hash of the key. Adding a shard only takes over the keys that fall just before its
+points, about 1/shardCount of them, instead of remapping nearly all keys like the modulo router does.
+ */
+public class ConsistentHashShardRouter implements ShardRouter {
+
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+    private final int shardCount;
+
+    public ConsistentHashShardRouter(int shardCount, int virtualNodes) {
+        if (shardCount < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("Shard count and virtual nodes must be at least 1");
+        }
+        this.shardCount = shardCount;
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                ring.put(ShardRouter.hash("shard-" + shard + "#" + node), shard);
+            }
+        }
+    }
+
+    @Override
+    public int shardFor(String key) {
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(ShardRouter.hash(key));
+        // Wrap around the ring
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    @Override
+    public int getShardCount() {
+        return shardCount;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.springboot.shard;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.RawScan;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.config.PartitioningProperties.Granularity;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.partition.TimePartitions;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/*
+A shard backed by its own H2 database and connection pool. The shard only has the reading columns, the schema is
+created on startup if it does not exist yet. Aggregation returns per series partial aggregates, so the result is small
+and mergeable no matter how many rows are scanned. Count, sum, min and max are computed by the shard in SQL, the rows
+are only streamed out when a sketch or first/last is needed (see RawScan).
+When time partitioning is enabled the readings of the shard are stored in TimePartitions tables instead.
+ */
+public class JdbcShardRepository implements SensorRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO sensor_reading (series_id, ts, reading) VALUES (?, ?, ?)";
+
+    private final int shard;
+    private final HikariDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final TimePartitions partitions;
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcShardRepository.class);
+
+    // A null granularity stores all readings in a single sensor_reading table
+    public JdbcShardRepository(int shard, String url, String username, String password, int poolSize, int batchSize,
+                               Granularity granularity) {
+        this.shard = shard;
+        this.batchSize = batchSize;
+
+        this.dataSource = new HikariDataSource();
+        dataSource.setPoolName("shard-" + shard);
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(poolSize);
+
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        if (granularity != null) {
+            this.partitions = new TimePartitions(jdbcTemplate, granularity);
+        } else {
+            this.partitions = null;
+            createSchema();
+        }
+        log.info("JdbcShardRepository : shard {} ready at {}", shard, url);
+    }
+
+    private void createSchema() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS sensor_reading ("
+                + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "series_id INTEGER NOT NULL, "
+                + "ts TIMESTAMP(6) WITH TIME ZONE NOT NULL, "
+                + "reading DOUBLE PRECISION NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_series_ts ON sensor_reading (series_id, ts)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_ts ON sensor_reading (ts)");
+    }
+
+    @Override
+    public int getShard() {
+        return shard;
+    }
+
+    @Override
+    public int saveAll(Collection<SensorReading> readings) {
+
+        if (readings.isEmpty()) {
+            return 0;
+        }
+
+        if (partitions != null) {
+            // Partitions are created before the transaction, see TimePartitions
+            Map<String, List<SensorReading>> byTable = partitions.assign(readings);
+            transactionTemplate.executeWithoutResult(status -> partitions.insert(byTable, batchSize));
+            return readings.size();
+        }
+
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(INSERT_SQL, readings, batchSize, (ps, reading) -> {
+                    ps.setInt(1, reading.getSeriesId());
+                    ps.setObject(2, toTimestamp(reading.getTs()));
+                    ps.setDouble(3, reading.getReading());
+                }));
+
+        return readings.size();
+    }
+
+    @Override
+    public Map<Integer, PartialAggregate> aggregate(Instant from, Instant to, Collection<Integer> seriesIds, ScanOptions options) {
+        // Only the partitions overlapping the range are read
+        List<String> tables = partitions != null ? partitions.tablesOverlapping(from, to) : List.of("sensor_reading");
+        return RawScan.aggregate(jdbcTemplate, tables, from, to, seriesIds, options);
+    }
+
+    @Override
+    public Map<Instant, Map<Integer, PartialAggregate>> aggregateBuckets(Instant from, Instant to, Collection<Integer> seriesIds,
+                                                                         ScanOptions options, Duration bucket) {
+        List<String> tables = partitions != null ? partitions.tablesOverlapping(from, to) : List.of("sensor_reading");
+        return RawScan.aggregateBuckets(jdbcTemplate, tables, from, to, seriesIds, options, bucket);
+    }
+
+    @Override
+    public RawScan.TimeRange timeRange() {
+        List<String> tables = partitions != null ? partitions.tablesOverlapping(Instant.MIN, Instant.MAX) : List.of("sensor_reading");
+        return RawScan.timeRange(jdbcTemplate, tables);
+    }
+
+    @Override
+    public int dropPartitionsBefore(Instant cutoff) {
+        return partitions != null ? partitions.dropBefore(cutoff) : 0;
+    }
+
+    // Bound as an offset date time so that the value does not depend on the time zone of the JVM
+    private static OffsetDateTime toTimestamp(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC);
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.springboot.shard;
+
+/*
+Plain hash partitioning: shard = hash(key) mod shardCount. Cheapest to compute and perfectly even for many keys,
+but changing the shard count moves almost every key to another shard.
+ */
+public class ModuloShardRouter implements ShardRouter {
+
+    private final int shardCount;
+
+    public ModuloShardRouter(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1");
+        }
+        this.shardCount = shardCount;
+    }
+
+    @Override
+    public int shardFor(String key) {
+        return Math.floorMod(ShardRouter.hash(key), shardCount);
+    }
+
+    @Override
+    public int getShardCount() {
+        return shardCount;
+    }
+}
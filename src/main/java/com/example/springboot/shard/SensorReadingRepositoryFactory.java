@@ -1,42 +1,126 @@
 package com.example.springboot.shard;
 
-import com.example.springboot.service.UserService;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.config.PartitioningProperties;
+import com.example.springboot.config.ShardingProperties;
+import com.example.springboot.entity.SensorReading;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
-// This class is not used currently as I do not want to assume the requirements on the shard key.
-// If the shard key would be device type, here is a sample implementation of factory pattern
-// which can be used by the IngestService and QueryService to get the right shard on which data can be saved / queried
+/*
+Owns the shards of the sensor_reading data when sharding.enabled is true. The IngestService asks it which shard a
+reading goes to and the QueryService asks it which shards a query has to visit. A reading is routed on the value of
+the configured shard key dimension (device type by default), so every series lives in exactly one shard and a query
+filtering on the shard key only has to visit that shard.
+When sharding is disabled no shard is created and the readings stay in the main datasource.
+ */
 @Component
 public class SensorReadingRepositoryFactory {
 
-    private final Map<String, SensorRepository> repositoryMap;
+    private final ShardingProperties properties;
+    private final List<SensorRepository> repositories = new ArrayList<>();
+    private ShardRouter router;
+    private Function<SensorReading, String> readingKey;
+    private Function<AggregateQueryParams, String> queryKey;
+    private ExecutorService queryExecutor;
 
     private static final Logger log = LoggerFactory.getLogger(SensorReadingRepositoryFactory.class);
 
-    // The map will ideally contain 3 implementations of the JPA Repository. Each will save data
-    // in their respective shard / table in prototype
-    @Autowired
-    public SensorReadingRepositoryFactory(Map<String, SensorRepository> repositoryMap) {
-        this.repositoryMap = repositoryMap;
-    }
-
-    public SensorRepository getRepository(String deviceType) {
-        switch (deviceType.toLowerCase()) {
-            case "thermostat":
-                return repositoryMap.get("thermostatRepo");
-            case "wearable":
-                return repositoryMap.get("wearableRepo");
-            case "camera":
-                return repositoryMap.get("cameraRepo");
-            default:
-                throw new IllegalArgumentException("Unknown device type: " + deviceType);
+    // Shard inserts use the same JDBC batch size as the main datasource
+    public SensorReadingRepositoryFactory(ShardingProperties properties, PartitioningProperties partitioning,
+                                          @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}") int batchSize) {
+        this.properties = properties;
+        if (!properties.isEnabled()) {
+            return;
         }
+
+        switch (properties.getKey()) {
+            case "deviceId" -> { readingKey = SensorReading::getDeviceId; queryKey = AggregateQueryParams::deviceId; }
+            case "deviceType" -> { readingKey = SensorReading::getDeviceType; queryKey = AggregateQueryParams::deviceType; }
+            case "groupId" -> { readingKey = SensorReading::getGroupId; queryKey = AggregateQueryParams::groupId; }
+            case "metric" -> { readingKey = SensorReading::getMetric; queryKey = AggregateQueryParams::metric; }
+            default -> throw new IllegalArgumentException("Unknown shard key: " + properties.getKey());
+        }
+
+        int count = properties.getCount();
+        router = properties.getStrategy() == ShardingProperties.Strategy.HASH
+                ? new ModuloShardRouter(count)
+                : new ConsistentHashShardRouter(count, properties.getVirtualNodes());
+
+        for (int shard = 0; shard < count; shard++) {
+            repositories.add(new JdbcShardRepository(shard, String.format(properties.getUrlTemplate(), shard),
+                    properties.getUsername(), properties.getPassword(), properties.getPoolSize(), batchSize,
+                    partitioning.isEnabled() ? partitioning.getGranularity() : null));
+        }
+
+        // One thread per shard so that a query visits all shards at the same time
+        AtomicInteger threads = new AtomicInteger();
+        queryExecutor = Executors.newFixedThreadPool(count, r -> {
+            Thread thread = new Thread(r, "shard-query-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.info("SensorReadingRepositoryFactory : {} shards keyed on {} using {}", count, properties.getKey(), properties.getStrategy());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    // Returns the shard owning the given shard key value
+    public SensorRepository getRepository(String shardKey) {
+        return repositories.get(router.shardFor(shardKey));
+    }
+
+    public SensorRepository getRepository(SensorReading reading) {
+        return getRepository(readingKey.apply(reading));
     }
 
+    // Groups the readings by the shard they belong to
+    public Map<SensorRepository, List<SensorReading>> partition(List<SensorReading> readings) {
+        Map<SensorRepository, List<SensorReading>> byShard = new LinkedHashMap<>();
+        for (SensorReading reading : readings) {
+            byShard.computeIfAbsent(getRepository(reading), r -> new ArrayList<>()).add(reading);
+        }
+        return byShard;
+    }
+
+    // Returns the shards a query has to visit, a single one if the query filters on the shard key
+    public List<SensorRepository> getRepositories(AggregateQueryParams params) {
+        String key = queryKey.apply(params);
+        if (key != null && !key.isBlank()) {
+            return List.of(getRepository(key));
+        }
+        return Collections.unmodifiableList(repositories);
+    }
+
+    public List<SensorRepository> getRepositories() {
+        return Collections.unmodifiableList(repositories);
+    }
+
+    public ExecutorService getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (queryExecutor != null) {
+            queryExecutor.shutdownNow();
+        }
+        repositories.forEach(SensorRepository::close);
+    }
 }
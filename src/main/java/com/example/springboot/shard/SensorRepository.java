@@ -1,4 +1,42 @@
 package com.example.springboot.shard;
 
-public interface SensorRepository {
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.RawScan;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.entity.SensorReading;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+/*
+Storage of the readings of a single shard. Readings are stored by series id only, the series dimensions live in the
+sensor_series table of the main datasource (see SeriesDictionary).
+ */
+public interface SensorRepository extends AutoCloseable {
+
+    int getShard();
+
+    // Saves the readings in one transaction of this shard. The series id of every reading must already be resolved
+    int saveAll(Collection<SensorReading> readings);
+
+    /*
+    Computes the partial aggregate of every series with readings between from and to (inclusive). A null seriesIds
+    means all series of the shard.
+     */
+    Map<Integer, PartialAggregate> aggregate(Instant from, Instant to, Collection<Integer> seriesIds, ScanOptions options);
+
+    // Same as aggregate, split into epoch aligned buckets of the given size keyed by their start
+    Map<Instant, Map<Integer, PartialAggregate>> aggregateBuckets(Instant from, Instant to, Collection<Integer> seriesIds,
+                                                                  ScanOptions options, Duration bucket);
+
+    // Timestamps of the oldest and newest readings of the shard, null when it is empty
+    RawScan.TimeRange timeRange();
+
+    // Drops the time partitions ending at or before the cutoff, returns the number dropped (0 if not partitioned)
+    int dropPartitionsBefore(Instant cutoff);
+
+    @Override
+    void close();
 }
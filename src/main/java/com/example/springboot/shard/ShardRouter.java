@@ -0,0 +1,23 @@
+package com.example.springboot.shard;
+
+/*
+Maps the value of the shard key of a reading to the number of the shard that stores it.
+The same value must always map to the same shard, otherwise queries filtering on the shard key would miss readings.
+ */
+public interface ShardRouter {
+
+    int shardFor(String key);
+
+    int getShardCount();
+
+    // Spreads the bits of String.hashCode, which are poorly distributed for short keys like "device-1", "device-2"
+    static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
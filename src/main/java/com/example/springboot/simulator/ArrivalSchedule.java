@@ -0,0 +1,31 @@
+package com.example.springboot.simulator;
+
+import com.example.springboot.config.SimulatorProperties;
+
+/*
+Open-loop schedule of the simulator: the time at which the n-th request is meant to be sent, counted from the start of
+the run, whatever happened to the previous requests. With a constant profile requests are evenly spaced at the full
+rate. With a ramp the rate grows linearly from 0 to the full rate over the ramp-up, i.e. n(t) = rate * t^2 / (2 * rampUp),
+and stays at the full rate afterwards.
+ */
+public final class ArrivalSchedule {
+
+    private final double ratePerNano;
+    private final long rampUpNanos;
+
+    // Requests sent during the ramp-up
+    private final double rampRequests;
+
+    public ArrivalSchedule(double requestsPerSecond, SimulatorProperties.Profile profile, long rampUpNanos) {
+        this.ratePerNano = requestsPerSecond / 1e9;
+        this.rampUpNanos = profile == SimulatorProperties.Profile.RAMP ? rampUpNanos : 0;
+        this.rampRequests = ratePerNano * this.rampUpNanos / 2;
+    }
+
+    public long intendedNanos(long n) {
+        if (n < rampRequests) {
+            return (long) Math.sqrt(2.0 * rampUpNanos * n / ratePerNano);
+        }
+        return rampUpNanos + (long) ((n - rampRequests) / ratePerNano);
+    }
+}
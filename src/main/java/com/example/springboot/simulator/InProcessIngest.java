@@ -0,0 +1,118 @@
+package com.example.springboot.simulator;
+
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.ingest.IngestListener;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.WriteBehindIngestBuffer;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+In process target of the IoTDeviceSimulator (simulator.mode=in-process). The readings are handed to the ingest pipeline
+the way IngestController would: single readings to the write-behind buffer when it is enabled and to
+IngestService.saveReading otherwise, batches to IngestService.ingestBatch. The calls run on a small pool of threads
+standing in for the Tomcat ones, so the dispatcher keeps to its schedule while they block on the database.
+Being an IngestListener, it also sees every reading when it is committed, whichever path saved it, and records the
+commit latency from the intended send time of the reading. Only one run can be tracked at a time.
+ */
+@Component
+public class InProcessIngest implements IngestListener {
+
+    // Both are looked up lazily, the IngestService collects its listeners when it is created
+    private final ObjectProvider<IngestService> ingestService;
+    private final ObjectProvider<WriteBehindIngestBuffer> writeBehindBuffer;
+
+    // Intended send time of the readings submitted and not committed yet
+    private final Map<SensorReading, Long> pending = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    // Commit latencies of the current run in microseconds, null when no run is tracked
+    private volatile Histogram commitLatency;
+    private ExecutorService executor;
+
+    public InProcessIngest(ObjectProvider<IngestService> ingestService,
+                           ObjectProvider<WriteBehindIngestBuffer> writeBehindBuffer) {
+        this.ingestService = ingestService;
+        this.writeBehindBuffer = writeBehindBuffer;
+    }
+
+    void start(int threads, Histogram commitLatency) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "simulator-ingest-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.commitLatency = commitLatency;
+    }
+
+    // Completes with false when the pipeline turned the readings down, i.e. the write-behind buffer was full
+    CompletableFuture<Boolean> submit(List<SensorReading> readings, long intendedNanos) {
+        for (SensorReading reading : readings) {
+            pending.put(reading, intendedNanos);
+        }
+        return CompletableFuture.supplyAsync(() -> ingest(readings), executor)
+                .whenComplete((accepted, failure) -> {
+                    if (failure != null || !accepted) {
+                        readings.forEach(pending::remove);
+                    }
+                });
+    }
+
+    private boolean ingest(List<SensorReading> readings) {
+        if (readings.size() > 1) {
+            ingestService.getObject().ingestBatch(readings);
+            return true;
+        }
+        WriteBehindIngestBuffer buffer = writeBehindBuffer.getIfAvailable();
+        if (buffer != null) {
+            return buffer.offer(readings.get(0));
+        }
+        ingestService.getObject().saveReading(readings.get(0));
+        return true;
+    }
+
+    // Waits for the readings accepted by the write-behind buffer to be committed, false on timeout
+    boolean awaitCommits(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!pending.isEmpty()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    void stop() {
+        commitLatency = null;
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void onSaved(List<SensorReading> readings) {
+        Histogram histogram = commitLatency;
+        if (histogram == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (SensorReading reading : readings) {
+            Long intended = pending.remove(reading);
+            if (intended != null) {
+                histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - intended), histogram.getHighestTrackableValue()));
+            }
+        }
+    }
+}
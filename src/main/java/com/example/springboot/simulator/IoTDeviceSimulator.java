@@ -1,119 +1,245 @@
 package com.example.springboot.simulator;
 
+import com.example.springboot.config.SimulatorProperties;
 import com.example.springboot.entity.SensorReading;
-import com.example.springboot.shard.SensorReadingRepositoryFactory;
-import jakarta.annotation.PostConstruct;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.context.annotation.Bean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /*
-This class simulates 3 types of IOT devices - Thermostats, Wearable devices and vehicle sensors.
-Each type can have multiple device counts that can be configured in the final properties in this file.
-I have just kept these final configurations in the same file for readability purposes. Ideally they would be in the property file.
-I have used a ScheduledThreadPool for simulation. This will be a bottleneck in production setup due to the number of threads required.
-In a production setup, we would use a message queue like MQTT that is usually used for IOT device use cases.
-I have intentionally used threads to keep the setup simple.
+This class simulates IOT devices of several types (thermostats, wearables, vehicle sensors, ...) sending readings to
+the ingest API, and doubles as a load generator. The devices and rates are configured with the simulator.* properties,
+see SimulatorProperties.
+The load is open-loop: every request has an intended send time given by the ArrivalSchedule, and a slow response never
+delays the following requests. A single dispatcher thread waits for the intended time of each request and hands it to
+the asynchronous JDK HttpClient, so tens of thousands of devices need neither a thread each nor virtual threads (the
+project targets Java 17). Latency is measured from the intended send time, so time spent queued behind a slow server or
+behind max-in-flight counts against the server (no coordinated omission). The service time, from the actual send, is
+reported next to it. Both are recorded in HdrHistograms and logged at the end with a throughput summary.
+With simulator.mode=in-process the readings skip HTTP and go straight into the ingest pipeline through InProcessIngest,
+on the same schedule. The report then adds the rows committed per second, the commit latency of the readings and the
+allocation rate of the application threads, which isolates the cost of storage and batching from Tomcat and Jackson.
+In production the devices would rather publish to a message queue like MQTT, the HTTP API is kept for simplicity.
  */
 @Component
 public class IoTDeviceSimulator {
 
-    // All configurations in this simulator can be exported to a properties file for production ready code
+    // Highest latency tracked by the histograms, 1 hour in microseconds. Longer ones are recorded as 1 hour
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
 
-    // Run IOT simulation for 30 seconds and stop
-    private final long SIMULATION_DURATION_IN_SECONDS = 30;
+    // Percentiles logged in the summary line of a histogram
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
 
-    // Max number of parallel threads for scheduling reading simulations
-    private final int SCHEDULER_POOL_SIZE = 15;
+    private final SimulatorProperties properties;
+    private final ObjectMapper objectMapper;
+    private final InProcessIngest inProcessIngest;
 
-    // Counts of different device types
-    private final int THERMOSTAT_SENSOR_COUNT = 5;
-    private final int WEARABLE_SENSOR_COUNT = 3;
-    private final int VEHICLE_SENSOR_COUNT = 7;
+    // To generate random readings, only used by the dispatcher thread
+    private final Random random = new Random();
 
-    // Ingestion URL to be called
-    private static final String INGESTION_URL = "http://localhost:8080/api/ingest";
+    private static final Logger log = LoggerFactory.getLogger(IoTDeviceSimulator.class);
 
-    // Configuration: number of devices per type
-    private final Map<String, Integer> deviceConfig = Map.of(
-            "thermostat", THERMOSTAT_SENSOR_COUNT,
-            "wearable", WEARABLE_SENSOR_COUNT,
-            "vehicle", VEHICLE_SENSOR_COUNT
-    );
+    private record Device(String deviceId, String deviceType, String groupId, String metric) {}
 
-    // To generate random readings
-    private final Random random = new Random();
+    /*
+    Outcome of a run. Latencies are in microseconds, latency from the intended send time, serviceTime from the actual one.
+    commitLatency (from the intended send time as well) and allocatedBytes are only measured in process, they are null
+    and -1 over HTTP.
+     */
+    public record Report(long requests, long readings, long errors, long elapsedNanos, Histogram latency,
+                         Histogram serviceTime, Histogram commitLatency, long allocatedBytes) {
 
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
+        public double requestsPerSecond() {
+            return elapsedNanos == 0 ? 0 : requests * 1e9 / elapsedNanos;
+        }
 
-    // Scheduler to simulate IOT devices for each device type
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(SCHEDULER_POOL_SIZE);
+        public double readingsPerSecond() {
+            return elapsedNanos == 0 ? 0 : readings * 1e9 / elapsedNanos;
+        }
 
-    private static final Logger log = LoggerFactory.getLogger(IoTDeviceSimulator.class);
+        // Readings committed per second, in process only
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 || commitLatency == null ? 0 : commitLatency.getTotalCount() * 1e9 / elapsedNanos;
+        }
 
-    // Starts the IOT simulation for each device type
-    @PostConstruct
+        public double allocatedBytesPerSecond() {
+            return elapsedNanos == 0 || allocatedBytes < 0 ? 0 : allocatedBytes * 1e9 / elapsedNanos;
+        }
+    }
+
+    public IoTDeviceSimulator(SimulatorProperties properties, ObjectMapper objectMapper, InProcessIngest inProcessIngest) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.inProcessIngest = inProcessIngest;
+    }
+
+    // Starts the simulation once the application accepts requests, in the background
+    @EventListener(ApplicationReadyEvent.class)
     public void startSimulation() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Thread dispatcher = new Thread(this::run, "simulator");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
 
-        // For every device type, start the IOT device simulation
-        deviceConfig.forEach((type, count) -> {
+    // Runs the simulation for the configured duration, waits for the last responses and logs the report
+    public Report run() {
 
-            // The device count will be as per the map configuration
-            for (int i = 1; i <= count; i++) {
+        List<Device> devices = devices();
+        int batchSize = Math.max(1, properties.getBatchSize());
+        double requestsPerSecond = devices.size() * 1e9 / properties.getInterval().toNanos() / batchSize;
+        ArrivalSchedule schedule = new ArrivalSchedule(requestsPerSecond, properties.getProfile(), properties.getRampUp().toNanos());
 
-                // Construct the device id using i
-                String deviceId = type + "-" + i;
+        boolean inProcess = properties.getMode() == SimulatorProperties.Mode.IN_PROCESS;
+        URI uri = URI.create(batchSize > 1 ? properties.getUrl() + "/batch" : properties.getUrl());
+        HttpClient client = inProcess ? null : HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(properties.getRequestTimeout())
+                .build();
 
-                // Each IOT device will now emit 1 reading every second, no back pressure, fire and forget semantics
-                scheduler.scheduleAtFixedRate(
-                        () -> generateReading(deviceId, type),
-                        random.nextInt(1000), // Start anytime in the next 1 second
-                        1000, // Send a reading every second
-                        TimeUnit.MILLISECONDS
-                );
+        Histogram latency = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+        Histogram serviceTime = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+        Histogram commitLatency = inProcess ? new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3) : null;
+        LongAdder errors = new LongAdder();
+        Semaphore inFlight = new Semaphore(properties.getMaxInFlight());
+
+        log.info("IoTDeviceSimulator : {} devices, {} requests/s of {} readings for {} ({} profile, {})",
+                devices.size(), String.format("%.1f", requestsPerSecond), batchSize, properties.getDuration(),
+                properties.getProfile(), properties.getMode());
+
+        if (inProcess) {
+            inProcessIngest.start(properties.getInProcessThreads(), commitLatency);
+        }
+        Map<Long, Long> allocatedBefore = inProcess ? allocatedBytesByThread() : Map.of();
+
+        long start = System.nanoTime();
+        long end = start + properties.getDuration().toNanos();
+        long requests = 0;
+        int device = 0;
+
+        while (!devices.isEmpty()) {
+            long intended = start + schedule.intendedNanos(requests);
+            if (intended >= end) {
+                break;
             }
-        });
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            List<SensorReading> readings = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                readings.add(generateReading(devices.get(device)));
+                device = (device + 1) % devices.size();
+            }
+            HttpRequest request = inProcess ? null : HttpRequest.newBuilder(uri)
+                    .timeout(properties.getRequestTimeout())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(toJson(batchSize > 1 ? readings : readings.get(0))))
+                    .build();
+
+            inFlight.acquireUninterruptibly();
+            long sent = System.nanoTime();
+            CompletableFuture<Boolean> accepted = inProcess
+                    ? inProcessIngest.submit(readings, intended)
+                    : client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> response.statusCode() < 300);
+            accepted.whenComplete((ok, failure) -> {
+                long done = System.nanoTime();
+                inFlight.release();
+                latency.recordValue(toMicros(done - intended));
+                serviceTime.recordValue(toMicros(done - sent));
+                if (failure != null || !ok) {
+                    errors.increment();
+                }
+            });
+            requests++;
+        }
+
+        // Waits for the responses still in flight, they time out after request-timeout anyway
+        try {
+            if (!inFlight.tryAcquire(properties.getMaxInFlight(), properties.getRequestTimeout().toNanos() * 2, TimeUnit.NANOSECONDS)) {
+                log.warn("IoTDeviceSimulator : gave up waiting for the last responses");
+            }
+            // Readings taken by the write-behind buffer are committed after the call returned
+            if (inProcess && !inProcessIngest.awaitCommits(properties.getRequestTimeout())) {
+                log.warn("IoTDeviceSimulator : gave up waiting for the last commits");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = -1;
+        if (inProcess) {
+            allocated = allocatedSince(allocatedBefore);
+            inProcessIngest.stop();
+        }
 
-        // Schedule shutdown after the configured timeout
-        scheduler.schedule(() -> {
-            scheduler.shutdown();
-            System.out.println("Simulation stopped after " + SIMULATION_DURATION_IN_SECONDS + " seconds.");
-        }, SIMULATION_DURATION_IN_SECONDS, TimeUnit.SECONDS);
+        Report report = new Report(requests, requests * batchSize, errors.sum(), elapsed, latency, serviceTime,
+                commitLatency, allocated);
+        log(report);
+        return report;
     }
 
-    private void generateReading(String deviceId, String deviceType) {
+    // The devices of every type, each one in a fixed group
+    private List<Device> devices() {
+        List<Device> devices = new ArrayList<>();
+        properties.getDevices().forEach((type, count) -> {
+            // The metric depends on the device type. This is mainly to make the design extendable to new metrics from
+            // the same device type and device id
+            String metric = switch (type.toLowerCase()) {
+                case "thermostat" -> "temperature";
+                case "wearable" -> "heart_rate";
+                case "vehicle" -> "fuel_consumption";
+                default -> "generic_metric";
+            };
+            for (int i = 1; i <= count; i++) {
+                devices.add(new Device(type + "-" + i, type, "group-" + (i % 5), metric));
+            }
+        });
+        return devices;
+    }
+
+    private SensorReading generateReading(Device device) {
 
         SensorReading reading = new SensorReading();
-        reading.setDeviceId(deviceId);
-        reading.setDeviceType(deviceType);
-
-        // Generate the group name randomly
-        reading.setGroupId("group-" + random.nextInt(5)); // example group assignment
-
-        // Set the metric based on device type
-        // This is mainly to make the design extendable to new metrics from the same device type and device id, otherwise this is not necessary
-        String metric = switch (deviceType.toLowerCase()) {
-            case "thermostat" -> "temperature";
-            case "wearable" -> "heart_rate";
-            case "vehicle" -> "fuel_consumption";
-            default -> "generic_metric";
-        };
-        reading.setMetric("temperature");
+        reading.setDeviceId(device.deviceId());
+        reading.setDeviceType(device.deviceType());
+        reading.setGroupId(device.groupId());
+        reading.setMetric(device.metric());
 
         // Generate meaningful IOT device reading based on device type
-        double readingValue = switch (deviceType.toLowerCase()) {
+        double readingValue = switch (device.deviceType().toLowerCase()) {
             case "thermostat" -> 20 + random.nextDouble() * 10;     // 20–30 °C
             case "wearable"   -> 60 + random.nextInt(40);    // 60–100 bpm
             case "vehicle"    -> 5 + random.nextDouble() * 15;      // 5–20 L/h
@@ -122,9 +248,81 @@ public class IoTDeviceSimulator {
         reading.setReading(readingValue);
 
         reading.setTs(Instant.now());
+        return reading;
+    }
 
-        // Call the /api/ingest endpoint
-        restTemplate().postForObject(INGESTION_URL, reading, Void.class);
+    private byte[] toJson(Object body) {
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
+    // Bytes allocated so far by every live thread but the current one, the dispatcher, by thread id. Empty when the JVM
+    // does not measure it
+    private static Map<Long, Long> allocatedBytesByThread() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return Map.of();
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> byThread = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != Thread.currentThread().getId() && bytes[i] >= 0) {
+                byThread.put(ids[i], bytes[i]);
+            }
+        }
+        return byThread;
+    }
+
+    // Threads that ended in between are not counted, the ones started in between are counted from 0. -1 when not measured
+    private static long allocatedSince(Map<Long, Long> before) {
+        Map<Long, Long> after = allocatedBytesByThread();
+        if (after.isEmpty()) {
+            return -1;
+        }
+        long allocated = 0;
+        for (Map.Entry<Long, Long> thread : after.entrySet()) {
+            allocated += thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
+        }
+        return allocated;
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_LATENCY_MICROS);
+    }
+
+    private void log(Report report) {
+        log.info("IoTDeviceSimulator : {} requests ({} readings) in {} s, {} requests/s, {} readings/s, {} errors",
+                report.requests(), report.readings(), String.format("%.1f", report.elapsedNanos() / 1e9),
+                String.format("%.1f", report.requestsPerSecond()), String.format("%.1f", report.readingsPerSecond()),
+                report.errors());
+        log.info("IoTDeviceSimulator : latency from intended send (ms) {}", summary(report.latency()));
+        log.info("IoTDeviceSimulator : service time from actual send (ms) {}", summary(report.serviceTime()));
+        if (report.commitLatency() != null) {
+            log.info("IoTDeviceSimulator : {} rows committed, {} rows/s, commit latency from intended send (ms) {}",
+                    report.commitLatency().getTotalCount(), String.format("%.1f", report.rowsPerSecond()),
+                    summary(report.commitLatency()));
+        }
+        if (report.allocatedBytes() >= 0) {
+            log.info("IoTDeviceSimulator : allocation rate {} MB/s, {} bytes per reading",
+                    String.format("%.1f", report.allocatedBytesPerSecond() / (1024 * 1024)),
+                    report.readings() == 0 ? 0 : report.allocatedBytes() / report.readings());
+        }
+
+        ByteArrayOutputStream distribution = new ByteArrayOutputStream();
+        report.latency().outputPercentileDistribution(new PrintStream(distribution, true, StandardCharsets.UTF_8), 1000.0);
+        log.info("IoTDeviceSimulator : latency distribution from intended send (ms)\n{}", distribution.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String summary(Histogram histogram) {
+        StringBuilder summary = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            summary.append("p").append(BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString()).append("=")
+                    .append(String.format("%.2f", histogram.getValueAtPercentile(percentile) / 1000.0)).append(" ");
+        }
+        return summary.append("max=").append(String.format("%.2f", histogram.getMaxValue() / 1000.0)).toString();
+    }
 }
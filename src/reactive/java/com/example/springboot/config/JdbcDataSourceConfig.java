@@ -0,0 +1,40 @@
+package com.example.springboot.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+/*
+Spring Boot does not configure a DataSource when an R2DBC ConnectionFactory is present, and the JPA transaction manager
+backs off when the R2DBC one exists. JPA still owns the schema, the series and every servlet and JDBC path, so with the
+reactive dependencies on the classpath both are declared here from the usual spring.datasource properties. The JPA
+transaction manager stays the default one for @Transactional, the reactive services use the R2DBC one explicitly.
+ */
+@Configuration(proxyBeanMethods = false)
+public class JdbcDataSourceConfig {
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource")
+    public DataSourceProperties dataSourceProperties() {
+        return new DataSourceProperties();
+    }
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
+    }
+}
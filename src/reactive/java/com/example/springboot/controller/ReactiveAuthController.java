@@ -0,0 +1,63 @@
+package com.example.springboot.controller;
+
+import com.example.springboot.bean.LoginRequest;
+import com.example.springboot.bean.LoginResponse;
+import com.example.springboot.config.JwtProperties;
+import com.example.springboot.exception.CustomException;
+import com.example.springboot.security.JwtService;
+import jakarta.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+/*
+Reactive version of the AuthController, generates the JWT token if the user name and password are correct and revokes
+it on logout.
+ */
+@RestController
+@RequestMapping("/api/auth")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAuthController {
+
+    private final ReactiveAuthenticationManager authenticationManager;
+    private final JwtService jwtService;
+    private final JwtProperties jwtProperties;
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveAuthController.class);
+
+    public ReactiveAuthController(ReactiveAuthenticationManager authenticationManager, JwtService jwtService,
+                                  JwtProperties jwtProperties) {
+        this.authenticationManager = authenticationManager;
+        this.jwtService = jwtService;
+        this.jwtProperties = jwtProperties;
+    }
+
+    @PostMapping("/login")
+    public Mono<ResponseEntity<LoginResponse>> login(@Valid @RequestBody LoginRequest loginRequest) {
+
+        log.info("ReactiveAuthController : login attempted for user name {}", loginRequest.getUsername());
+
+        return authenticationManager.authenticate(new UsernamePasswordAuthenticationToken(
+                        loginRequest.getUsername(), loginRequest.getPassword()))
+                .map(authentication -> ResponseEntity.ok(new LoginResponse(
+                        jwtService.generateToken(loginRequest.getUsername()), jwtProperties.getExpiration())));
+    }
+
+    @PostMapping("/logout")
+    public Mono<ResponseEntity<Void>> logout(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+
+        if (authHeader == null || !authHeader.startsWith("Bearer ") || !jwtService.revoke(authHeader.substring(7))) {
+            return Mono.error(new CustomException("Missing or invalid token", CustomException.ErrorCode.VALIDATION_ERROR));
+        }
+        return Mono.just(ResponseEntity.noContent().build());
+    }
+}
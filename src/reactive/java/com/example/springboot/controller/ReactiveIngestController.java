@@ -0,0 +1,63 @@
+package com.example.springboot.controller;
+
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.service.ReactiveIngestService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+Reactive version of the IngestController. A single reading is validated by Spring like on the servlet stack and saved
+before the 201. The batch API takes a JSON array and the stream API newline delimited JSON, both are decoded one
+reading at a time while the body arrives and written in chunks by the ReactiveIngestService.
+Write-behind buffering, gzip bodies and the binary frame format are only available on the servlet stack.
+ */
+@RestController
+@RequestMapping("/api/ingest")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveIngestController {
+
+    private final ReactiveIngestService service;
+
+    // Upper bound on the number of readings accepted in a single batch request
+    @Value("${ingest.batch.max-size:10000}")
+    private int maxBatchSize = 10000;
+
+    public ReactiveIngestController(ReactiveIngestService service) {
+        this.service = service;
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<Void>> ingestReading(@RequestBody @Validated(SensorReading.Ingest.class) Mono<SensorReading> req) {
+        return req.flatMap(service::saveReading)
+                .thenReturn(ResponseEntity.status(HttpStatus.CREATED).build());
+    }
+
+    @PostMapping("/batch")
+    public Mono<ResponseEntity<BatchIngestResponse>> ingestBatch(@RequestBody Flux<SensorReading> readings) {
+        return service.ingestBatch(readings, maxBatchSize).map(ReactiveIngestController::toResponse);
+    }
+
+    // A stream has no size limit, like the NDJSON endpoint of the servlet stack
+    @PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<BatchIngestResponse>> ingestStream(@RequestBody Flux<SensorReading> readings) {
+        return service.ingestStream(readings).map(ReactiveIngestController::toResponse);
+    }
+
+    private static ResponseEntity<BatchIngestResponse> toResponse(BatchIngestResponse response) {
+        HttpStatus status = (response.getAccepted() == 0 && !response.getRejected().isEmpty())
+                ? HttpStatus.BAD_REQUEST
+                : HttpStatus.CREATED;
+        return ResponseEntity.status(status).body(response);
+    }
+}
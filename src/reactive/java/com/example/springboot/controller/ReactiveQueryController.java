@@ -0,0 +1,47 @@
+package com.example.springboot.controller;
+
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.exception.CustomException;
+import com.example.springboot.service.ReactiveQueryService;
+import jakarta.validation.Valid;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+/*
+Reactive version of the QueryController, with the same parameters and validations. The groups are returned as a Flux,
+written as a JSON array by default and one per line with Accept: application/x-ndjson. As with the servlet stack an
+empty result is a 204 for JSON, and simply an empty stream for NDJSON.
+ */
+@RestController
+@RequestMapping("/api/query")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveQueryController {
+
+    private final ReactiveQueryService service;
+
+    public ReactiveQueryController(ReactiveQueryService service) {
+        this.service = service;
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public Flux<?> queryAggregates(@Valid AggregateQueryParams params) {
+        return query(params).switchIfEmpty(Flux.error(
+                new CustomException("No matching records found", CustomException.ErrorCode.NO_RECORDS_FOUND)));
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<?> streamAggregates(@Valid AggregateQueryParams params) {
+        return query(params);
+    }
+
+    // The agg functions, orderBy and interval are checked before the Flux is returned, so a bad one is a 400
+    private Flux<?> query(AggregateQueryParams params) {
+        params.functions();
+        params.order();
+        return params.intervalDuration() != null ? service.getSeries(params) : service.getAggregates(params);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.springboot.exception;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/*
+WebFlux reports binding and body errors with its own exceptions. They are turned into the same error responses as
+their servlet counterparts in the GlobalExceptionHandler, which handles everything else on both stacks. Ordered first
+so that these are not caught by its generic fallback.
+ */
+@RestControllerAdvice
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveExceptionHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveExceptionHandler.class);
+
+    // Handle @Valid / @Validated validation errors, including values that could not be converted
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<Object> handleValidationException(WebExchangeBindException ex) {
+
+        log.info("ReactiveExceptionHandler : WebExchangeBindException caught");
+
+        Map<String, String> errors = ex.getBindingResult().getFieldErrors()
+                .stream()
+                .collect(Collectors.toMap(
+                        fe -> fe.getField(),
+                        fe -> fe.getDefaultMessage(),
+                        (first, second) -> first
+                ));
+
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(Map.of(
+                "errorCode", CustomException.ErrorCode.VALIDATION_ERROR,
+                "errors", errors
+        ));
+    }
+
+    // Handle a body that cannot be decoded
+    @ExceptionHandler(ServerWebInputException.class)
+    public ResponseEntity<Object> handleInvalidInput(ServerWebInputException ex) {
+
+        log.info("ReactiveExceptionHandler : ServerWebInputException caught");
+
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(Map.of(
+                "errorCode", CustomException.ErrorCode.VALIDATION_ERROR,
+                "message", "Invalid value for field"
+        ));
+    }
+}
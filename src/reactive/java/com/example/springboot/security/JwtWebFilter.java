@@ -0,0 +1,44 @@
+package com.example.springboot.security;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/*
+Reactive version of the JwtAuthenticationFilter. A request with a valid "Authorization: Bearer" token is authenticated
+as the user name of the token. Other requests go on unauthenticated, and the ReactiveSecurityConfig rejects them with a
+401 if the path needs a token.
+ */
+public class JwtWebFilter implements WebFilter {
+
+    private final JwtService jwtService;
+
+    public JwtWebFilter(JwtService jwtService) {
+        this.jwtService = jwtService;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+        String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return chain.filter(exchange);
+        }
+
+        Claims claims = jwtService.verify(authHeader.substring(7));
+        if (claims == null) {
+            return chain.filter(exchange);
+        }
+
+        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
+                claims.getSubject(), null, List.of());
+        return chain.filter(exchange).contextWrite(ReactiveSecurityContextHolder.withAuthentication(authentication));
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.springboot.service;
+
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.exception.CustomException;
+import com.example.springboot.partition.PartitionedReadingStore;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Non blocking counterpart of the IngestService for the reactive profile. Readings are validated against the same
+SensorReading.Ingest group and written to sensor_reading over R2DBC. The stream of readings is cut into chunks, and
+while a chunk is written at most one more is read from the request body, so a client sending faster than the database
+writes is slowed down by TCP instead of the readings piling up in memory. Every chunk is committed on its own,
+like the NDJSON endpoint of the servlet stack does, and the IngestListeners are notified once it is.
+Resolving the series goes through the SeriesDictionary, which is JPA based. It is only blocking for series that were
+never seen, and runs on the boundedElastic scheduler so that the event loop is never blocked.
+Sharding and time partitioning write through JDBC and are not supported here, the application fails to start when
+either is enabled.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveIngestService {
+
+    // Same as the allocationSize of sensor_reading_seq. A chunk takes its ids from a single value of the sequence, the
+    // way the pooled optimizer of Hibernate does, so the ids never collide with the ones handed out by JPA
+    static final int CHUNK_SIZE = 500;
+
+    private static final String INSERT = "INSERT INTO sensor_reading (id, series_id, reading, ts) VALUES ($1, $2, $3, $4)";
+
+    private final IngestService ingestService;
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactions;
+
+    @Value("${ingest.stream.max-reported-rejections:1000}")
+    private int maxReportedRejections = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveIngestService.class);
+
+    public ReactiveIngestService(IngestService ingestService, DatabaseClient databaseClient,
+                                 R2dbcTransactionManager transactionManager,
+                                 SensorReadingRepositoryFactory shards, PartitionedReadingStore partitions) {
+        if (shards.isEnabled() || partitions.isEnabled()) {
+            throw new IllegalStateException("The reactive profile does not support sharding or time partitioning");
+        }
+        this.ingestService = ingestService;
+        this.databaseClient = databaseClient;
+        this.transactions = TransactionalOperator.create(transactionManager);
+    }
+
+    // Saves a single reading that was already validated by the controller
+    public Mono<SensorReading> saveReading(SensorReading reading) {
+        return save(List.of(reading)).thenReturn(reading);
+    }
+
+    // A JSON array of readings. More than maxReadings readings fail the request, the chunks before stay saved
+    public Mono<BatchIngestResponse> ingestBatch(Flux<SensorReading> readings, int maxReadings) {
+        return ingest(readings, maxReadings, maxReadings);
+    }
+
+    // An unbounded stream of readings, only the first rejections are reported in detail like for the servlet NDJSON API.
+    // Unlike there, a line that is not valid JSON fails the rest of the upload
+    public Mono<BatchIngestResponse> ingestStream(Flux<SensorReading> readings) {
+        return ingest(readings, Integer.MAX_VALUE, maxReportedRejections);
+    }
+
+    /*
+    Validates and saves a stream of readings. Invalid readings are skipped and reported back with their position in
+    the stream, like the batch API does.
+     */
+    private Mono<BatchIngestResponse> ingest(Flux<SensorReading> readings, int maxReadings, int maxRejections) {
+
+        return Mono.defer(() -> {
+            // State of this subscription, only touched by the serialized signals of the stream
+            AtomicInteger received = new AtomicInteger();
+            List<BatchIngestResponse.RejectedReading> rejected = new ArrayList<>();
+
+            return readings
+                    .<SensorReading>handle((reading, sink) -> {
+                        int index = received.getAndIncrement();
+                        if (index >= maxReadings) {
+                            sink.error(new CustomException("Batch size exceeds the maximum of " + maxReadings,
+                                    CustomException.ErrorCode.VALIDATION_ERROR));
+                            return;
+                        }
+                        Map<String, String> errors = ingestService.validate(reading);
+                        if (errors.isEmpty()) {
+                            sink.next(reading);
+                        } else if (rejected.size() < maxRejections) {
+                            rejected.add(new BatchIngestResponse.RejectedReading(index, errors));
+                        }
+                    })
+                    .buffer(CHUNK_SIZE)
+                    // One chunk is written at a time, the next one is only buffered meanwhile
+                    .concatMap(this::save, 1)
+                    .reduce(0, Integer::sum)
+                    .map(saved -> {
+                        log.info("ReactiveIngestService : {} readings received, {} saved, {} rejected",
+                                received.get(), saved, received.get() - saved);
+                        return new BatchIngestResponse(received.get(), saved, rejected);
+                    });
+        });
+    }
+
+    private Mono<Integer> save(List<SensorReading> chunk) {
+        return Mono.fromRunnable(() -> ingestService.resolveSeries(chunk))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then(insert(chunk).as(transactions::transactional))
+                // The listeners update in memory state synchronously, e.g. the rollups, so they are kept off the event loop
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(saved -> ingestService.notifyListeners(chunk));
+    }
+
+    private Mono<Integer> insert(List<SensorReading> chunk) {
+        return nextIdBlock().flatMap(lastId -> databaseClient.inConnection(connection -> {
+            Statement statement = connection.createStatement(INSERT);
+            long id = lastId - chunk.size() + 1;
+            for (int i = 0; i < chunk.size(); i++) {
+                SensorReading reading = chunk.get(i);
+                reading.setId(id + i);
+                if (i > 0) {
+                    statement.add();
+                }
+                statement.bind(0, reading.getId())
+                        .bind(1, reading.getSeriesId())
+                        .bind(2, reading.getReading())
+                        .bind(3, reading.getTs().atOffset(ZoneOffset.UTC));
+            }
+            return Flux.from(statement.execute())
+                    .flatMap(Result::getRowsUpdated)
+                    .reduce(0L, Long::sum)
+                    .map(Long::intValue);
+        }));
+    }
+
+    // The last id of a block of CHUNK_SIZE ids. The very first value of the sequence is the start of the first block
+    // of Hibernate, it is skipped
+    private Mono<Long> nextIdBlock() {
+        Mono<Long> next = databaseClient.sql("SELECT NEXT VALUE FOR sensor_reading_seq")
+                .map(row -> row.get(0, Long.class))
+                .one();
+        return next.flatMap(value -> value < CHUNK_SIZE ? next : Mono.just(value));
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.springboot.service;
+
+import com.example.springboot.aggregate.AggregateAssembler;
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.SeriesResponse;
+import com.example.springboot.repository.SeriesDictionary;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Non blocking counterpart of the QueryService for the reactive profile. The raw readings of the range are streamed from
+sensor_reading over R2DBC into per series partial aggregates, which are then grouped, ordered and paged by the
+AggregateAssembler, the same way the servlet stack answers a query from a scan. The median and percentiles follow
+the same rule as there (see AggregateQueryParams.exactQuantiles): the default median is the one of the SQL path, and
+only exact=false or percentiles without the median come from the sketches. With an interval the partials are kept per time bucket and
+pivoted into series like QueryService.getSeries does, with the same restrictions.
+The readings are read with backpressure and only their partial aggregates are kept, so the memory used grows with the
+number of series and not with the number of readings (unless exact quantiles are requested).
+The hot tier, rollups, incremental aggregation and the result cache of the servlet stack are not used here.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveQueryService {
+
+    // Above this many series ids the filter is applied while streaming the rows instead of in an IN list
+    private static final int MAX_SERIES_IN_LIST = 1000;
+
+    private final DatabaseClient databaseClient;
+    private final SeriesDictionary seriesDictionary;
+    private final QueryService queryService;
+
+    // Same meter as the raw scans of the QueryService
+    private final DistributionSummary rowsScanned;
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveQueryService.class);
+
+    private record Row(int seriesId, double value, long tsMicros) {}
+
+    public ReactiveQueryService(DatabaseClient databaseClient, SeriesDictionary seriesDictionary, QueryService queryService,
+                                MeterRegistry meterRegistry) {
+        this.databaseClient = databaseClient;
+        this.seriesDictionary = seriesDictionary;
+        this.queryService = queryService;
+        this.rowsScanned = DistributionSummary.builder("query.rows.scanned").tag("source", "raw")
+                .description("Readings read per scan of a query")
+                .register(meterRegistry);
+    }
+
+    // One AggregateResponse per group, in orderBy order. Empty when nothing matches
+    public Flux<AggregateResponse> getAggregates(AggregateQueryParams params) {
+
+        log.info("ReactiveQueryService : getAggregates");
+
+        ScanOptions options = ScanOptions.of(params);
+
+        return seriesIds(params)
+                .flatMap(seriesIds -> scan(params, seriesIds)
+                        .collect(HashMap<Integer, PartialAggregate>::new, (bySeries, row) -> add(bySeries
+                                .computeIfAbsent(row.seriesId(), id -> new PartialAggregate(options.exact())), row, options)))
+                // The labels of the series come from the SeriesDictionary, which may have to load them
+                .publishOn(Schedulers.boundedElastic())
+                .flatMapIterable(bySeries -> AggregateAssembler.assemble(bySeries, params, seriesDictionary));
+    }
+
+    // One SeriesResponse per group, with a row per non empty bucket. Empty when nothing matches
+    public Flux<SeriesResponse> getSeries(AggregateQueryParams params) {
+
+        log.info("ReactiveQueryService : getSeries");
+
+        queryService.validateSeries(params);
+
+        ScanOptions options = ScanOptions.of(params);
+        long size = params.intervalDuration().toNanos() / 1000;
+
+        return seriesIds(params)
+                .flatMap(seriesIds -> scan(params, seriesIds)
+                        .collect(TreeMap<Long, Map<Integer, PartialAggregate>>::new, (buckets, row) -> add(buckets
+                                .computeIfAbsent(Math.floorDiv(row.tsMicros(), size) * size, b -> new HashMap<>())
+                                .computeIfAbsent(row.seriesId(), id -> new PartialAggregate(options.exact())), row, options)))
+                .publishOn(Schedulers.boundedElastic())
+                .flatMapIterable(buckets -> {
+                    List<AggregateResponse> rows = new ArrayList<>();
+                    buckets.forEach((start, bySeries) -> {
+                        Instant bucket = Instant.EPOCH.plus(start, ChronoUnit.MICROS);
+                        for (AggregateResponse row : AggregateAssembler.assemble(bySeries, params, seriesDictionary)) {
+                            row.setBucket(bucket);
+                            rows.add(row);
+                        }
+                    });
+                    return AggregateAssembler.toSeries(rows, params);
+                });
+    }
+
+    // The series ids matching the filters, empty Optional when there is no filter. Resolved off the event loop as the
+    // SeriesDictionary is loaded through JPA on first use
+    private Mono<Optional<List<Integer>>> seriesIds(AggregateQueryParams params) {
+        if (!isSet(params.deviceId()) && !isSet(params.deviceType()) && !isSet(params.groupId()) && !isSet(params.metric())) {
+            return Mono.just(Optional.empty());
+        }
+        return Mono.fromCallable(() -> Optional.of(seriesDictionary.findIds(
+                        params.deviceId(), params.deviceType(), params.groupId(), params.metric())))
+                .subscribeOn(Schedulers.boundedElastic())
+                .filter(seriesIds -> !seriesIds.get().isEmpty());
+    }
+
+    // The readings with from <= ts <= to of the series, all series when seriesIds is empty
+    private Flux<Row> scan(AggregateQueryParams params, Optional<List<Integer>> seriesIds) {
+
+        String sql = "SELECT series_id, reading, ts FROM sensor_reading WHERE ts BETWEEN :from AND :to";
+        boolean inList = seriesIds.isPresent() && seriesIds.get().size() <= MAX_SERIES_IN_LIST;
+        if (inList) {
+            sql += " AND series_id IN (:seriesIds)";
+        }
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql)
+                .bind("from", params.from().atOffset(ZoneOffset.UTC))
+                .bind("to", params.to().atOffset(ZoneOffset.UTC));
+        if (inList) {
+            spec = spec.bind("seriesIds", seriesIds.get());
+        }
+
+        AtomicLong scanned = new AtomicLong();
+        Flux<Row> rows = spec.map(row -> new Row(
+                        row.get(0, Integer.class),
+                        row.get(1, Double.class),
+                        ChronoUnit.MICROS.between(Instant.EPOCH, row.get(2, OffsetDateTime.class).toInstant())))
+                .all()
+                .doOnNext(row -> scanned.incrementAndGet())
+                .doOnComplete(() -> rowsScanned.record(scanned.get()));
+
+        if (seriesIds.isPresent() && !inList) {
+            Set<Integer> filter = new HashSet<>(seriesIds.get());
+            rows = rows.filter(row -> filter.contains(row.seriesId()));
+        }
+        return rows;
+    }
+
+    // Like RawScan, first and last are only tracked when asked for
+    private static void add(PartialAggregate partial, Row row, ScanOptions options) {
+        if (options.timestamps()) {
+            partial.add(row.tsMicros(), row.value());
+        } else {
+            partial.add(row.value());
+        }
+    }
+
+    private static boolean isSet(String filter) {
+        return filter != null && !filter.isBlank();
+    }
+}
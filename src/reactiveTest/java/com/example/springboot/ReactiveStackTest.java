@@ -0,0 +1,252 @@
+package com.example.springboot;
+
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.bean.SeriesResponse;
+import com.example.springboot.service.QueryService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// The reactive controllers on Netty, over their own database shared by JPA and R2DBC. Only built with -Preactive
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:reactivetest;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.url=r2dbc:h2:mem:///reactivetest",
+        "security.enabled=false"
+})
+@ActiveProfiles("reactive")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ReactiveStackTest {
+
+    @Autowired
+    private WebTestClient client;
+
+    // The servlet query path, used as the reference
+    @Autowired
+    private QueryService queryService;
+
+    private final Instant start = Instant.parse("2024-07-01T00:00:00Z");
+
+    private static final String RANGE = "from=2024-07-01T00:00:00Z&to=2024-07-01T23:59:59Z";
+
+    @BeforeAll
+    void setUp() {
+        // 1200 readings in 3 chunks, every 100th one is missing its metric
+        List<Map<String, Object>> readings = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            Map<String, Object> reading = new HashMap<>(Map.of(
+                    "deviceId", "pump-" + (i % 4),
+                    "deviceType", "pump",
+                    "groupId", "plant-" + (i % 2),
+                    "reading", 10 + (i * 7 % 50) / 10.0,
+                    "ts", start.plusSeconds(i * 60L).toString()));
+            if (i % 100 != 0) {
+                reading.put("metric", "pressure");
+            }
+            readings.add(reading);
+        }
+
+        BatchIngestResponse response = client.post().uri("/api/ingest/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(readings)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(BatchIngestResponse.class)
+                .returnResult().getResponseBody();
+
+        assertNotNull(response);
+        assertEquals(1200, response.getReceived());
+        assertEquals(1188, response.getAccepted());
+        assertEquals(12, response.getRejected().size());
+        assertEquals(100, response.getRejected().get(1).index());
+        assertEquals(Map.of("metric", "must not be null"), response.getRejected().get(1).errors());
+    }
+
+    private AggregateQueryParams params(String agg) {
+        return new AggregateQueryParams(null, "pump", null, null, start, Instant.parse("2024-07-01T23:59:59Z"), agg,
+                true, false, false, false, true, null, null, null, null, null);
+    }
+
+    @Test
+    void testAggregatesMatchServletStack() {
+        List<AggregateResponse> actual = client.get()
+                .uri("/api/query?deviceType=pump&groupByDeviceId=true&exact=true&agg=count,sum,avg,min,max,stddev,median&" + RANGE)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(AggregateResponse.class)
+                .returnResult().getResponseBody();
+
+        List<AggregateResponse> expected = queryService.getAggregates(params("count,sum,avg,min,max,stddev,median"));
+
+        assertNotNull(actual);
+        assertEquals(4, actual.size());
+        actual.sort(Comparator.comparing(AggregateResponse::getDeviceId));
+        expected = new ArrayList<>(expected);
+        expected.sort(Comparator.comparing(AggregateResponse::getDeviceId));
+        for (int i = 0; i < expected.size(); i++) {
+            AggregateResponse e = expected.get(i);
+            AggregateResponse a = actual.get(i);
+            assertEquals(e.getDeviceId(), a.getDeviceId());
+            assertEquals(e.getCount(), a.getCount());
+            assertEquals(e.getSumValue(), a.getSumValue(), 1e-6);
+            assertEquals(e.getAvgValue(), a.getAvgValue(), 1e-9);
+            assertEquals(e.getMinValue(), a.getMinValue());
+            assertEquals(e.getMaxValue(), a.getMaxValue());
+            assertEquals(e.getStddevValue(), a.getStddevValue(), 1e-9);
+            assertEquals(e.getMedianValue(), a.getMedianValue(), 1e-9);
+        }
+    }
+
+    @Test
+    void testDefaultMedianMatchesServletStack() {
+        List<AggregateResponse> actual = client.get()
+                .uri("/api/query?deviceType=pump&groupByDeviceId=true&" + RANGE)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(AggregateResponse.class)
+                .returnResult().getResponseBody();
+
+        // Default agg and no exact, the servlet stack computes the median in SQL
+        List<AggregateResponse> expected = new ArrayList<>(queryService.getAggregates(new AggregateQueryParams(null,
+                "pump", null, null, start, Instant.parse("2024-07-01T23:59:59Z"), null, true, false, false, false,
+                null, null, null, null, null, null)));
+
+        assertNotNull(actual);
+        actual.sort(Comparator.comparing(AggregateResponse::getDeviceId));
+        expected.sort(Comparator.comparing(AggregateResponse::getDeviceId));
+        assertEquals(expected.stream().map(AggregateResponse::getMedianValue).toList(),
+                actual.stream().map(AggregateResponse::getMedianValue).toList());
+    }
+
+    @Test
+    void testTopGroupsAndNdjson() {
+        List<AggregateResponse> groups = client.get()
+                .uri("/api/query?deviceType=pump&groupByDeviceId=true&agg=max&orderBy=max:asc&limit=2&offset=1&" + RANGE)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(AggregateResponse.class)
+                .returnResult().getResponseBody();
+
+        List<AggregateResponse> expected = queryService.getAggregates(new AggregateQueryParams(null, "pump", null, null,
+                start, Instant.parse("2024-07-01T23:59:59Z"), "max", true, false, false, false, null, null, 2, 1,
+                "max:asc", null));
+
+        assertNotNull(groups);
+        assertEquals(expected.stream().map(AggregateResponse::getDeviceId).toList(),
+                groups.stream().map(AggregateResponse::getDeviceId).toList());
+    }
+
+    @Test
+    void testSeriesMatchServletStack() {
+        List<SeriesResponse> series = client.get()
+                .uri("/api/query?deviceType=pump&groupByGroupId=true&agg=count,avg&interval=6h&" + RANGE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(SeriesResponse.class)
+                .returnResult().getResponseBody();
+
+        List<SeriesResponse> expected = queryService.getSeries(new AggregateQueryParams(null, "pump", null, null,
+                start, Instant.parse("2024-07-01T23:59:59Z"), "count,avg", false, false, true, false, null, "6h",
+                null, null, null, null));
+
+        assertNotNull(series);
+        assertEquals(2, series.size());
+        series.sort(Comparator.comparing(SeriesResponse::getGroupId));
+        expected = new ArrayList<>(expected);
+        expected.sort(Comparator.comparing(SeriesResponse::getGroupId));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getColumns(), series.get(i).getColumns());
+            assertEquals(expected.get(i).getValues().size(), series.get(i).getValues().size());
+            for (int row = 0; row < expected.get(i).getValues().size(); row++) {
+                List<Object> e = expected.get(i).getValues().get(row);
+                List<Object> a = series.get(i).getValues().get(row);
+                assertEquals(Instant.parse(e.get(0).toString()), Instant.parse(a.get(0).toString()));
+                assertEquals(((Number) e.get(1)).longValue(), ((Number) a.get(1)).longValue());
+                assertEquals(((Number) e.get(2)).doubleValue(), ((Number) a.get(2)).doubleValue(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void testSameValidationAsServletStack() {
+        client.get().uri("/api/query?limit=0&" + RANGE)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.errorCode").isEqualTo("VALIDATION_ERROR");
+
+        client.get().uri("/api/query?agg=mode&" + RANGE)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.errorCode").isEqualTo("VALIDATION_ERROR");
+
+        client.post().uri("/api/ingest")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("deviceId", "pump-0", "deviceType", "pump", "groupId", "plant-0", "reading", 1.0))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.errors.metric").isEqualTo("must not be null");
+    }
+
+    @Test
+    void testNoRecords() {
+        client.get().uri("/api/query?deviceId=unknown&" + RANGE)
+                .exchange()
+                .expectStatus().isNoContent();
+
+        client.get().uri("/api/query?deviceId=unknown&" + RANGE)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(AggregateResponse.class).hasSize(0);
+    }
+
+    @Test
+    void testSingleReadingAndNdjsonStream() {
+        client.post().uri("/api/ingest")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("deviceId", "valve-0", "deviceType", "valve", "groupId", "plant-9",
+                        "metric", "position", "reading", 1.0, "ts", "2024-07-02T00:00:00Z"))
+                .exchange()
+                .expectStatus().isCreated();
+
+        String lines = "{\"deviceId\":\"valve-1\",\"deviceType\":\"valve\",\"groupId\":\"plant-9\",\"metric\":\"position\",\"reading\":2.0,\"ts\":\"2024-07-02T00:01:00Z\"}\n"
+                + "{\"deviceId\":\"valve-1\",\"deviceType\":\"valve\",\"groupId\":\"plant-9\",\"metric\":\"position\",\"ts\":\"2024-07-02T00:02:00Z\"}\n";
+        client.post().uri("/api/ingest")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.received").isEqualTo(2)
+                .jsonPath("$.accepted").isEqualTo(1)
+                .jsonPath("$.rejected[0].index").isEqualTo(1);
+
+        client.get().uri("/api/query?deviceType=valve&agg=count,sum&from=2024-07-02T00:00:00Z&to=2024-07-02T01:00:00Z")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].count").isEqualTo(2)
+                .jsonPath("$[0].sumValue").isEqualTo(3.0);
+    }
+}
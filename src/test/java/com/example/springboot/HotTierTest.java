@@ -0,0 +1,114 @@
+package com.example.springboot;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.config.HotTierProperties;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.hottier.HotTier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotTierTest {
+
+    private HotTier hotTier;
+    private SimpleMeterRegistry meterRegistry;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        HotTierProperties properties = new HotTierProperties();
+        properties.setEnabled(true);
+        properties.setWindow(Duration.ofHours(1));
+        properties.setChunkSize(4);
+
+        meterRegistry = new SimpleMeterRegistry();
+        hotTier = new HotTier(properties, meterRegistry);
+        now = Instant.now().truncatedTo(ChronoUnit.MICROS).plusSeconds(1);
+    }
+
+    private SensorReading createReading(int seriesId, double value, Instant ts) {
+        SensorReading r = new SensorReading();
+        r.setSeriesId(seriesId);
+        r.setReading(value);
+        r.setTs(ts);
+        return r;
+    }
+
+    @Test
+    void testAggregateAcrossChunks() {
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            readings.add(createReading(1, i, now.plusSeconds(i)));
+            readings.add(createReading(2, 100 + i, now.plusSeconds(i)));
+        }
+        hotTier.onSaved(readings);
+
+        Map<Integer, PartialAggregate> all = hotTier.aggregate(now, now.plusSeconds(60), null, ScanOptions.DEFAULT);
+        assertEquals(2, all.size());
+        assertEquals(10, all.get(1).getCount());
+        assertEquals(4.5, all.get(1).getAvg());
+
+        // Range covering points 2 to 5 of series 2 only
+        Map<Integer, PartialAggregate> some = hotTier.aggregate(now.plusSeconds(2), now.plusSeconds(5), List.of(2), ScanOptions.DEFAULT);
+        assertEquals(1, some.size());
+        assertEquals(4, some.get(2).getCount());
+        assertEquals(102.0, some.get(2).getMin());
+        assertEquals(105.0, some.get(2).getMax());
+
+        // 3 chunks of 4 points per series
+        assertEquals(20, meterRegistry.get("hot.tier.points").gauge().value());
+        assertEquals(6, meterRegistry.get("hot.tier.chunks").gauge().value());
+        assertTrue(hotTier.getEstimatedBytes() > 6 * 4 * 16);
+    }
+
+    @Test
+    void testDefaultMedianIsTheSqlMedian() {
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            readings.add(createReading(1, 20 + i * 0.7, now.plusSeconds(i)));
+        }
+        hotTier.onSaved(readings);
+
+        // A query without exact, as sent by default
+        AggregateQueryParams params = new AggregateQueryParams(null, null, null, null, now, now.plusSeconds(60),
+                null, false, false, false, false, null, null, null, null, null, null);
+        PartialAggregate partial = hotTier.aggregate(params.from(), params.to(), null, ScanOptions.of(params)).get(1);
+
+        // What the MEDIAN of the database returns for these readings: the mean of the 5th and 6th
+        assertEquals(23.15, partial.getMedian(), 1e-9);
+    }
+
+    @Test
+    void testCoverage() {
+        assertTrue(hotTier.covers(now));
+        // Before the start of the tier, the database has to answer
+        assertFalse(hotTier.covers(now.minusSeconds(600)));
+    }
+
+    @Test
+    void testEvictByAge() {
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            readings.add(createReading(1, i, now.plusSeconds(i * 60L)));
+        }
+        hotTier.onSaved(readings);
+
+        // The first chunk (minutes 0 to 3) is older than the window 1h05m later, the second is not
+        assertEquals(4, hotTier.evict(now.plus(Duration.ofMinutes(65))));
+        assertEquals(4, hotTier.getPoints());
+
+        assertEquals(4, hotTier.evict(now.plus(Duration.ofHours(2))));
+        assertEquals(0, meterRegistry.get("hot.tier.series").gauge().value());
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.springboot;
+
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.cache.IncrementalAggregator;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs against its own database so that the readings relative to now do not leak into other test contexts
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:incrementaltest;DB_CLOSE_DELAY=-1",
+        "query.incremental.enabled=true",
+        "query.incremental.bucket=1m",
+        "query.incremental.settle-delay=0s",
+        // A 20 minute window of both thermostats holds about 40
+        "query.incremental.max-partials=50"
+})
+@Import(TestSecurityConfig.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class IncrementalQueryTest {
+
+    @Autowired
+    private QueryService service;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private IncrementalAggregator incremental;
+
+    // The raw SQL path, used as the reference
+    @Autowired
+    private SensorReadingRepository repository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+    @BeforeAll
+    void setUp() {
+        // A reading every 10 seconds over the last 30 minutes, on two devices
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 180; i++) {
+            readings.add(createReading("thermostat-" + (i % 2), 15.0 + (i * 37 % 100) / 10.0, now.minusSeconds(i * 10L)));
+        }
+        ingestService.saveReadings(readings);
+    }
+
+    @BeforeEach
+    void clearState() {
+        incremental.clear();
+    }
+
+    private SensorReading createReading(String deviceId, double value, Instant ts) {
+        SensorReading r = new SensorReading();
+        r.setDeviceId(deviceId);
+        r.setDeviceType("thermostat");
+        r.setGroupId("group-1");
+        r.setMetric("temperature");
+        r.setReading(value);
+        r.setTs(ts);
+        return r;
+    }
+
+    // exact=false, otherwise the median keeps the query away from the incremental state
+    private AggregateQueryParams lastTwentyMinutes(Instant to) {
+        return new AggregateQueryParams(null, "thermostat", null, null, to.minusSeconds(1200), to,
+                "count,avg,min,max,median", true, false, false, false, false, null, null, null, null, null);
+    }
+
+    private double buckets(String result) {
+        return meterRegistry.get("query.incremental.buckets").tag("result", result).counter().count();
+    }
+
+    private void assertSameAsSql(AggregateQueryParams params) {
+        List<AggregateResponse> expected = new ArrayList<>(repository.getDynamicAggregates(params));
+        List<AggregateResponse> actual = new ArrayList<>(service.getAggregates(params));
+        assertEquals(expected.size(), actual.size());
+
+        expected.sort((a, b) -> a.getDeviceId().compareTo(b.getDeviceId()));
+        actual.sort((a, b) -> a.getDeviceId().compareTo(b.getDeviceId()));
+        for (int i = 0; i < expected.size(); i++) {
+            AggregateResponse e = expected.get(i);
+            AggregateResponse a = actual.get(i);
+            assertEquals(e.getCount(), a.getCount());
+            assertEquals(e.getAvgValue(), a.getAvgValue(), 1e-9);
+            assertEquals(e.getMinValue(), a.getMinValue());
+            assertEquals(e.getMaxValue(), a.getMaxValue());
+            assertEquals(e.getMedianValue(), a.getMedianValue(), Math.abs(e.getMedianValue()) * 0.01);
+        }
+    }
+
+    @Test
+    void testSlidingWindowReusesClosedBuckets() {
+        double computed = buckets("computed");
+        assertSameAsSql(lastTwentyMinutes(now.minusSeconds(65)));
+        assertTrue(buckets("computed") >= computed + 19);
+
+        // The next poll only scans its head and tail
+        double reused = buckets("reused");
+        computed = buckets("computed");
+        assertSameAsSql(lastTwentyMinutes(now.minusSeconds(5)));
+        assertTrue(buckets("reused") >= reused + 18);
+        assertTrue(buckets("computed") <= computed + 1);
+    }
+
+    @Test
+    void testDefaultMedianIsNotFromTheIncrementalState() {
+        AggregateQueryParams params = new AggregateQueryParams(null, "thermostat", null, null, now.minusSeconds(1205),
+                now.minusSeconds(5), "median", true, false, false, false, null, null, null, null, null, null);
+        double computed = buckets("computed");
+
+        Comparator<AggregateResponse> byDevice = Comparator.comparing(AggregateResponse::getDeviceId);
+        assertEquals(repository.getDynamicAggregates(params).stream().sorted(byDevice).map(AggregateResponse::getMedianValue).toList(),
+                service.getAggregates(params).stream().sorted(byDevice).map(AggregateResponse::getMedianValue).toList());
+        assertEquals(computed, buckets("computed"));
+    }
+
+    @Test
+    void testLateReadingInvalidatesItsBucket() {
+        AggregateQueryParams params = lastTwentyMinutes(now.minusSeconds(5));
+        long count = service.getAggregates(params).stream().mapToLong(AggregateResponse::getCount).sum();
+
+        ingestService.saveReadings(new ArrayList<>(List.of(createReading("thermostat-0", 99.0, now.minusSeconds(601)))));
+
+        double computed = buckets("computed");
+        assertSameAsSql(params);
+        assertEquals(count + 1, service.getAggregates(params).stream().mapToLong(AggregateResponse::getCount).sum());
+        assertEquals(computed + 1, buckets("computed"));
+    }
+
+    @Test
+    void testStateIsBoundedByMaxPartials() {
+        assertSameAsSql(lastTwentyMinutes(now.minusSeconds(5)));
+        for (String deviceId : List.of("thermostat-0", "thermostat-1")) {
+            service.getAggregates(new AggregateQueryParams(deviceId, null, null, null, now.minusSeconds(1205),
+                    now.minusSeconds(5), "count,max", false, false, false, false, null, null, null, null, null, null));
+            assertTrue(incremental.partials() <= 50);
+        }
+
+        // The first filters were dropped to make room
+        double computed = buckets("computed");
+        assertSameAsSql(lastTwentyMinutes(now.minusSeconds(5)));
+        assertTrue(buckets("computed") >= computed + 19);
+    }
+
+    @Test
+    void testRetentionDropsBucketsBeforeCutoff() {
+        AggregateQueryParams params = lastTwentyMinutes(now.minusSeconds(5));
+        assertSameAsSql(params);
+        long before = incremental.partials();
+
+        incremental.onDropped(now.minusSeconds(600));
+        assertTrue(incremental.partials() < before);
+
+        double computed = buckets("computed");
+        assertSameAsSql(params);
+        assertTrue(buckets("computed") >= computed + 9);
+    }
+}
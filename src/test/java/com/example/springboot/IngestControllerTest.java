@@ -1,9 +1,13 @@
 package com.example.springboot;
 
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.codec.SensorFrameDecoder;
+import com.example.springboot.codec.SensorFrameEncoder;
 import com.example.springboot.controller.IngestController;
 import com.example.springboot.entity.SensorReading;
 import com.example.springboot.security.JwtService;
 import com.example.springboot.service.IngestService;
+import com.example.springboot.service.NdjsonIngestService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -17,9 +21,14 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.InputStream;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -35,6 +44,9 @@ class IngestControllerTest {
     @MockBean
     private IngestService service;
 
+    @MockBean
+    private NdjsonIngestService ndjsonService;
+
     @MockBean
     private JwtService jwtService;
 
@@ -99,4 +111,80 @@ class IngestControllerTest {
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.errorCode").value("VALIDATION_ERROR"));
     }
+
+    @Test
+    void testIngestBatch_PartiallyRejected() throws Exception {
+        when(service.ingestBatch(anyList())).thenReturn(new BatchIngestResponse(2, 1,
+                List.of(new BatchIngestResponse.RejectedReading(1, Map.of("deviceId", "must not be null")))));
+
+        String batch = """
+                [
+                    {"deviceId": "device-1", "deviceType": "thermostat", "groupId": "group-1",
+                     "metric": "temperature", "reading": 21.5, "ts": "2025-10-03T00:00:00Z"},
+                    {"deviceType": "thermostat", "groupId": "group-1",
+                     "metric": "temperature", "reading": 22.5, "ts": "2025-10-03T00:00:01Z"}
+                ]
+                """;
+
+        mockMvc.perform(post("/api/ingest/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(batch))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.rejected[0].index").value(1))
+                .andExpect(jsonPath("$.rejected[0].errors.deviceId").exists());
+    }
+
+    @Test
+    void testIngestBatch_AllRejected() throws Exception {
+        when(service.ingestBatch(anyList())).thenReturn(new BatchIngestResponse(1, 0,
+                List.of(new BatchIngestResponse.RejectedReading(0, Map.of("deviceId", "must not be null")))));
+
+        mockMvc.perform(post("/api/ingest/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.accepted").value(0));
+    }
+
+    @Test
+    void testIngestNdjson_GzipBody() throws Exception {
+        when(ndjsonService.ingest(any(), eq(true))).thenReturn(new BatchIngestResponse(2, 2, List.of()));
+
+        mockMvc.perform(post("/api/ingest")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .content(new byte[]{1, 2, 3}))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.accepted").value(2));
+
+        verify(ndjsonService, times(1)).ingest(any(), eq(true));
+        verify(service, never()).saveReading(any(SensorReading.class));
+    }
+
+    @Test
+    void testIngestFrames_NonFiniteReading() throws Exception {
+        // The service is mocked, so decode the body with the real decoder to get its error
+        when(service.ingestFrames(any())).thenAnswer(invocation -> {
+            SensorFrameDecoder decoder = new SensorFrameDecoder(invocation.getArgument(0, InputStream.class), 100);
+            while (decoder.nextFrame() != null) {
+                // drain
+            }
+            return new BatchIngestResponse(0, 0, List.of());
+        });
+
+        SensorReading reading = new SensorReading();
+        reading.setDeviceId("thermostat-1");
+        reading.setDeviceType("thermostat");
+        reading.setGroupId("group-1");
+        reading.setMetric("temperature");
+        reading.setReading(Double.NaN);
+        reading.setTs(Instant.now());
+
+        mockMvc.perform(post("/api/ingest")
+                        .contentType(SensorFrameDecoder.MEDIA_TYPE)
+                        .content(SensorFrameEncoder.encode(List.of(reading))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorCode").value("VALIDATION_ERROR"));
+    }
 }
@@ -1,31 +1,76 @@
 package com.example.springboot;
 
+import com.example.springboot.bean.BatchIngestResponse;
+import com.example.springboot.codec.SensorFrameEncoder;
+import com.example.springboot.config.PartitioningProperties;
+import com.example.springboot.config.ShardingProperties;
 import com.example.springboot.entity.SensorReading;
+import com.example.springboot.exception.CustomException;
+import com.example.springboot.ingest.IngestListener;
+import com.example.springboot.partition.PartitionedReadingStore;
 import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.repository.SeriesDictionary;
 import com.example.springboot.service.IngestService;
+import com.example.springboot.service.NdjsonIngestService;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.validation.Validation;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @DataJpaTest
+// The JPA slice has no meter registry, the repository registers its meters in a simple one
+@Import({SeriesDictionary.class, ShardingProperties.class, PartitioningProperties.class,
+        SensorReadingRepositoryFactory.class, PartitionedReadingStore.class, SimpleMeterRegistry.class})
 class IngestServiceTest {
 
     @Autowired
     private SensorReadingRepository repository;
 
+    @Autowired
+    private SeriesDictionary seriesDictionary;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private SensorReadingRepositoryFactory shards;
+
+    @Autowired
+    private PartitionedReadingStore partitionedStore;
+
+    @Autowired
+    private ObjectProvider<IngestListener> listeners;
+
     private IngestService service;
 
     private Instant now;
 
     @BeforeEach
     void setUp() {
-        service = new IngestService(repository);
+        service = new IngestService(repository, seriesDictionary, entityManagerFactory,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                shards, partitionedStore, listeners);
         now = Instant.now();
         repository.deleteAll();
     }
@@ -90,4 +135,121 @@ class IngestServiceTest {
         // JPA will throw exception for null deviceId
         assertThrows(Exception.class, () -> service.saveReading(reading));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testIngestBatch_SavesValidAndReportsRejected() {
+        SensorReading valid1 = createReading("thermostat-1", "thermostat", 21.0);
+        SensorReading invalid = createReading("thermostat-2", null, 22.0);
+        SensorReading valid2 = createReading("vehicle-1", "vehicle", 11.0);
+
+        BatchIngestResponse response = service.ingestBatch(List.of(valid1, invalid, valid2));
+
+        assertEquals(3, response.getReceived());
+        assertEquals(2, response.getAccepted());
+        assertEquals(1, response.getRejected().size());
+        assertEquals(1, response.getRejected().get(0).index());
+        assertTrue(response.getRejected().get(0).errors().containsKey("deviceType"));
+
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void testSaveReadings_LargerThanJdbcBatch() {
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            readings.add(createReading("thermostat-" + (i % 10), "thermostat", i));
+        }
+
+        assertEquals(1200, service.saveReadings(readings));
+        assertEquals(1200, repository.count());
+    }
+
+    @Test
+    void testIngestNdjson_GzipInChunks() throws IOException {
+        NdjsonIngestService ndjsonService = new NdjsonIngestService(service,
+                new ObjectMapper().registerModule(new JavaTimeModule()));
+
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            ndjson.append("{\"deviceId\":\"thermostat-").append(i % 10)
+                    .append("\",\"deviceType\":\"thermostat\",\"groupId\":\"group-1\",\"metric\":\"temperature\",")
+                    .append("\"reading\":").append(i).append(",\"ts\":\"2025-10-03T00:00:00Z\"}\n");
+        }
+        ndjson.append("\n");                                                     // blank lines are ignored
+        ndjson.append("{\"deviceId\":\"thermostat-1\",\"reading\":\"oops\"}\n");    // line 2501 is invalid JSON for a reading
+        ndjson.append("{\"deviceId\":\"thermostat-1\"}\n");                       // line 2502 misses mandatory fields
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(ndjson.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        BatchIngestResponse response = ndjsonService.ingest(new ByteArrayInputStream(compressed.toByteArray()), true);
+
+        assertEquals(2502, response.getReceived());
+        assertEquals(2500, response.getAccepted());
+        assertEquals(2, response.getRejected().size());
+        assertEquals(2501, response.getRejected().get(0).index());
+        assertTrue(response.getRejected().get(1).errors().containsKey("deviceType"));
+        assertEquals(2500, repository.count());
+    }
+
+    @Test
+    void testIngestFrames_RoundTrip() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(SensorFrameEncoder.encode(List.of(
+                createReading("thermostat-1", "thermostat", 21.5),
+                createReading("thermostat-2", "thermostat", 22.5))));
+        body.write(SensorFrameEncoder.encode(List.of(
+                createReading("vehicle-1", "vehicle", 11.25))));
+
+        BatchIngestResponse response = service.ingestFrames(new ByteArrayInputStream(body.toByteArray()));
+
+        assertEquals(3, response.getAccepted());
+        assertEquals(3, repository.count());
+
+        SensorReading vehicle = repository.findAll().stream()
+                .filter(r -> r.getDeviceId().equals("vehicle-1"))
+                .findFirst().orElseThrow();
+        assertEquals("vehicle", vehicle.getDeviceType());
+        assertEquals(11.25, vehicle.getReading());
+        assertEquals(now.getEpochSecond(), vehicle.getTs().getEpochSecond());
+    }
+
+    @Test
+    void testIngestFrames_TruncatedFrame() {
+        byte[] frame = SensorFrameEncoder.encode(List.of(createReading("thermostat-1", "thermostat", 21.5)));
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 4);
+
+        CustomException ex = assertThrows(CustomException.class,
+                () -> service.ingestFrames(new ByteArrayInputStream(truncated)));
+        assertEquals(CustomException.ErrorCode.VALIDATION_ERROR, ex.getErrorCode());
+        assertEquals(0, repository.count());
+    }
+
+    @Test
+    void testIngestFrames_NonFiniteReading() {
+        for (double value : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            byte[] frame = SensorFrameEncoder.encode(List.of(
+                    createReading("thermostat-1", "thermostat", 21.5),
+                    createReading("thermostat-2", "thermostat", value)));
+
+            CustomException ex = assertThrows(CustomException.class,
+                    () -> service.ingestFrames(new ByteArrayInputStream(frame)));
+            assertEquals(CustomException.ErrorCode.VALIDATION_ERROR, ex.getErrorCode());
+        }
+        // The whole frame is rejected, including its finite reading
+        assertEquals(0, repository.count());
+    }
+
+    private SensorReading createReading(String deviceId, String deviceType, double value) {
+        SensorReading reading = new SensorReading();
+        reading.setDeviceId(deviceId);
+        reading.setDeviceType(deviceType);
+        reading.setGroupId("group-1");
+        reading.setMetric("temperature");
+        reading.setReading(value);
+        reading.setTs(now);
+        return reading;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.springboot;
+
+import com.example.springboot.config.JwtProperties;
+import com.example.springboot.config.PartitioningProperties;
+import com.example.springboot.config.ShardingProperties;
+import com.example.springboot.entity.RevokedToken;
+import com.example.springboot.partition.PartitionedReadingStore;
+import com.example.springboot.repository.RevokedTokenRepository;
+import com.example.springboot.repository.SeriesDictionary;
+import com.example.springboot.security.JwtService;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The JwtService and its properties on top of the JPA slice, for the revoked_token table. The other imports are
+// needed by the repositories of the slice
+@DataJpaTest
+@Import({JwtService.class, JwtProperties.class, SeriesDictionary.class, ShardingProperties.class,
+        PartitioningProperties.class, SensorReadingRepositoryFactory.class, PartitionedReadingStore.class,
+        SimpleMeterRegistry.class})
+class JwtServiceTest {
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private JwtProperties jwtProperties;
+
+    @Autowired
+    private RevokedTokenRepository revokedTokens;
+
+    private final long expiration = new JwtProperties().getExpiration();
+
+    @AfterEach
+    void restoreExpiration() {
+        jwtProperties.setExpiration(expiration);
+    }
+
+    @Test
+    void testRepeatedTokenComesFromCache() {
+        String token = jwtService.generateToken("admin");
+
+        Claims claims = jwtService.verify(token);
+        assertNotNull(claims);
+        assertEquals("admin", claims.getSubject());
+        assertSame(claims, jwtService.verify(token));
+        assertTrue(jwtService.validateToken(token));
+        assertEquals("admin", jwtService.extractUsername(token));
+    }
+
+    @Test
+    void testRevokedTokenIsRefused() {
+        String token = jwtService.generateToken("admin");
+        assertNotNull(jwtService.verify(token));
+
+        assertTrue(jwtService.revoke(token));
+
+        assertNull(jwtService.verify(token));
+        assertFalse(jwtService.validateToken(token));
+        assertFalse(jwtService.revoke(token));
+        // Other tokens of the same user are still valid
+        assertNotNull(jwtService.verify(jwtService.generateToken("admin")));
+    }
+
+    @Test
+    void testValidateTokenForUserIsVerified() {
+        String token = jwtService.generateToken("admin");
+        UserDetails admin = User.withUsername("admin").password("unused").build();
+
+        assertTrue(jwtService.validateToken(token, admin));
+        assertFalse(jwtService.validateToken(token, User.withUsername("other").password("unused").build()));
+
+        assertTrue(jwtService.revoke(token));
+
+        assertFalse(jwtService.validateToken(token, admin));
+    }
+
+    @Test
+    void testRevocationIsSavedById() {
+        String token = jwtService.generateToken("admin");
+        String id = jwtService.extractClaim(token, Claims::getId);
+        Instant expiration = jwtService.extractExpiration(token).toInstant();
+
+        assertTrue(jwtService.revoke(token));
+
+        // The token itself is not stored
+        assertEquals(expiration, revokedTokens.findById(id).orElseThrow().getExpiresAt());
+    }
+
+    @Test
+    void testRevocationOfAnotherInstanceIsLoaded() {
+        String token = jwtService.generateToken("admin");
+        assertNotNull(jwtService.verify(token));
+
+        // Saved by another instance, this one still has the token cached
+        revokedTokens.save(new RevokedToken(jwtService.extractClaim(token, Claims::getId),
+                jwtService.extractExpiration(token).toInstant()));
+        assertNotNull(jwtService.verify(token));
+
+        jwtService.refreshRevocations();
+
+        assertNull(jwtService.verify(token));
+    }
+
+    @Test
+    void testExpiredRevocationsAreDeleted() {
+        revokedTokens.save(new RevokedToken("expired", Instant.now().minusSeconds(60)));
+        revokedTokens.save(new RevokedToken("forever", null));
+
+        jwtService.refreshRevocations();
+
+        assertFalse(revokedTokens.existsById("expired"));
+        assertTrue(revokedTokens.existsById("forever"));
+    }
+
+    @Test
+    void testCachedTokenExpires() throws InterruptedException {
+        jwtProperties.setExpiration(2);
+        String token = jwtService.generateToken("admin");
+        assertNotNull(jwtService.verify(token));
+
+        // The expiration of a JWT has a precision of a second
+        Thread.sleep(3000);
+
+        assertNull(jwtService.verify(token));
+    }
+
+    @Test
+    void testInvalidTokens() {
+        String token = jwtService.generateToken("admin");
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+
+        assertNull(jwtService.verify(tampered));
+        assertNull(jwtService.verify("not-a-token"));
+        assertNull(jwtService.verify(null));
+
+        jwtProperties.setExpiration(-60);
+        assertNull(jwtService.verify(jwtService.generateToken("admin")));
+    }
+}
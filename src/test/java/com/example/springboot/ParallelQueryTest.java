@@ -0,0 +1,166 @@
+package com.example.springboot;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.parallel.ParallelRangeScanner;
+import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs against its own database so that the parallel scans see only the readings of this test
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:paralleltest;DB_CLOSE_DELAY=-1",
+        "query.parallel.enabled=true",
+        "query.parallel.threads=4",
+        "query.parallel.parallelism=4",
+        "query.parallel.min-range=1m",
+        // Fewer connections than concurrent queries, which must not hold one while their sub-ranges wait
+        "spring.datasource.hikari.maximum-pool-size=3",
+        "spring.datasource.hikari.connection-timeout=2000"
+})
+@Import(TestSecurityConfig.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ParallelQueryTest {
+
+    @Autowired
+    private QueryService service;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private ParallelRangeScanner parallel;
+
+    // The raw SQL path, used as the reference
+    @Autowired
+    private SensorReadingRepository repository;
+
+    private final Instant start = Instant.parse("2024-05-01T00:00:00Z");
+
+    @BeforeAll
+    void setUp() {
+        // A reading every 30 seconds over 6 hours, on three devices
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 720; i++) {
+            SensorReading r = new SensorReading();
+            r.setDeviceId("meter-" + (i % 3));
+            r.setDeviceType("meter");
+            r.setGroupId("group-1");
+            r.setMetric("power");
+            r.setReading(100 + (i * 37 % 200) / 10.0);
+            r.setTs(start.plusSeconds(i * 30L));
+            readings.add(r);
+        }
+        ingestService.saveReadings(readings);
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Aggregates that every sub-range computes in SQL
+    private AggregateQueryParams params(Integer parallelism) {
+        return new AggregateQueryParams(null, "meter", null, null, start, start.plusSeconds(6 * 3600 - 1),
+                "count,sum,avg,min,max,stddev", true, false, false, false, null, null, null, null, null,
+                parallelism);
+    }
+
+    private long scans(String source) {
+        return meterRegistry.get("query.rows.scanned").tag("source", source).summary().count();
+    }
+
+    @Test
+    void testSplitRangesAreContiguous() {
+        Instant to = start.plusSeconds(3600);
+        List<Instant[]> ranges = ParallelRangeScanner.split(start, to, 4, Duration.ofMinutes(10));
+        assertEquals(4, ranges.size());
+        assertEquals(start, ranges.get(0)[0]);
+        assertEquals(to, ranges.get(3)[1]);
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals(ranges.get(i - 1)[1].plus(1, ChronoUnit.MICROS), ranges.get(i)[0]);
+        }
+
+        // Not split below the minimum range
+        assertEquals(2, ParallelRangeScanner.split(start, start.plusSeconds(1500), 4, Duration.ofMinutes(10)).size());
+        assertEquals(1, ParallelRangeScanner.split(start, start.plusSeconds(300), 4, Duration.ofMinutes(10)).size());
+    }
+
+    @Test
+    void testSubRangesRunOnTheExecutor() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Map<Integer, PartialAggregate> partials = parallel.aggregate(start, start.plusSeconds(3600), 8, (from, to) -> {
+            threads.add(Thread.currentThread().getName());
+            return Map.of(1, new PartialAggregate());
+        });
+
+        assertEquals(1, partials.size());
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("query-range-")));
+        assertEquals(1, parallel.parallelism(1));
+        assertEquals(4, parallel.parallelism(null));
+    }
+
+    @Test
+    void testParallelScanMatchesSql() {
+        List<AggregateResponse> expected = new ArrayList<>(repository.getDynamicAggregates(params(1)));
+        List<AggregateResponse> actual = new ArrayList<>(service.getAggregates(params(4)));
+        assertEquals(3, actual.size());
+
+        expected.sort((a, b) -> a.getDeviceId().compareTo(b.getDeviceId()));
+        actual.sort((a, b) -> a.getDeviceId().compareTo(b.getDeviceId()));
+        for (int i = 0; i < expected.size(); i++) {
+            AggregateResponse e = expected.get(i);
+            AggregateResponse a = actual.get(i);
+            assertEquals(e.getDeviceId(), a.getDeviceId());
+            assertEquals(e.getCount(), a.getCount());
+            assertEquals(e.getSumValue(), a.getSumValue(), 1e-6);
+            assertEquals(e.getAvgValue(), a.getAvgValue(), 1e-9);
+            assertEquals(e.getMinValue(), a.getMinValue());
+            assertEquals(e.getMaxValue(), a.getMaxValue());
+            assertEquals(e.getStddevValue(), a.getStddevValue(), 1e-9);
+        }
+    }
+
+    @Test
+    void testExactMedianIsNotSplit() {
+        long sql = scans("sql");
+        long raw = scans("raw");
+        service.getAggregates(new AggregateQueryParams(null, "meter", null, null, start, start.plusSeconds(6 * 3600 - 1),
+                "count,median", true, false, false, false, null, null, null, null, null, 4));
+
+        // The median of sub-ranges cannot be merged, the query stays a single SQL query
+        assertEquals(sql + 1, scans("sql"));
+        assertEquals(raw, scans("raw"));
+    }
+
+    @Test
+    void testConcurrentQueriesDoNotExhaustThePool() {
+        long raw = scans("raw");
+        List<CompletableFuture<List<AggregateResponse>>> queries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            queries.add(CompletableFuture.supplyAsync(() -> service.getAggregates(params(4))));
+        }
+        queries.forEach(query -> assertEquals(3, query.join().size()));
+        assertEquals(raw + 6, scans("raw"));
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.springboot;
+
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.SeriesResponse;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.exception.CustomException;
+import com.example.springboot.partition.PartitionedReadingStore;
+import com.example.springboot.repository.SensorReadingRepositoryImpl;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Runs against its own database so that the partition tables do not leak into other test contexts
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:partitiontest;DB_CLOSE_DELAY=-1",
+        "storage.partitioning.enabled=true",
+        "storage.partitioning.granularity=hour"
+})
+@Import(TestSecurityConfig.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PartitionedQueryServiceTest {
+
+    @Autowired
+    private QueryService service;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private PartitionedReadingStore partitionedStore;
+
+    @Autowired
+    private SensorReadingRepositoryImpl plans;
+
+    private final Instant start = Instant.parse("2024-01-01T00:00:00Z");
+
+    @BeforeAll
+    void setUp() {
+        // Three readings in each of the first three hours of the day
+        List<SensorReading> readings = new ArrayList<>();
+        for (int hour = 0; hour < 3; hour++) {
+            for (int i = 0; i < 3; i++) {
+                readings.add(createReading("thermostat-" + i, "thermostat", 20.0 + hour * 10 + i, start.plusSeconds(hour * 3600L + i * 60)));
+            }
+        }
+        ingestService.saveReadings(readings);
+    }
+
+    private SensorReading createReading(String deviceId, String deviceType, double value, Instant ts) {
+        SensorReading r = new SensorReading();
+        r.setDeviceId(deviceId);
+        r.setDeviceType(deviceType);
+        r.setGroupId("group-1");
+        r.setMetric("temperature");
+        r.setReading(value);
+        r.setTs(ts);
+        return r;
+    }
+
+    // Exact, so that the native SQL over the partitions is used instead of the sketch scan
+    private AggregateQueryParams params(String deviceType, Instant from, Instant to) {
+        return new AggregateQueryParams(null, deviceType, null, null, from, to, null, false, false, false, false, true, null, null, null, null, null);
+    }
+
+    @Test
+    void testQueryOverAllPartitions() {
+        AggregateQueryParams params = params(null, start, start.plusSeconds(3 * 3600));
+        assertEquals(3, partitionedStore.tablesOverlapping(params.from(), params.to()).size());
+
+        List<AggregateResponse> results = service.getAggregates(params);
+        assertEquals(1, results.size());
+        assertEquals(9, results.get(0).getCount());
+        assertEquals(20.0, results.get(0).getMinValue());
+        assertEquals(42.0, results.get(0).getMaxValue());
+        assertEquals(31.0, results.get(0).getMedianValue());
+    }
+
+    @Test
+    void testIntervalOverPartitions() {
+        AggregateQueryParams params = new AggregateQueryParams(null, "thermostat", null, null, start,
+                start.plusSeconds(3 * 3600 - 1), "count,avg", false, true, false, false, null, "1h", null, null, null, null);
+
+        List<SeriesResponse> series = service.getSeries(params);
+        assertEquals(1, series.size());
+        assertEquals(List.of(
+                List.of(start, 3L, 21.0),
+                List.of(start.plusSeconds(3600), 3L, 31.0),
+                List.of(start.plusSeconds(7200), 3L, 41.0)), series.get(0).getValues());
+    }
+
+    @Test
+    void testTopGroupsOverPartitions() {
+        AggregateQueryParams params = new AggregateQueryParams(null, "thermostat", null, null, start,
+                start.plusSeconds(3 * 3600), "max", true, false, false, false, true, null, 2, null, "max", null);
+
+        List<AggregateResponse> results = service.getAggregates(params);
+        assertEquals(List.of("thermostat-2", "thermostat-1"), results.stream().map(AggregateResponse::getDeviceId).toList());
+        assertEquals(42.0, results.get(0).getMaxValue());
+    }
+
+    @Test
+    void testQueryInsideOnePartition() {
+        Instant from = start.plusSeconds(3600);
+        AggregateQueryParams params = params("thermostat", from, from.plusSeconds(1800));
+        assertEquals(List.of("sensor_reading_p2024010101"), partitionedStore.tablesOverlapping(params.from(), params.to()));
+
+        List<AggregateResponse> results = service.getAggregates(params);
+        assertEquals(1, results.size());
+        assertEquals(3, results.get(0).getCount());
+        assertEquals(31.0, results.get(0).getAvgValue());
+    }
+
+    @Test
+    void testMovingWindowKeepsItsPlan() {
+        AggregateQueryParams first = params("thermostat", start, start.plusSeconds(5400));
+        AggregateQueryParams second = params("thermostat", start.plusSeconds(3600), start.plusSeconds(9000));
+        assertEquals(List.of("sensor_reading_p2024010100", "sensor_reading_p2024010101"),
+                partitionedStore.tablesOverlapping(first.from(), first.to()));
+        assertEquals(List.of("sensor_reading_p2024010101", "sensor_reading_p2024010102"),
+                partitionedStore.tablesOverlapping(second.from(), second.to()));
+
+        plans.clearPlans();
+        assertEquals(26.0, service.getAggregates(first).get(0).getAvgValue());
+        assertEquals(36.0, service.getAggregates(second).get(0).getAvgValue());
+
+        // Two partitions each time, only their names differ
+        assertEquals(1, plans.plannedShapes());
+    }
+
+    @Test
+    void testRetentionDropsWholePartitions() {
+        Instant old = Instant.parse("2020-06-01T10:15:00Z");
+        ingestService.saveReadings(new ArrayList<>(List.of(createReading("camera-1", "camera", 1.0, old))));
+
+        AggregateQueryParams params = params("camera", old.minusSeconds(60), old.plusSeconds(60));
+        assertEquals(1, service.getAggregates(params).get(0).getCount());
+
+        assertEquals(1, partitionedStore.getPartitions().dropBefore(Instant.parse("2021-01-01T00:00:00Z")));
+
+        CustomException ex = assertThrows(CustomException.class, () -> service.getAggregates(params));
+        assertEquals(CustomException.ErrorCode.NO_RECORDS_FOUND, ex.getErrorCode());
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.springboot;
+
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.cache.QueryResultCache;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Runs against its own database as the cached results depend on every reading saved
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:cachetest;DB_CLOSE_DELAY=-1",
+        "query-cache.enabled=true"
+})
+@Import(TestSecurityConfig.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class QueryCacheTest {
+
+    @Autowired
+    private QueryService service;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private QueryResultCache cache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Instant start = Instant.parse("2024-01-01T00:00:00Z");
+
+    @BeforeAll
+    void setUp() {
+        // Three readings in the first hour and one at 02:00, so that the watermark is past the first hour
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            readings.add(createReading("thermostat-1", "thermostat", 20.0 + i, start.plusSeconds(i * 600L)));
+            readings.add(createReading("vehicle-1", "vehicle", 50.0 + i, start.plusSeconds(i * 600L)));
+        }
+        readings.add(createReading("thermostat-1", "thermostat", 30.0, start.plusSeconds(7200)));
+        readings.add(createReading("vehicle-1", "vehicle", 60.0, start.plusSeconds(7200)));
+        ingestService.saveReadings(readings);
+    }
+
+    @BeforeEach
+    void clearCache() {
+        cache.clear();
+    }
+
+    private SensorReading createReading(String deviceId, String deviceType, double value, Instant ts) {
+        SensorReading r = new SensorReading();
+        r.setDeviceId(deviceId);
+        r.setDeviceType(deviceType);
+        r.setGroupId("group-1");
+        r.setMetric("temperature");
+        r.setReading(value);
+        r.setTs(ts);
+        return r;
+    }
+
+    private AggregateQueryParams firstHour(String deviceType, String agg) {
+        return new AggregateQueryParams(null, deviceType, null, null, start, start.plusSeconds(3599),
+                agg, false, false, false, false, null, null, null, null, null, null);
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("query.cache.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    void testRepeatedQueryIsServedFromCache() {
+        double hits = count("hit");
+        double misses = count("miss");
+
+        List<AggregateResponse> first = service.getAggregates(firstHour("thermostat", "avg,min"));
+        // Same query, agg written differently
+        List<AggregateResponse> second = service.getAggregates(firstHour("thermostat", "min, AVG"));
+
+        assertEquals(first, second);
+        assertEquals(misses + 1, count("miss"));
+        assertEquals(hits + 1, count("hit"));
+    }
+
+    @Test
+    void testLateDataInvalidatesSettledResult() {
+        assertEquals(3, service.getAggregates(firstHour("vehicle", "count")).get(0).getCount());
+
+        // Readings of other series or outside the range leave the result cached
+        double hits = count("hit");
+        ingestService.saveReadings(new ArrayList<>(List.of(
+                createReading("thermostat-1", "thermostat", 25.0, start.plusSeconds(1200)),
+                createReading("vehicle-1", "vehicle", 61.0, start.plusSeconds(7300)))));
+        assertEquals(3, service.getAggregates(firstHour("vehicle", "count")).get(0).getCount());
+        assertEquals(hits + 1, count("hit"));
+
+        // A late reading inside the range is seen by the next query
+        ingestService.saveReadings(new ArrayList<>(List.of(
+                createReading("vehicle-1", "vehicle", 55.0, start.plusSeconds(1800)))));
+        assertEquals(4, service.getAggregates(firstHour("vehicle", "count")).get(0).getCount());
+        assertEquals(hits + 1, count("hit"));
+    }
+
+    @Test
+    void testReadingOfNewSeriesInvalidatesResult() {
+        AggregateQueryParams later = new AggregateQueryParams(null, "thermostat", null, null, start.plusSeconds(36000),
+                start.plusSeconds(39599), "count", false, false, false, false, null, null, null, null, null, null);
+        ingestService.saveReadings(new ArrayList<>(List.of(
+                createReading("thermostat-1", "thermostat", 21.0, start.plusSeconds(36000)))));
+        assertEquals(1, service.getAggregates(later).get(0).getCount());
+
+        // thermostat-2 did not exist when the result was cached
+        ingestService.saveReadings(new ArrayList<>(List.of(
+                createReading("thermostat-2", "thermostat", 22.0, start.plusSeconds(36600)))));
+        assertEquals(2, service.getAggregates(later).get(0).getCount());
+    }
+
+    @Test
+    void testRetentionDropsResultsBeforeCutoff() {
+        service.getAggregates(firstHour("thermostat", "avg"));
+        assertEquals(1, cache.size());
+
+        cache.onDropped(start.plusSeconds(1800));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testCachedResultIsUnmodifiable() {
+        List<AggregateResponse> first = service.getAggregates(firstHour("thermostat", "max"));
+        assertThrows(UnsupportedOperationException.class, first::clear);
+        assertEquals(1, service.getAggregates(firstHour("thermostat", "max")).size());
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.springboot;
 
 import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.SeriesResponse;
 import com.example.springboot.controller.QueryController;
+import com.example.springboot.exception.CustomException;
 import com.example.springboot.security.JwtService;
 import com.example.springboot.service.QueryService;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -11,15 +13,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -98,4 +107,117 @@ class QueryControllerTest {
                 )
                 .andExpect(status().isOk());
     }
+
+    @Test
+    void testQueryAggregates_UnknownAggregateFunction() throws Exception {
+        mockMvc.perform(get("/api/query")
+                        .param("from", "2025-10-03T00:00:00Z")
+                        .param("to", "2025-10-03T23:59:59Z")
+                        .param("agg", "avg,mode")
+                )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorCode").value("VALIDATION_ERROR"));
+    }
+
+    @Test
+    void testQueryAggregates_Interval() throws Exception {
+
+        SeriesResponse series = new SeriesResponse("ALL", "thermostat", "ALL", "ALL", "1m", List.of("time", "avg"));
+        series.addRow(Instant.parse("2025-10-03T00:00:00Z"), List.of(21.5));
+        series.addRow(Instant.parse("2025-10-03T00:01:00Z"), List.of(22.0));
+        when(service.getSeries(any())).thenReturn(List.of(series));
+
+        mockMvc.perform(get("/api/query")
+                        .param("from", "2025-10-03T00:00:00Z")
+                        .param("to", "2025-10-03T00:01:59Z")
+                        .param("agg", "avg")
+                        .param("interval", "1m")
+                        .param("groupByDeviceType", "true")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].columns[1]").value("avg"))
+                .andExpect(jsonPath("$[0].values[1][0]").value("2025-10-03T00:01:00Z"))
+                .andExpect(jsonPath("$[0].values[1][1]").value(22.0));
+    }
+
+    @Test
+    void testQueryAggregates_InvalidInterval() throws Exception {
+        mockMvc.perform(get("/api/query")
+                        .param("from", "2025-10-03T00:00:00Z")
+                        .param("to", "2025-10-03T23:59:59Z")
+                        .param("interval", "5 minutes")
+                )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorCode").value("VALIDATION_ERROR"));
+    }
+
+    @Test
+    void testQueryAggregates_Ndjson() throws Exception {
+
+        doAnswer(invocation -> {
+            Consumer<Object> consumer = invocation.getArgument(1);
+            consumer.accept(new AggregateResponse("device-1", "ALL", "ALL", "ALL", 25.0, 20.0, 30.0, 25.0, 5L));
+            consumer.accept(new AggregateResponse("device-2", "ALL", "ALL", "ALL", 15.0, 10.0, 20.0, 15.0, 3L));
+            return 2L;
+        }).when(service).streamAggregates(any(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/query")
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .param("from", "2025-10-03T00:00:00Z")
+                        .param("to", "2025-10-03T23:59:59Z")
+                        .param("groupByDeviceId", "true")
+                )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertEquals(2, lines.length);
+        assertEquals("device-1", objectMapper.readTree(lines[0]).get("deviceId").asText());
+        assertEquals(3, objectMapper.readTree(lines[1]).get("count").asLong());
+    }
+
+    @Test
+    void testQueryAggregates_NdjsonValidatedBeforeStreaming() throws Exception {
+        mockMvc.perform(get("/api/query")
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .param("from", "2025-10-03T00:00:00Z")
+                        .param("to", "2025-10-03T23:59:59Z")
+                        .param("agg", "avg,mode")
+                )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorCode").value("VALIDATION_ERROR"));
+    }
+
+    @Test
+    void testQueryAggregates_NdjsonSeriesValidatedBeforeStreaming() throws Exception {
+        doThrow(new CustomException("first and last are not supported with interval", CustomException.ErrorCode.VALIDATION_ERROR))
+                .when(service).validateSeries(any());
+
+        mockMvc.perform(get("/api/query")
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .param("from", "2025-10-03T00:00:00Z")
+                        .param("to", "2025-10-03T23:59:59Z")
+                        .param("interval", "5m")
+                        .param("agg", "first")
+                )
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorCode").value("VALIDATION_ERROR"));
+    }
+
+    @Test
+    void testQueryAggregates_InvalidLimit() throws Exception {
+        mockMvc.perform(get("/api/query")
+                        .param("from", "2025-10-03T00:00:00Z")
+                        .param("to", "2025-10-03T23:59:59Z")
+                        .param("limit", "0")
+                )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorCode").value("VALIDATION_ERROR"))
+                .andExpect(jsonPath("$.errors.limit").exists());
+    }
 }
@@ -2,10 +2,14 @@ package com.example.springboot;
 
 import com.example.springboot.bean.AggregateQueryParams;
 import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.bean.SeriesResponse;
 import com.example.springboot.entity.SensorReading;
 import com.example.springboot.exception.CustomException;
-import com.example.springboot.service.QueryService;
 import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.repository.SensorReadingRepositoryImpl;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,9 +18,12 @@ import org.springframework.context.annotation.Import;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @SpringBootTest
@@ -27,23 +34,34 @@ class QueryServiceTest {
     @Autowired
     private QueryService service;
 
+    @Autowired
+    private IngestService ingestService;
+
     @Autowired
     private SensorReadingRepository repository;
 
+    @Autowired
+    private SensorReadingRepositoryImpl plans;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     private Instant now;
 
     @BeforeEach
     void setUp() {
-        now = Instant.now();
+        // H2 stores timestamps with microsecond precision. Truncate so that readings saved at "now" are not rounded
+        // up past the "to" bound of the queries below.
+        now = Instant.now().truncatedTo(ChronoUnit.MICROS);
 
         // Thermostat readings
-        repository.save(createReading("thermostat-1", "thermostat", "group-1", "temperature", 22.0));
-        repository.save(createReading("thermostat-2", "thermostat", "group-1", "temperature", 24.0));
-        repository.save(createReading("thermostat-2", "thermostat", "group-2", "temperature", 25.0));
+        ingestService.saveReading(createReading("thermostat-1", "thermostat", "group-1", "temperature", 22.0));
+        ingestService.saveReading(createReading("thermostat-2", "thermostat", "group-1", "temperature", 24.0));
+        ingestService.saveReading(createReading("thermostat-2", "thermostat", "group-2", "temperature", 25.0));
 
         // Vehicle readings
-        repository.save(createReading("vehicle-1", "vehicle", "group-1", "fuel", 10.0));
-        repository.save(createReading("vehicle-2", "vehicle", "group-2", "fuel", 12.0));
+        ingestService.saveReading(createReading("vehicle-1", "vehicle", "group-1", "fuel", 10.0));
+        ingestService.saveReading(createReading("vehicle-2", "vehicle", "group-2", "fuel", 12.0));
     }
 
     private SensorReading createReading(String deviceId, String deviceType, String groupId, String metric, double value) {
@@ -62,8 +80,8 @@ class QueryServiceTest {
         AggregateQueryParams params = new AggregateQueryParams(
                 "nonexistent-device", null, null, null,
                 now.minusSeconds(60), now,
-                "avg,min,max",
-                true, true, true, true
+                "avg,min,max,count",
+                true, true, true, true, null, null, null, null, null, null
         );
 
         CustomException ex = assertThrows(CustomException.class, () -> service.getAggregates(params));
@@ -75,8 +93,8 @@ class QueryServiceTest {
         AggregateQueryParams params = new AggregateQueryParams(
                 null, null, null, null,
                 now.minusSeconds(60), now,
-                "avg,min,max",
-                false, true, false, false
+                "avg,min,max,count",
+                false, true, false, false, null, null, null, null, null, null
         );
 
         List<AggregateResponse> results = service.getAggregates(params);
@@ -105,8 +123,8 @@ class QueryServiceTest {
         AggregateQueryParams params = new AggregateQueryParams(
                 null, null, null, null,
                 now.minusSeconds(60), now,
-                "avg,min,max",
-                false, false, true, false
+                "avg,min,max,count",
+                false, false, true, false, null, null, null, null, null, null
         );
 
         List<AggregateResponse> results = service.getAggregates(params);
@@ -135,8 +153,8 @@ class QueryServiceTest {
         AggregateQueryParams params = new AggregateQueryParams(
                 null, null, null, null,
                 now.minusSeconds(60), now,
-                "avg,min,max",
-                true, false, false, false
+                "avg,min,max,count",
+                true, false, false, false, null, null, null, null, null, null
         );
 
         List<AggregateResponse> results = service.getAggregates(params);
@@ -150,8 +168,8 @@ class QueryServiceTest {
         AggregateQueryParams params = new AggregateQueryParams(
                 null, null, null, null,
                 now.minusSeconds(60), now,
-                "avg,min,max",
-                false, false, false, true
+                "avg,min,max,count",
+                false, false, false, true, null, null, null, null, null, null
         );
 
         List<AggregateResponse> results = service.getAggregates(params);
@@ -165,8 +183,8 @@ class QueryServiceTest {
         AggregateQueryParams params = new AggregateQueryParams(
                 null, null, null, null,
                 now.minusSeconds(60), now,
-                "avg,min,max",
-                true, true, true, true
+                "avg,min,max,count",
+                true, true, true, true, null, null, null, null, null, null
         );
 
         List<AggregateResponse> results = service.getAggregates(params);
@@ -174,4 +192,278 @@ class QueryServiceTest {
         // Each combination of deviceId, deviceType, groupId, metric
         assertEquals(5, results.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFilterByDeviceTypeGroupByGroupId() {
+        AggregateQueryParams params = new AggregateQueryParams(
+                null, "thermostat", null, null,
+                now.minusSeconds(60), now,
+                "avg,min,max,count",
+                false, false, true, false, null, null, null, null, null, null
+        );
+
+        List<AggregateResponse> results = service.getAggregates(params);
+        assertEquals(2, results.size());
+
+        for (AggregateResponse resp : results) {
+            assertEquals("ALL", resp.getDeviceType());
+            switch (resp.getGroupId()) {
+                case "group-1" -> {
+                    assertEquals((22.0 + 24.0) / 2, resp.getAvgValue());
+                    assertEquals(2, resp.getCount());
+                }
+                case "group-2" -> {
+                    assertEquals(25.0, resp.getAvgValue());
+                    assertEquals(1, resp.getCount());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testPercentilesApproximateAndExact() {
+        AggregateQueryParams approximate = new AggregateQueryParams(
+                null, "thermostat", null, null,
+                now.minusSeconds(60), now,
+                "count,avg,median,p90",
+                false, true, false, false, null, null, null, null, null, null
+        );
+        AggregateQueryParams exact = new AggregateQueryParams(
+                null, "thermostat", null, null,
+                now.minusSeconds(60), now,
+                "count,avg,median,p90",
+                false, true, false, false, true, null, null, null, null, null
+        );
+
+        // PERCENTILE_CONT interpolates between 24.0 and 25.0, the sketch is within 1% of it
+        AggregateResponse exactResult = service.getAggregates(exact).get(0);
+        assertEquals(24.8, exactResult.getPercentiles().get("p90"), 1e-9);
+        assertEquals(24.0, exactResult.getMedianValue(), 1e-9);
+
+        AggregateResponse approximateResult = service.getAggregates(approximate).get(0);
+        assertEquals(3, approximateResult.getCount());
+        assertEquals(24.8, approximateResult.getPercentiles().get("p90"), 24.8 * 0.01);
+        assertEquals(24.0, approximateResult.getMedianValue(), 24.0 * 0.01);
+    }
+
+    @Test
+    void testDefaultMedianComputedInSql() {
+        AggregateQueryParams defaults = new AggregateQueryParams(
+                null, "thermostat", null, null,
+                now.minusSeconds(60), now,
+                null,
+                false, true, false, false, null, null, null, null, null, null
+        );
+        long sqlScans = meterRegistry.summary("query.rows.scanned", "source", "sql").count();
+        long rawScans = meterRegistry.summary("query.rows.scanned", "source", "raw").count();
+
+        // The default agg includes the median, the database computes it exactly without a scan of the readings
+        assertEquals(24.0, service.getAggregates(defaults).get(0).getMedianValue(), 1e-9);
+        assertEquals(sqlScans + 1, meterRegistry.summary("query.rows.scanned", "source", "sql").count());
+        assertEquals(rawScans, meterRegistry.summary("query.rows.scanned", "source", "raw").count());
+
+        // exact=false asks for the sketch
+        AggregateQueryParams sketch = new AggregateQueryParams(
+                null, "thermostat", null, null,
+                now.minusSeconds(60), now,
+                null,
+                false, true, false, false, false, null, null, null, null, null
+        );
+        assertEquals(24.0, service.getAggregates(sketch).get(0).getMedianValue(), 24.0 * 0.01);
+        assertEquals(rawScans + 1, meterRegistry.summary("query.rows.scanned", "source", "raw").count());
+    }
+
+    @Test
+    void testDefaultMedianIsExactOnScans() {
+        AggregateQueryParams median = new AggregateQueryParams(
+                null, "thermostat", null, null,
+                now.minusSeconds(60), now,
+                "median",
+                false, true, false, false, null, null, null, null, null, null
+        );
+        // first needs the timestamps of a scan, the median is still the one SQL computes
+        AggregateQueryParams medianAndFirst = new AggregateQueryParams(
+                null, "thermostat", null, null,
+                now.minusSeconds(60), now,
+                "median,first",
+                false, true, false, false, null, null, null, null, null, null
+        );
+        long rawScans = meterRegistry.summary("query.rows.scanned", "source", "raw").count();
+
+        AggregateResponse sql = service.getAggregates(median).get(0);
+        AggregateResponse scanned = service.getAggregates(medianAndFirst).get(0);
+
+        assertEquals(rawScans + 1, meterRegistry.summary("query.rows.scanned", "source", "raw").count());
+        assertEquals(sql.getMedianValue(), scanned.getMedianValue());
+    }
+
+    @Test
+    void testOnlyRequestedAggregates() {
+        // A device reporting three times, so that first and last differ
+        for (int i = 0; i < 3; i++) {
+            SensorReading r = createReading("meter-1", "meter", "group-3", "power", 100.0 + i * 10);
+            r.setTs(now.minusSeconds(30 - i * 10L));
+            ingestService.saveReading(r);
+        }
+
+        AggregateQueryParams params = new AggregateQueryParams(
+                "meter-1", null, null, null,
+                now.minusSeconds(60), now,
+                "sum,stddev,first,last",
+                true, false, false, false, null, null, null, null, null, null
+        );
+
+        AggregateResponse result = service.getAggregates(params).get(0);
+        assertEquals(330.0, result.getSumValue(), 1e-9);
+        assertEquals(10.0, result.getStddevValue(), 1e-9);
+        assertEquals(100.0, result.getFirstValue());
+        assertEquals(120.0, result.getLastValue());
+        assertNull(result.getAvgValue());
+        assertNull(result.getMedianValue());
+        assertNull(result.getCount());
+    }
+
+    @Test
+    void testUnknownAggregateFunction() {
+        AggregateQueryParams params = new AggregateQueryParams(
+                null, null, null, null,
+                now.minusSeconds(60), now,
+                "avg,mode",
+                false, false, false, false, null, null, null, null, null, null
+        );
+
+        CustomException ex = assertThrows(CustomException.class, () -> service.getAggregates(params));
+        assertEquals(CustomException.ErrorCode.VALIDATION_ERROR, ex.getErrorCode());
+    }
+
+    @Test
+    void testIntervalBuckets() {
+        Instant start = Instant.parse("2024-03-01T10:00:00Z");
+        long[] offsets = {5, 40, 70, 179};
+        for (int i = 0; i < offsets.length; i++) {
+            SensorReading r = createReading("meter-2", "meter", "group-3", "power", 1.0 + i * 2);
+            r.setTs(start.plusSeconds(offsets[i]));
+            ingestService.saveReading(r);
+        }
+
+        AggregateQueryParams params = new AggregateQueryParams(
+                "meter-2", null, null, null,
+                start, start.plusSeconds(179),
+                "count,avg,p50",
+                true, false, false, false, null, "1m", null, null, null, null
+        );
+
+        List<SeriesResponse> series = service.getSeries(params);
+        assertEquals(1, series.size());
+        assertEquals("meter-2", series.get(0).getDeviceId());
+        assertEquals(List.of("time", "count", "avg", "p50"), series.get(0).getColumns());
+        assertEquals(List.of(
+                List.of(start, 2L, 2.0, 2.0),
+                List.of(start.plusSeconds(60), 1L, 5.0, 5.0),
+                List.of(start.plusSeconds(120), 1L, 7.0, 7.0)), series.get(0).getValues());
+    }
+
+    @Test
+    void testIntervalWithTooManyBuckets() {
+        AggregateQueryParams params = new AggregateQueryParams(
+                null, null, null, null,
+                now.minus(30, ChronoUnit.DAYS), now,
+                "count",
+                false, false, false, false, null, "1s", null, null, null, null
+        );
+
+        CustomException ex = assertThrows(CustomException.class, () -> service.getSeries(params));
+        assertEquals(CustomException.ErrorCode.VALIDATION_ERROR, ex.getErrorCode());
+    }
+
+    @Test
+    void testStreamAggregates() {
+        AggregateQueryParams params = new AggregateQueryParams(
+                null, null, null, null,
+                now.minusSeconds(60), now,
+                "avg,min,max,count",
+                true, false, false, false, null, null, null, null, null, null
+        );
+
+        List<Object> streamed = new ArrayList<>();
+        long groups = service.streamAggregates(params, streamed::add);
+
+        List<AggregateResponse> expected = service.getAggregates(params);
+        assertEquals(expected.size(), groups);
+        assertEquals(expected.size(), streamed.size());
+        for (int i = 0; i < expected.size(); i++) {
+            AggregateResponse group = (AggregateResponse) streamed.get(i);
+            assertEquals(expected.get(i).getDeviceId(), group.getDeviceId());
+            assertEquals(expected.get(i).getAvgValue(), group.getAvgValue());
+            assertEquals(expected.get(i).getCount(), group.getCount());
+        }
+    }
+
+    @Test
+    void testStreamAggregatesWithoutRecords() {
+        AggregateQueryParams params = new AggregateQueryParams(
+                "nonexistent-device", null, null, null,
+                now.minusSeconds(60), now,
+                "avg,count",
+                true, false, false, false, null, null, null, null, null, null
+        );
+
+        // Not an error when streaming, the response is just empty
+        assertEquals(0, service.streamAggregates(params, group -> {}));
+    }
+
+    @Test
+    void testTopGroupsPushedDownAndSelectedInMemory() {
+        // avg,count runs in SQL, p50 is approximated from a scan and the groups are selected in memory
+        for (String agg : List.of("avg,count", "avg,p50")) {
+            assertEquals(List.of("thermostat-2", "thermostat-1"), deviceIds(agg, "avg", 2, null));
+            assertEquals(List.of("thermostat-1", "vehicle-2"), deviceIds(agg, "avg:desc", 2, 1));
+            assertEquals(List.of("vehicle-1"), deviceIds(agg, "avg:asc", 1, null));
+            // Ties on count are broken on the device id
+            assertEquals(List.of("thermostat-1", "vehicle-1", "vehicle-2"), deviceIds(agg, null, 5, 1));
+        }
+    }
+
+    @Test
+    void testQueriesOfTheSameShapeShareAPlan() {
+        // Whatever the other tests planned, the first query of the shape plans it again
+        plans.clearPlans();
+        double misses = meterRegistry.counter("query.plans", "result", "miss").count();
+        double hits = meterRegistry.counter("query.plans", "result", "hit").count();
+
+        List<AggregateResponse> thermostats = repository.getDynamicAggregates(new AggregateQueryParams(
+                null, "thermostat", null, null, now.minusSeconds(60), now, "sum,count",
+                false, false, true, false, null, null, null, null, "sum:asc", null));
+        List<AggregateResponse> vehicles = repository.getDynamicAggregates(new AggregateQueryParams(
+                null, "vehicle", null, null, now.minusSeconds(60), now, "sum,count",
+                false, false, true, false, null, null, null, null, "sum:asc", null));
+
+        assertEquals(1, plans.plannedShapes());
+        assertEquals(misses + 1, meterRegistry.counter("query.plans", "result", "miss").count());
+        assertEquals(hits + 1, meterRegistry.counter("query.plans", "result", "hit").count());
+
+        // Same SQL, bound to the values of each query
+        assertEquals(List.of("group-2", "group-1"), thermostats.stream().map(AggregateResponse::getGroupId).toList());
+        assertEquals(List.of(25.0, 46.0), thermostats.stream().map(AggregateResponse::getSumValue).toList());
+        assertEquals(List.of(1L, 2L), thermostats.stream().map(AggregateResponse::getCount).toList());
+        assertEquals(List.of("group-1", "group-2"), vehicles.stream().map(AggregateResponse::getGroupId).toList());
+        assertEquals(List.of(10.0, 12.0), vehicles.stream().map(AggregateResponse::getSumValue).toList());
+        assertNull(vehicles.get(0).getAvgValue());
+    }
+
+    @Test
+    void testInvalidOrderBy() {
+        CustomException ex = assertThrows(CustomException.class, () -> deviceIds("avg", "first", 5, null));
+        assertEquals(CustomException.ErrorCode.VALIDATION_ERROR, ex.getErrorCode());
+    }
+
+    private List<String> deviceIds(String agg, String orderBy, Integer limit, Integer offset) {
+        AggregateQueryParams params = new AggregateQueryParams(
+                null, null, null, null,
+                now.minusSeconds(60), now,
+                agg,
+                true, false, false, false, null, null, limit, offset, orderBy, null
+        );
+        return service.getAggregates(params).stream().map(AggregateResponse::getDeviceId).toList();
+    }
+}
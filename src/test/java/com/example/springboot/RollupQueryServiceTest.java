@@ -0,0 +1,243 @@
+package com.example.springboot;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.rollup.RollupPlanner;
+import com.example.springboot.rollup.RollupStore;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs against its own database so that the rollup tables do not leak into other test contexts
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:rolluptest;DB_CLOSE_DELAY=-1",
+        "rollup.enabled=true",
+        // Rebuilt by the tests only
+        "rollup.refresh-interval=1h"
+})
+@Import(TestSecurityConfig.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class RollupQueryServiceTest {
+
+    @Autowired
+    private QueryService service;
+
+    @Autowired
+    private IngestService ingestService;
+
+    // The raw SQL path, used as the reference
+    @Autowired
+    private SensorReadingRepository repository;
+
+    @Autowired
+    private RollupStore rollups;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Instant start = Instant.parse("2024-01-01T00:00:00Z");
+
+    @BeforeAll
+    void setUp() {
+        // A reading every 7 minutes 13.25 seconds for three days, on two device types, saved in several batches
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            Instant ts = start.plusMillis(i * 433_250L);
+            readings.add(createReading("thermostat-" + (i % 3), "thermostat", 15.0 + (i * 37 % 100) / 10.0, ts));
+            readings.add(createReading("vehicle-" + (i % 2), "vehicle", 40.0 + (i * 53 % 200) / 10.0, ts));
+            if (readings.size() >= 100) {
+                ingestService.saveReadings(readings);
+                readings = new ArrayList<>();
+            }
+        }
+        ingestService.saveReadings(readings);
+        rollups.refresh();
+    }
+
+    private SensorReading createReading(String deviceId, String deviceType, double value, Instant ts) {
+        SensorReading r = new SensorReading();
+        r.setDeviceId(deviceId);
+        r.setDeviceType(deviceType);
+        r.setGroupId("group-1");
+        r.setMetric("temperature");
+        r.setReading(value);
+        r.setTs(ts);
+        return r;
+    }
+
+    // The queries pass exact=false, otherwise the default median keeps them away from the rollups
+    private void assertSameAsRawScan(AggregateQueryParams params) {
+        List<AggregateResponse> expected = new ArrayList<>(repository.getDynamicAggregates(params));
+        List<AggregateResponse> actual = new ArrayList<>(service.getAggregates(params));
+        assertEquals(expected.size(), actual.size());
+
+        Comparator<AggregateResponse> byLabels = Comparator.comparing(r -> r.getDeviceId() + r.getDeviceType());
+        expected.sort(byLabels);
+        actual.sort(byLabels);
+        for (int i = 0; i < expected.size(); i++) {
+            AggregateResponse e = expected.get(i);
+            AggregateResponse a = actual.get(i);
+            assertEquals(e.getDeviceId(), a.getDeviceId());
+            assertEquals(e.getDeviceType(), a.getDeviceType());
+            assertEquals(e.getCount(), a.getCount());
+            assertEquals(e.getAvgValue(), a.getAvgValue(), 1e-9);
+            assertEquals(e.getMinValue(), a.getMinValue());
+            assertEquals(e.getMaxValue(), a.getMaxValue());
+            // exact=false, the median comes from the sketches, exact within 1%
+            assertEquals(e.getMedianValue(), a.getMedianValue(), Math.abs(e.getMedianValue()) * 0.01);
+        }
+    }
+
+    @Test
+    void testRangeWithUnalignedEdges() {
+        assertSameAsRawScan(new AggregateQueryParams(null, null, null, null,
+                Instant.parse("2024-01-01T05:17:23.500Z"), Instant.parse("2024-01-03T19:02:11Z"),
+                null, false, true, false, false, false, null, null, null, null, null));
+    }
+
+    @Test
+    void testFilteredRangeGroupedByDevice() {
+        assertSameAsRawScan(new AggregateQueryParams(null, "thermostat", null, null,
+                Instant.parse("2024-01-01T23:59:59Z"), Instant.parse("2024-01-02T13:00:00Z"),
+                null, true, false, false, false, false, null, null, null, null, null));
+    }
+
+    @Test
+    void testRangeBelowOneMinute() {
+        assertSameAsRawScan(new AggregateQueryParams(null, null, null, null,
+                Instant.parse("2024-01-01T00:07:00Z"), Instant.parse("2024-01-01T00:07:59Z"),
+                null, false, false, false, false, false, null, null, null, null, null));
+    }
+
+    @Test
+    void testDefaultMedianIsNotFromRollups() {
+        AggregateQueryParams params = new AggregateQueryParams(null, null, null, null,
+                Instant.parse("2024-01-01T05:17:23.500Z"), Instant.parse("2024-01-03T19:02:11Z"),
+                null, false, true, false, false, null, null, null, null, null, null);
+
+        List<AggregateResponse> expected = new ArrayList<>(repository.getDynamicAggregates(params));
+        List<AggregateResponse> actual = new ArrayList<>(service.getAggregates(params));
+        Comparator<AggregateResponse> byType = Comparator.comparing(AggregateResponse::getDeviceType);
+        expected.sort(byType);
+        actual.sort(byType);
+        assertEquals(expected.stream().map(AggregateResponse::getMedianValue).toList(),
+                actual.stream().map(AggregateResponse::getMedianValue).toList());
+    }
+
+    @Test
+    void testSumStddevFirstLastFromRollups() {
+        Instant from = Instant.parse("2024-01-01T05:17:23.500Z");
+        Instant to = Instant.parse("2024-01-03T19:02:11Z");
+        // exact=true skips the rollups and scans the raw readings
+        AggregateResponse expected = service.getAggregates(new AggregateQueryParams(null, "vehicle", null, null,
+                from, to, "sum,stddev,first,last", false, false, false, false, true, null, null, null, null, null)).get(0);
+        AggregateResponse actual = service.getAggregates(new AggregateQueryParams(null, "vehicle", null, null,
+                from, to, "sum,stddev,first,last", false, false, false, false, null, null, null, null, null, null)).get(0);
+
+        assertEquals(expected.getSumValue(), actual.getSumValue(), 1e-6);
+        assertEquals(expected.getStddevValue(), actual.getStddevValue(), 1e-9);
+        assertEquals(expected.getFirstValue(), actual.getFirstValue());
+        assertEquals(expected.getLastValue(), actual.getLastValue());
+    }
+
+    @Test
+    void testSavedBucketsAreStaleUntilRebuilt() {
+        Instant ts = Instant.parse("2024-03-01T10:00:30Z");
+        ingestService.saveReadings(new ArrayList<>(List.of(createReading("thermostat-9", "thermostat", 20.0, ts))));
+
+        Instant hour = Instant.parse("2024-03-01T10:00:00Z");
+        assertFalse(rollups.isFresh(hour, hour.plus(Duration.ofHours(1))));
+        // The query reads the raw readings of the stale buckets
+        assertSameAsRawScan(new AggregateQueryParams("thermostat-9", null, null, null,
+                hour, Instant.parse("2024-03-01T11:59:59Z"), null, false, false, false, false, false, null, null, null, null, null));
+
+        rollups.refresh();
+        assertTrue(rollups.isFresh(hour, hour.plus(Duration.ofHours(1))));
+        assertEquals(1, rollups.aggregate(Duration.ofHours(1), hour, hour.plus(Duration.ofHours(1)), null).get(seriesId("thermostat-9")).getCount());
+    }
+
+    @Test
+    void testBackfillOfReadingsSavedWithoutRollups() {
+        // Saved around the IngestService, as while rollups were disabled
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            readings.add(createReading("vehicle-7", "vehicle", i, Instant.parse("2024-04-01T00:00:00Z").plusSeconds(i * 60L)));
+        }
+        ingestService.resolveSeries(readings);
+        repository.saveAll(readings);
+
+        Instant day = Instant.parse("2024-04-01T00:00:00Z");
+        assertTrue(rollups.aggregate(Duration.ofDays(1), day, day.plus(Duration.ofDays(1)), null).isEmpty());
+
+        rollups.backfill();
+        rollups.refresh();
+
+        PartialAggregate rolledUp = rollups.aggregate(Duration.ofDays(1), day, day.plus(Duration.ofDays(1)), null).get(seriesId("vehicle-7"));
+        assertEquals(120, rolledUp.getCount());
+        assertEquals(7140.0, rolledUp.getSum());
+        assertSameAsRawScan(new AggregateQueryParams("vehicle-7", null, null, null,
+                day, Instant.parse("2024-04-02T00:00:00Z"), null, false, false, false, false, false, null, null, null, null, null));
+    }
+
+    @Test
+    void testRetentionRemovesDroppedBuckets() {
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 48; i++) {
+            readings.add(createReading("thermostat-8", "thermostat", i, Instant.parse("2023-06-01T00:30:00Z").plus(Duration.ofHours(i))));
+        }
+        ingestService.saveReadings(readings);
+        rollups.refresh();
+
+        // The first day is dropped, as the partition retention would
+        Instant cutoff = Instant.parse("2023-06-02T00:00:00Z");
+        jdbcTemplate.update("DELETE FROM sensor_reading WHERE ts < ?", cutoff.atOffset(ZoneOffset.UTC));
+        rollups.onDropped(cutoff);
+        assertFalse(rollups.isFresh(Instant.parse("2023-06-01T00:00:00Z"), cutoff));
+        rollups.refresh();
+
+        Instant month = Instant.parse("2023-06-01T00:00:00Z");
+        assertEquals(24, rollups.aggregate(Duration.ofDays(1), month, month.plus(Duration.ofDays(30)), null).get(seriesId("thermostat-8")).getCount());
+        assertTrue(rollups.aggregate(Duration.ofHours(1), month, cutoff, null).isEmpty());
+    }
+
+    private int seriesId(String deviceId) {
+        return jdbcTemplate.queryForObject("SELECT id FROM sensor_series WHERE device_id = ?", Integer.class, deviceId);
+    }
+
+    @Test
+    void testPlannerUsesCoarsestResolution() {
+        List<Duration> resolutions = List.of(Duration.ofMinutes(1), Duration.ofHours(1), Duration.ofDays(1));
+        List<RollupPlanner.Segment> segments = RollupPlanner.plan(
+                Instant.parse("2024-01-01T09:59:30Z"), Instant.parse("2024-01-01T12:00:10Z"), resolutions);
+
+        assertEquals(List.of(
+                new RollupPlanner.Segment(null, Instant.parse("2024-01-01T09:59:30Z"), Instant.parse("2024-01-01T10:00:00Z")),
+                new RollupPlanner.Segment(Duration.ofHours(1), Instant.parse("2024-01-01T10:00:00Z"), Instant.parse("2024-01-01T12:00:00Z")),
+                new RollupPlanner.Segment(null, Instant.parse("2024-01-01T12:00:00Z"), Instant.parse("2024-01-01T12:00:10.000001Z"))),
+                segments);
+
+        List<RollupPlanner.Segment> month = RollupPlanner.plan(
+                Instant.parse("2024-01-01T00:00:00Z"), Instant.parse("2024-01-31T00:00:00Z"), resolutions);
+        assertTrue(month.stream().anyMatch(s -> Duration.ofDays(1).equals(s.resolution())));
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.springboot;
+
+import com.example.springboot.aspect.ExecutionTimeAspect;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.exception.CustomException;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Runs against its own database so that the readings counted are only the ones saved here
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:metricstest;DB_CLOSE_DELAY=-1")
+@Import(TestSecurityConfig.class)
+class ServiceMetricsTest {
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private QueryService queryService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ExecutionTimeAspect executionTimeAspect;
+
+    private final Instant start = Instant.parse("2024-03-01T00:00:00Z");
+
+    private SensorReading createReading(int i) {
+        SensorReading r = new SensorReading();
+        r.setDeviceId("meter-" + i % 2);
+        r.setDeviceType("meter");
+        r.setGroupId("group-1");
+        r.setMetric("power");
+        r.setReading(100.0 + i);
+        r.setTs(start.plusSeconds(i * 60L));
+        return r;
+    }
+
+    private SensorReading counterReading(int i) {
+        SensorReading reading = createReading(i);
+        reading.setDeviceId("counter-0");
+        reading.setDeviceType("counter");
+        return reading;
+    }
+
+    private Timer timer(String method, String outcome) {
+        return meterRegistry.find("service.method").tag("method", method).tag("outcome", outcome).timer();
+    }
+
+    private double rowsScanned(String source) {
+        DistributionSummary summary = meterRegistry.find("query.rows.scanned").tag("source", source).summary();
+        return summary == null ? 0 : summary.totalAmount();
+    }
+
+    @Test
+    void testIngestAndQueryMeters() {
+        double ingested = meterRegistry.counter("ingest.rows").count();
+
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            readings.add(createReading(i));
+        }
+        ingestService.saveReadings(readings);
+        ingestService.saveReading(createReading(6));
+
+        assertEquals(ingested + 7, meterRegistry.counter("ingest.rows").count());
+        assertNotNull(timer("saveReadings", "success"));
+        assertEquals(1, timer("saveReading", "success").count());
+
+        // count and avg are computed in SQL, p90 from a scan of the raw readings
+        double sql = rowsScanned("sql");
+        double raw = rowsScanned("raw");
+        queryService.getAggregates(new AggregateQueryParams(null, "meter", null, null, start, start.plusSeconds(3600),
+                "count,avg", true, false, false, false, null, null, null, null, null, null));
+        queryService.getAggregates(new AggregateQueryParams("meter-0", null, null, null, start, start.plusSeconds(3600),
+                "p90", false, false, false, false, null, null, null, null, null, null));
+
+        assertEquals(sql + 7, rowsScanned("sql"));
+        assertEquals(raw + 4, rowsScanned("raw"));
+        assertEquals(2, timer("getAggregates", "success").count());
+    }
+
+    @Test
+    void testPagedQueryCountsTheReadingsOfAllGroups() {
+        List<SensorReading> readings = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            SensorReading reading = createReading(i);
+            reading.setDeviceId("gauge-" + i);
+            reading.setDeviceType("gauge");
+            readings.add(reading);
+        }
+        ingestService.saveReadings(readings);
+
+        double sql = rowsScanned("sql");
+        assertEquals(2, queryService.getAggregates(new AggregateQueryParams(null, "gauge", null, null, start,
+                start.plusSeconds(3600), "count", true, false, false, false, null, null, 2, null, null, null)).size());
+
+        // The 3 readings of the groups after the page were aggregated as well
+        assertEquals(sql + 5, rowsScanned("sql"));
+    }
+
+    @Test
+    void testSuccessTimersAreKeptOncePerMethod() {
+        // Spring passes a new join point and signature to every call
+        ingestService.saveReadings(new ArrayList<>(List.of(counterReading(0))));
+        int timers = executionTimeAspect.successTimerCount();
+
+        for (int i = 1; i < 10; i++) {
+            ingestService.saveReadings(new ArrayList<>(List.of(counterReading(i))));
+        }
+
+        assertEquals(timers, executionTimeAspect.successTimerCount());
+    }
+
+    @Test
+    void testFailedCallsAreTaggedWithTheException() {
+        assertThrows(CustomException.class, () -> queryService.getAggregates(new AggregateQueryParams("unknown", null,
+                null, null, start, start.plusSeconds(3600), null, null, null, null, null, null, null, null, null, null, null)));
+
+        Timer failed = meterRegistry.find("service.method").tag("method", "getAggregates")
+                .tag("outcome", "error").tag("exception", "CustomException").timer();
+        assertNotNull(failed);
+        assertEquals(1, failed.count());
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.springboot;
+
+import com.example.springboot.aggregate.PartialAggregate;
+import com.example.springboot.aggregate.ScanOptions;
+import com.example.springboot.bean.AggregateQueryParams;
+import com.example.springboot.bean.AggregateResponse;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.QueryService;
+import com.example.springboot.shard.ConsistentHashShardRouter;
+import com.example.springboot.shard.SensorReadingRepositoryFactory;
+import com.example.springboot.shard.SensorRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs against its own main database and shards so that other test contexts are not affected
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:shardtest;DB_CLOSE_DELAY=-1",
+        "sharding.enabled=true",
+        "sharding.count=3",
+        "sharding.url-template=jdbc:h2:mem:shardtest-%d;DB_CLOSE_DELAY=-1"
+})
+@Import(TestSecurityConfig.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ShardedQueryServiceTest {
+
+    @Autowired
+    private QueryService service;
+
+    @Autowired
+    private IngestService ingestService;
+
+    @Autowired
+    private SensorReadingRepositoryFactory shards;
+
+    private final Instant start = Instant.parse("2024-01-01T00:00:00Z");
+
+    @BeforeAll
+    void setUp() {
+        List<SensorReading> readings = new ArrayList<>();
+        readings.add(createReading("thermostat-1", "thermostat", "group-1", "temperature", 22.0, 0));
+        readings.add(createReading("thermostat-2", "thermostat", "group-1", "temperature", 24.0, 1));
+        readings.add(createReading("thermostat-2", "thermostat", "group-2", "temperature", 25.0, 2));
+        readings.add(createReading("vehicle-1", "vehicle", "group-1", "fuel", 10.0, 3));
+        readings.add(createReading("vehicle-2", "vehicle", "group-2", "fuel", 12.0, 4));
+        for (int i = 0; i < 10; i++) {
+            readings.add(createReading("camera-" + i, "camera", "group-" + (i % 2 + 1), "fps", 20.0 + i, 5 + i));
+        }
+        ingestService.saveReadings(readings);
+    }
+
+    private SensorReading createReading(String deviceId, String deviceType, String groupId, String metric, double value, int second) {
+        SensorReading r = new SensorReading();
+        r.setDeviceId(deviceId);
+        r.setDeviceType(deviceType);
+        r.setGroupId(groupId);
+        r.setMetric(metric);
+        r.setReading(value);
+        r.setTs(start.plusSeconds(second));
+        return r;
+    }
+
+    private AggregateQueryParams params(String deviceType, boolean groupByDeviceType, boolean groupByGroupId) {
+        return new AggregateQueryParams(null, deviceType, null, null, start, start.plusSeconds(60),
+                null, false, groupByDeviceType, groupByGroupId, false, null, null, null, null, null, null);
+    }
+
+    @Test
+    void testGroupByDeviceTypeAcrossShards() {
+        List<AggregateResponse> results = service.getAggregates(params(null, true, false));
+        assertEquals(3, results.size());
+
+        // Sorted by count like the SQL path
+        assertEquals("camera", results.get(0).getDeviceType());
+        assertEquals(10, results.get(0).getCount());
+        assertEquals(24.5, results.get(0).getAvgValue(), 1e-9);
+        assertEquals(20.0, results.get(0).getMinValue());
+        assertEquals(29.0, results.get(0).getMaxValue());
+
+        for (AggregateResponse resp : results) {
+            if (resp.getDeviceType().equals("thermostat")) {
+                assertEquals((22.0 + 24.0 + 25.0) / 3, resp.getAvgValue(), 1e-9);
+                assertEquals(3, resp.getCount());
+                // The sharded median comes from a sketch with 1% relative accuracy
+                assertEquals(24.0, resp.getMedianValue(), 24.0 * 0.01);
+            }
+        }
+    }
+
+    @Test
+    void testGroupByGroupIdMergesShards() {
+        List<AggregateResponse> results = service.getAggregates(params(null, false, true));
+        assertEquals(2, results.size());
+        assertEquals(15, results.stream().mapToLong(AggregateResponse::getCount).sum());
+    }
+
+    @Test
+    void testSqlSummariesMatchStreamedPartials() {
+        ScanOptions summaries = new ScanOptions(false, false, false);
+        ScanOptions streamed = ScanOptions.DEFAULT;
+        for (SensorRepository shard : shards.getRepositories(params(null, false, false))) {
+            Map<Integer, PartialAggregate> expected = shard.aggregate(start, start.plusSeconds(60), null, streamed);
+            Map<Integer, PartialAggregate> actual = shard.aggregate(start, start.plusSeconds(60), null, summaries);
+            assertSamePartials(expected, actual);
+
+            Map<Instant, Map<Integer, PartialAggregate>> expectedBuckets =
+                    shard.aggregateBuckets(start, start.plusSeconds(60), null, streamed, Duration.ofSeconds(5));
+            Map<Instant, Map<Integer, PartialAggregate>> actualBuckets =
+                    shard.aggregateBuckets(start, start.plusSeconds(60), null, summaries, Duration.ofSeconds(5));
+            assertEquals(expectedBuckets.keySet(), actualBuckets.keySet());
+            expectedBuckets.forEach((bucket, partials) -> assertSamePartials(partials, actualBuckets.get(bucket)));
+        }
+
+        // Computed by GROUP BY series_id on every shard and merged
+        AggregateResponse cameras = service.getAggregates(new AggregateQueryParams(null, "camera", null, null,
+                start, start.plusSeconds(60), "count,sum,min,max,stddev", false, true, false, false, null, null,
+                null, null, null, null)).get(0);
+        assertEquals(10, cameras.getCount());
+        assertEquals(245.0, cameras.getSumValue(), 1e-9);
+        assertEquals(20.0, cameras.getMinValue());
+        assertEquals(29.0, cameras.getMaxValue());
+        assertEquals(Math.sqrt(82.5 / 9), cameras.getStddevValue(), 1e-9);
+    }
+
+    private static void assertSamePartials(Map<Integer, PartialAggregate> expected, Map<Integer, PartialAggregate> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((seriesId, partial) -> {
+            PartialAggregate other = actual.get(seriesId);
+            assertEquals(partial.getCount(), other.getCount());
+            assertEquals(partial.getSum(), other.getSum(), 1e-9);
+            assertEquals(partial.getMin(), other.getMin());
+            assertEquals(partial.getMax(), other.getMax());
+            assertEquals(partial.getM2(), other.getM2(), 1e-9);
+        });
+    }
+
+    @Test
+    void testFilterOnShardKeyVisitsOneShard() {
+        AggregateQueryParams params = params("vehicle", false, false);
+        assertEquals(1, shards.getRepositories(params).size());
+
+        List<AggregateResponse> results = service.getAggregates(params);
+        assertEquals(1, results.size());
+        assertEquals(11.0, results.get(0).getAvgValue(), 1e-9);
+        assertEquals(2, results.get(0).getCount());
+    }
+
+    @Test
+    void testConsistentHashMovesFewKeys() {
+        ConsistentHashShardRouter four = new ConsistentHashShardRouter(4, 128);
+        ConsistentHashShardRouter five = new ConsistentHashShardRouter(5, 128);
+
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String key = "device-" + i;
+            if (four.shardFor(key) != five.shardFor(key)) moved++;
+        }
+
+        // Ideally 1/5 of the keys move to the new shard, a modulo router would move about 4/5
+        assertTrue(moved < 3000, "moved " + moved);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.springboot;
+
+import com.example.springboot.config.SimulatorProperties;
+import com.example.springboot.repository.SensorReadingRepository;
+import com.example.springboot.simulator.ArrivalSchedule;
+import com.example.springboot.simulator.IoTDeviceSimulator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs the simulator against the application on a random port, with its own database to count the saved readings
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.datasource.url=jdbc:h2:mem:simulatortest;DB_CLOSE_DELAY=-1")
+@Import(TestSecurityConfig.class)
+class SimulatorTest {
+
+    @Autowired
+    private IoTDeviceSimulator simulator;
+
+    @Autowired
+    private SimulatorProperties properties;
+
+    @Autowired
+    private SensorReadingRepository repository;
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void testConstantSchedule() {
+        ArrivalSchedule schedule = new ArrivalSchedule(1000, SimulatorProperties.Profile.CONSTANT, TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, schedule.intendedNanos(0));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), schedule.intendedNanos(1));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), schedule.intendedNanos(1000));
+    }
+
+    @Test
+    void testRampSchedule() {
+        // 1000 requests/s reached after 10 s, 5000 requests sent during the ramp
+        ArrivalSchedule schedule = new ArrivalSchedule(1000, SimulatorProperties.Profile.RAMP, TimeUnit.SECONDS.toNanos(10));
+        assertEquals(TimeUnit.SECONDS.toNanos(5), schedule.intendedNanos(1250), 1000);
+        assertEquals(TimeUnit.SECONDS.toNanos(10), schedule.intendedNanos(5000), 1000);
+        assertEquals(TimeUnit.SECONDS.toNanos(11), schedule.intendedNanos(6000), 1000);
+    }
+
+    // 20 devices sending 10 readings per second for 2 seconds. The properties are shared by the tests
+    private void configure(SimulatorProperties.Mode mode) {
+        properties.setMode(mode);
+        properties.setUrl("http://localhost:" + port + "/api/ingest");
+        properties.setDevices(Map.of("thermostat", 10, "wearable", 10));
+        properties.setInterval(Duration.ofMillis(100));
+        properties.setDuration(Duration.ofSeconds(2));
+        properties.setBatchSize(1);
+    }
+
+    @Test
+    void testRunAgainstIngestApi() {
+        configure(SimulatorProperties.Mode.HTTP);
+
+        long before = repository.count();
+        IoTDeviceSimulator.Report report = simulator.run();
+
+        // 20 devices sending 10 readings per second for 2 seconds
+        assertEquals(400, report.requests());
+        assertEquals(0, report.errors());
+        assertEquals(400, report.latency().getTotalCount());
+        assertTrue(report.latency().getMaxValue() >= report.serviceTime().getMinValue());
+        assertEquals(before + 400, repository.count());
+
+        // Same load posted to the batch API, 5 readings per request
+        properties.setBatchSize(5);
+        report = simulator.run();
+
+        assertEquals(80, report.requests());
+        assertEquals(400, report.readings());
+        assertEquals(0, report.errors());
+        assertEquals(before + 800, repository.count());
+    }
+
+    @Test
+    void testRunInProcess() {
+        configure(SimulatorProperties.Mode.IN_PROCESS);
+
+        long before = repository.count();
+        IoTDeviceSimulator.Report report = simulator.run();
+
+        assertEquals(400, report.requests());
+        assertEquals(0, report.errors());
+        assertEquals(400, report.commitLatency().getTotalCount());
+        assertTrue(report.rowsPerSecond() > 0);
+        assertTrue(report.allocatedBytes() > 0);
+        assertEquals(before + 400, repository.count());
+
+        // Batches go through IngestService.ingestBatch, every reading is still tracked until its commit
+        properties.setBatchSize(5);
+        report = simulator.run();
+
+        assertEquals(80, report.requests());
+        assertEquals(0, report.errors());
+        assertEquals(400, report.commitLatency().getTotalCount());
+        assertEquals(before + 800, repository.count());
+    }
+}
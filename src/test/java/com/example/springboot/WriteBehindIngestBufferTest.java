@@ -0,0 +1,100 @@
+package com.example.springboot;
+
+import com.example.springboot.config.WriteBehindProperties;
+import com.example.springboot.entity.SensorReading;
+import com.example.springboot.service.IngestService;
+import com.example.springboot.service.WriteBehindIngestBuffer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class WriteBehindIngestBufferTest {
+
+    private final IngestService ingestService = mock(IngestService.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private WriteBehindIngestBuffer buffer;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (buffer != null) {
+            buffer.stop();
+        }
+    }
+
+    private WriteBehindProperties properties(int capacity, int maxBatchSize, long maxLatencyMs) {
+        WriteBehindProperties properties = new WriteBehindProperties();
+        properties.setEnabled(true);
+        properties.setCapacity(capacity);
+        properties.setWriterThreads(1);
+        properties.setMaxBatchSize(maxBatchSize);
+        properties.setMaxLatencyMs(maxLatencyMs);
+        return properties;
+    }
+
+    private SensorReading createReading(int i) {
+        SensorReading reading = new SensorReading();
+        reading.setDeviceId("thermostat-" + i);
+        reading.setDeviceType("thermostat");
+        reading.setGroupId("group-1");
+        reading.setMetric("temperature");
+        reading.setReading(20.0 + i);
+        reading.setTs(Instant.now());
+        return reading;
+    }
+
+    @Test
+    void testBufferedReadingsAreSavedInGroups() throws InterruptedException {
+        AtomicInteger saved = new AtomicInteger();
+        CountDownLatch allSaved = new CountDownLatch(1);
+        when(ingestService.saveReadings(anyList())).thenAnswer(invocation -> {
+            List<?> batch = invocation.getArgument(0);
+            assertTrue(batch.size() <= 10);
+            if (saved.addAndGet(batch.size()) == 25) {
+                allSaved.countDown();
+            }
+            return batch.size();
+        });
+
+        buffer = new WriteBehindIngestBuffer(ingestService, properties(100, 10, 20), meterRegistry);
+        for (int i = 0; i < 25; i++) {
+            assertTrue(buffer.offer(createReading(i)));
+        }
+        buffer.start();
+
+        assertTrue(allSaved.await(5, TimeUnit.SECONDS));
+        assertEquals(25, saved.get());
+
+        // The batch size is recorded once saveReadings has returned
+        long deadline = System.currentTimeMillis() + 5000;
+        while (meterRegistry.get("ingest.buffer.batch.size").summary().totalAmount() < 25.0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(25.0, meterRegistry.get("ingest.buffer.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    void testOfferRejectsWhenFull() {
+        // Writers are not started, so nothing drains the buffer
+        buffer = new WriteBehindIngestBuffer(ingestService, properties(2, 10, 20), meterRegistry);
+
+        assertTrue(buffer.offer(createReading(1)));
+        assertTrue(buffer.offer(createReading(2)));
+        assertFalse(buffer.offer(createReading(3)));
+
+        assertEquals(2, buffer.depth());
+        assertEquals(1.0, meterRegistry.get("ingest.buffer.rejected").counter().count());
+    }
+}